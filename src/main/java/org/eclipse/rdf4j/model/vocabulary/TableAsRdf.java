@@ -27,14 +27,44 @@ public class TableAsRdf {
 
 	public static final IRI lang;
 
+	public static final IRI language;
+
+	public static final IRI enumType;
+
 	public static final IRI kind;
 
+	public static final IRI mayContainDuplicates;
+
+	public static final IRI rowGroup;
+
+	public static final IRI rowGroupIndex;
+
+	public static final IRI minSubject;
+
+	public static final IRI maxSubject;
+
+	public static final IRI compression;
+
+	public static final IRI storageBytes;
+
+	public static final IRI shape;
+
 	static {
 		table = Vocabularies.createIRI(NAMESPACE, "table");
 		columns = Vocabularies.createIRI(NAMESPACE, "columns");
 		predicate = Vocabularies.createIRI(NAMESPACE, "predicate");
 		kind = Vocabularies.createIRI(NAMESPACE, "kind");
+		mayContainDuplicates = Vocabularies.createIRI(NAMESPACE, "mayContainDuplicates");
+		rowGroup = Vocabularies.createIRI(NAMESPACE, "rowGroup");
+		rowGroupIndex = Vocabularies.createIRI(NAMESPACE, "rowGroupIndex");
+		minSubject = Vocabularies.createIRI(NAMESPACE, "minSubject");
+		maxSubject = Vocabularies.createIRI(NAMESPACE, "maxSubject");
+		compression = Vocabularies.createIRI(NAMESPACE, "compression");
+		storageBytes = Vocabularies.createIRI(NAMESPACE, "storageBytes");
+		shape = Vocabularies.createIRI(NAMESPACE, "shape");
 		lang = Vocabularies.createIRI(NAMESPACE, "lang");
+		language = Vocabularies.createIRI(NAMESPACE, "language");
+		enumType = Vocabularies.createIRI(NAMESPACE, "enumType");
 		datatype = Vocabularies.createIRI(NAMESPACE, "datatype");
 		column = Vocabularies.createIRI(NAMESPACE, "Column");
 		subjectColumns = Vocabularies.createIRI(NAMESPACE, "subjectColumns");
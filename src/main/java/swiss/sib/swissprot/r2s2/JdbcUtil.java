@@ -1,13 +1,25 @@
 package swiss.sib.swissprot.r2s2;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.duckdb.DuckDBConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import swiss.sib.swissprot.r2s2.loading.ExternalProcessHelper;
+
 public class JdbcUtil {
 	private static Logger logger = LoggerFactory.getLogger(JdbcUtil.class);
 
@@ -23,6 +35,18 @@ public class JdbcUtil {
 		return DriverManager.getConnection(jdbc, new Properties());
 	}
 	
+	/**
+	 * For querying a finished database, DuckDB then allows other processes to
+	 * read it at the same time.
+	 */
+	public static Connection openReadOnly(String jdbc) throws SQLException {
+		Properties properties = new Properties();
+		if (jdbc.startsWith("jdbc:duckdb:")) {
+			properties.setProperty("duckdb.read_only", "true");
+		}
+		return DriverManager.getConnection(jdbc, properties);
+	}
+
 	public static void checkpoint(Connection conn_rw) {
 		try (java.sql.Statement s = conn_rw.createStatement()) {
 			final boolean execute = s.execute("checkpoint");
@@ -37,4 +61,117 @@ public class JdbcUtil {
 			conn_rw.commit();
 		}
 	}
+
+	public interface SqlTask<T> {
+		public void run(Connection conn, T item) throws SQLException;
+	}
+
+	/**
+	 * Run a task for each item. On DuckDB every task gets its own duplicate of the
+	 * connection so that they run concurrently and see the same attached
+	 * databases. Other databases run them one after the other on the given
+	 * connection.
+	 *
+	 * @param conn    the connection to duplicate
+	 * @param items   to run the task for
+	 * @param threads maximum number of tasks running at the same time
+	 * @param task    to run
+	 * @throws SQLException the first failure of any task
+	 */
+	public static <T> void runConcurrently(Connection conn, Collection<T> items, int threads, SqlTask<T> task)
+			throws SQLException {
+		if (conn instanceof DuckDBConnection duckdb && threads > 1 && items.size() > 1) {
+			ExecutorService exec = Executors.newFixedThreadPool(Math.min(threads, items.size()));
+			try {
+				List<Future<SQLException>> running = new ArrayList<>();
+				for (T item : items) {
+					running.add(exec.submit(() -> {
+						try (Connection duplicate = duckdb.duplicate()) {
+							task.run(duplicate, item);
+						} catch (SQLException e) {
+							return e;
+						}
+						return null;
+					}));
+				}
+				ExternalProcessHelper.waitForFutures(running);
+			} finally {
+				exec.shutdown();
+			}
+		} else {
+			for (T item : items) {
+				task.run(conn, item);
+			}
+		}
+	}
+
+	/**
+	 * Table in the main database listing the files that hold graph partitions,
+	 * by catalog alias and file name relative to the main database.
+	 */
+	public static final String GRAPH_PARTITIONS = "graph_partitions";
+
+	/**
+	 * A table with one row: an id that is new every time the loader finishes.
+	 */
+	public static final String LOAD_GENERATION = "load_generation";
+
+	/**
+	 * DuckDB does not remember attached databases, so every connection that
+	 * queries a graph partitioned database needs to attach the partitions before
+	 * the views over them can be used. Does nothing on databases that are not
+	 * partitioned.
+	 */
+	public static void attachGraphPartitions(Connection conn) throws SQLException {
+		if (!(conn instanceof DuckDBConnection)) {
+			return;
+		}
+		List<String[]> partitions = new ArrayList<>();
+		String mainPath = null;
+		try (Statement stat = conn.createStatement()) {
+			try (ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM information_schema.tables WHERE table_name = '"
+					+ GRAPH_PARTITIONS + "' AND table_catalog = current_database()")) {
+				rs.next();
+				if (rs.getLong(1) == 0) {
+					return;
+				}
+			}
+			try (ResultSet rs = stat.executeQuery("SELECT alias, file FROM " + GRAPH_PARTITIONS)) {
+				while (rs.next()) {
+					partitions.add(new String[] { rs.getString(1), rs.getString(2) });
+				}
+			}
+			try (ResultSet rs = stat
+					.executeQuery("SELECT path FROM duckdb_databases() WHERE database_name = current_database()")) {
+				rs.next();
+				mainPath = rs.getString(1);
+			}
+		}
+		File dir = new File(mainPath).getAbsoluteFile().getParentFile();
+		for (String[] partition : partitions) {
+			try (Statement stat = conn.createStatement()) {
+				stat.execute("ATTACH IF NOT EXISTS '" + new File(dir, partition[1]).getAbsolutePath() + "' AS "
+						+ partition[0] + " (READ_ONLY)");
+			}
+		}
+	}
+
+	/**
+	 * @return the id written by the last finished load, or null if the database
+	 *         has none
+	 */
+	public static String loadGeneration(Connection conn) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			try (ResultSet rs = stat.executeQuery(
+					"SELECT COUNT(*) FROM information_schema.tables WHERE LOWER(table_name) = '" + LOAD_GENERATION + "'")) {
+				rs.next();
+				if (rs.getLong(1) == 0) {
+					return null;
+				}
+			}
+			try (ResultSet rs = stat.executeQuery("SELECT generation FROM " + LOAD_GENERATION)) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
 }
@@ -0,0 +1,134 @@
+package swiss.sib.swissprot.r2s2.loading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scalable bloom filter over the rows written into one target table. If a
+ * row is reported as new it certainly was not seen before. If it is reported as
+ * seen it might be a false positive, so the table may contain duplicates and
+ * this needs to be verified exactly once loading is done.
+ *
+ * Starts small so that the many tiny tables cost little memory, and gives up
+ * tracking once a table grows too large for the filter to stay useful.
+ */
+final class DuplicateFilter {
+	private static final int FIRST_STAGE_BITS = 1 << 16;
+	private static final long MAX_TOTAL_BITS = 1L << 26;
+	private static final int BITS_PER_ROW = 10;
+	private static final int HASHES = 7;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final List<long[]> stages = new ArrayList<>();
+	private long totalBits = 0;
+	private long rowsInLastStage = 0;
+	private boolean possibleDuplicates = false;
+	private boolean saturated = false;
+
+	DuplicateFilter() {
+		addStage(FIRST_STAGE_BITS);
+	}
+
+	/**
+	 * @return true if this row was never seen before.
+	 */
+	boolean add(String[] subjParts, long subjBnode, String[] objParts, long objBnode, int graph) {
+		if (saturated) {
+			return false;
+		}
+		long hash = hash(subjParts, subjBnode, objParts, objBnode, graph);
+		for (long[] stage : stages) {
+			if (contains(stage, hash)) {
+				possibleDuplicates = true;
+				return false;
+			}
+		}
+		long[] last = stages.get(stages.size() - 1);
+		if (rowsInLastStage >= (last.length * 64L) / BITS_PER_ROW) {
+			long nextBits = last.length * 64L * 2;
+			if (totalBits + nextBits > MAX_TOTAL_BITS) {
+				saturated = true;
+				stages.clear();
+				return false;
+			}
+			last = addStage((int) nextBits);
+		}
+		set(last, hash);
+		rowsInLastStage++;
+		return true;
+	}
+
+	/**
+	 * @return false only if it is certain that no row was written twice.
+	 */
+	boolean mayContainDuplicates() {
+		return possibleDuplicates || saturated;
+	}
+
+	private long[] addStage(int bits) {
+		long[] stage = new long[bits / 64];
+		stages.add(stage);
+		totalBits += bits;
+		rowsInLastStage = 0;
+		return stage;
+	}
+
+	private static boolean contains(long[] stage, long hash) {
+		long mask = stage.length * 64L - 1;
+		long h2 = mix(hash) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = (hash + i * h2) & mask;
+			if ((stage[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void set(long[] stage, long hash) {
+		long mask = stage.length * 64L - 1;
+		long h2 = mix(hash) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = (hash + i * h2) & mask;
+			stage[(int) (bit >>> 6)] |= (1L << bit);
+		}
+	}
+
+	private static long hash(String[] subjParts, long subjBnode, String[] objParts, long objBnode, int graph) {
+		long h = FNV_OFFSET;
+		h = hash(h, subjParts);
+		h = (h ^ subjBnode) * FNV_PRIME;
+		h = hash(h, objParts);
+		h = (h ^ objBnode) * FNV_PRIME;
+		h = (h ^ graph) * FNV_PRIME;
+		return mix(h);
+	}
+
+	private static long hash(long h, String[] parts) {
+		if (parts == null) {
+			return h;
+		}
+		for (String part : parts) {
+			if (part == null) {
+				h = (h ^ 0xff) * FNV_PRIME;
+			} else {
+				for (int i = 0; i < part.length(); i++) {
+					h = (h ^ part.charAt(i)) * FNV_PRIME;
+				}
+			}
+			// separator so that ("ab","c") and ("a","bc") differ
+			h = (h ^ 0xfe) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
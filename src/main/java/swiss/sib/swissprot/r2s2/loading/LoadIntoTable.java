@@ -59,6 +59,7 @@ public final class LoadIntoTable implements AutoCloseable {
 
 	private final Lock lock = new ReentrantLock();
 	private final Connection conn;
+	private final DuplicateFilter duplicateFilter = new DuplicateFilter();
 
 	private interface Inserter extends AutoCloseable {
 		public void add(String[] subjParts, Resource subj, String[] objParts, Value obj, int tempGraphId)
@@ -228,6 +229,7 @@ public final class LoadIntoTable implements AutoCloseable {
 	public void close() throws SQLException {
 		if (!closed) {
 			this.inserter.close();
+			table.setMayContainDuplicates(duplicateFilter.mayContainDuplicates());
 			logger.info("Closed " + table.name() + " now has " + this.inserter.count() + " rows");
 		}
 		closed = true;
@@ -309,46 +311,27 @@ public final class LoadIntoTable implements AutoCloseable {
 			final String[] parseS = parse(subjectS);
 			final String[] parseO = parse(objectS);
 			lock.lock();
+			duplicateFilter.add(parseS, bnodeId(subjectS), parseO, bnodeId(objectS), tempGraphId);
 			inserter.add(parseS, subjectS, parseO, objectS, tempGraphId);
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	private static long bnodeId(Value v) {
+		if (v.isBNode()) {
+			return ((LoaderBlankNode) v).id();
+		}
+		return 0L;
+	}
+
 	private String[] parse(Value v) {
 		if (v.isIRI()) {
-			String[] r = new String[9];
-			String i = v.stringValue();
 			try {
-				final URI u = new URI(i);
-//				public static final String SCHEME = "_scheme";
-				r[0] = u.getScheme();
-//				public static final String SCHEME_SPECIFIC_PART = "_scheme_specific_part";
-//				public static final String AUTHORITY = "_authority";
-				if (u.getHost() == null) {
-					r[1] = u.getSchemeSpecificPart();
-					r[2] = u.getAuthority();
-				} else {
-//					stat.setString(++index, null);
-//					stat.setString(++index, null);
-				}
-//				public static final String USER_INFO = "_user-info";
-				r[3] = u.getUserInfo();
-//				public static final String HOST = "_host";
-				r[4] = u.getHost();
-				if (u.getPort() >= 0) {
-					r[5] = String.valueOf(u.getPort());
-				}
-//				public static final String PATH = "_path";
-				r[6] = u.getPath();
-//				public static final String QUERY = "_query";
-				r[7] = u.getQuery();
-//				public static final String FRAGMENT = "_fragment";
-				r[8] = u.getFragment();
+				return parseIri(v.stringValue());
 			} catch (URISyntaxException e) {
 				throw new IllegalStateException(e);
 			}
-			return r;
 		} else if (v.isBNode()) {
 //			long i = ((LoaderBlankNode) v).id();
 			return null;
@@ -367,6 +350,42 @@ public final class LoadIntoTable implements AutoCloseable {
 		throw new IllegalStateException("Unknown value type:" + v);
 	}
 
+	/**
+	 * Splits an IRI into the values of its part columns.
+	 *
+	 * @return the parts in the order of {@link GroupOfColumns#IRI_PARTS}, null
+	 *         for a part the IRI does not have
+	 */
+	public static String[] parseIri(String i) throws URISyntaxException {
+		String[] r = new String[9];
+		final URI u = new URI(i);
+//		public static final String SCHEME = "_scheme";
+		r[0] = u.getScheme();
+//		public static final String SCHEME_SPECIFIC_PART = "_scheme_specific_part";
+//		public static final String AUTHORITY = "_authority";
+		if (u.getHost() == null) {
+			r[1] = u.getSchemeSpecificPart();
+			r[2] = u.getAuthority();
+		} else {
+//			stat.setString(++index, null);
+//			stat.setString(++index, null);
+		}
+//		public static final String USER_INFO = "_user-info";
+		r[3] = u.getUserInfo();
+//		public static final String HOST = "_host";
+		r[4] = u.getHost();
+		if (u.getPort() >= 0) {
+			r[5] = String.valueOf(u.getPort());
+		}
+//		public static final String PATH = "_path";
+		r[6] = u.getPath();
+//		public static final String QUERY = "_query";
+		r[7] = u.getQuery();
+//		public static final String FRAGMENT = "_fragment";
+		r[8] = u.getFragment();
+		return r;
+	}
+
 	public Kind subjectKind() {
 		return subjectKind;
 	}
@@ -33,14 +33,22 @@ import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import swiss.sib.swissprot.r2s2.loading.steps.CollectStatistics;
+import swiss.sib.swissprot.r2s2.loading.steps.ConsolidateLanguageTables;
+import swiss.sib.swissprot.r2s2.loading.steps.IntroduceDictionaryEnums;
 import swiss.sib.swissprot.r2s2.loading.steps.IntroduceGraphEnum;
 import swiss.sib.swissprot.r2s2.loading.steps.IntroduceHostEnums;
 import swiss.sib.swissprot.r2s2.loading.steps.IntroduceIndexes;
+import swiss.sib.swissprot.r2s2.loading.steps.IntroduceIriDictionary;
 import swiss.sib.swissprot.r2s2.loading.steps.IntroduceIriSchemeEnum;
 import swiss.sib.swissprot.r2s2.loading.steps.OptimizeForR2RML;
 import swiss.sib.swissprot.r2s2.loading.steps.ParseIntoSOGTables;
+import swiss.sib.swissprot.r2s2.loading.steps.PartitionByGraph;
 import swiss.sib.swissprot.r2s2.loading.steps.ReOptimizeForR2RML;
+import swiss.sib.swissprot.r2s2.loading.steps.SortBySubject;
+import swiss.sib.swissprot.r2s2.loading.steps.PlanCompression;
 import swiss.sib.swissprot.r2s2.loading.steps.PoorMansVacuum;
+import swiss.sib.swissprot.r2s2.loading.steps.WriteLoadGeneration;
 import swiss.sib.swissprot.r2s2.optimization.IntroduceVirtualColumns;
 import swiss.sib.swissprot.r2s2.optimization.TableMergingConcurence;
 import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
@@ -62,6 +70,9 @@ public class Loader {
 	private volatile TemporaryIriIdMap temporaryGraphIdMap = new TemporaryIriIdMap();
 
 	private final int step;
+	private boolean iriDictionary = false;
+	private boolean zOrder = false;
+	private int graphPartitions = 0;
 	private List<Table> tables = null;
 	private List<String> lines;
 
@@ -112,22 +123,49 @@ public class Loader {
 		if (args.length >= 3) {
 			step = Integer.parseInt(args[2]);
 		}
+		boolean iriDictionary = args.length >= 4 && Boolean.parseBoolean(args[3]);
 //		try {
 //			Class.forName("org.duckdb.DuckDBDriver");
 //		} catch (ClassNotFoundException e1) {
 //			throw new IllegalStateException(e1);
 //		}
-		parse(directoryToWriteToo, lines, step);
+		parse(directoryToWriteToo, lines, step, iriDictionary);
 	}
 
 	static Loader parse(File directoryToWriteToo, List<String> lines, int step) throws SQLException, IOException {
+		return parse(directoryToWriteToo, lines, step, false);
+	}
+
+	static Loader parse(File directoryToWriteToo, List<String> lines, int step, boolean iriDictionary)
+			throws SQLException, IOException {
 
 		Loader wo = new Loader(directoryToWriteToo, step, lines);
+		wo.setIriDictionary(iriDictionary);
 		wo.parse();
 
 		return wo;
 	}
 
+	public void setIriDictionary(boolean iriDictionary) {
+		this.iriDictionary = iriDictionary;
+	}
+
+	/**
+	 * Sort the tables in Z-order of subject and their most distinct object instead
+	 * of only by subject.
+	 */
+	public void setZOrder(boolean zOrder) {
+		this.zOrder = zOrder;
+	}
+
+	/**
+	 * Store the graphs in at most this many separate files, 0 keeps everything in
+	 * one database. A partitioned database can only be queried with the R2s2Sail.
+	 */
+	public void setGraphPartitions(int graphPartitions) {
+		this.graphPartitions = graphPartitions;
+	}
+
 	public String connectionString() {
 		if (jdbc.startsWith("jdbc:duckdb:")){
 			return "jdbc:duckdb:"+ dbFile.getAbsolutePath();
@@ -142,6 +180,12 @@ public class Loader {
 		return new File(p, fn + "-description.ttl");
 	}
 
+	public File storageReportPath() {
+		final File p = dbFile.getParentFile();
+		final String fn = dbFile.getName();
+		return new File(p, fn + "-storage.tsv");
+	}
+
 	public File r2rmlPath() {
 		final File p = dbFile.getParentFile();
 		final String fn = dbFile.getName();
@@ -149,14 +193,22 @@ public class Loader {
 	}
 
 	private static final List<Consumer<Loader>> STEPS = List.of(Loader::parseOrReloadState,
-			l -> new IntroduceGraphEnum(l.connectionString(), l.tables, l.temporaryGraphIdMap).run(),
+			l -> new IntroduceGraphEnum(l.connectionString(), l.tables).run(),
 			l -> l.tables = new OptimizeForR2RML(l.connectionString(), l.tables, l.namespaces).run(), Loader::writeR2RML,
 			l -> l.tables = new TableMergingConcurence(l.connectionString(), l.tables).run(), Loader::writeR2RML,
 			l -> l.tables = new ReOptimizeForR2RML(l.connectionString(), l.tables, l.namespaces).run(), Loader::writeR2RML,
+			l -> l.tables = new ConsolidateLanguageTables(l.connectionString(), l.tables).run(), Loader::writeR2RML,
 			l -> new IntroduceIriSchemeEnum(l.connectionString(), l.tables).run(),
 			l -> new IntroduceHostEnums(l.connectionString(), l.tables).run(),
+			l -> new IntroduceDictionaryEnums(l.connectionString(), l.tables).run(),
+			Loader::introduceIriDictionary,
+			l -> new SortBySubject(l.connectionString(), l.tables, l.zOrder).run(),
 			l -> new IntroduceIndexes(l.connectionString(), l.tables).run(),
-			l -> new PoorMansVacuum(l.connectionString(), l.dbFile).run());
+			Loader::partitionByGraph,
+			l -> new PoorMansVacuum(l.connectionString(), l.dbFile).run(),
+			Loader::planCompression,
+			l -> new CollectStatistics(l.connectionString(), l.tables).run(),
+			l -> new WriteLoadGeneration(l.connectionString()).run());
 
 	public static void introduceVirtualColumns(Loader l) {
 		for (Table t : l.tables) {
@@ -168,6 +220,40 @@ public class Loader {
 		}
 	}
 
+	/**
+	 * Only if asked for, as it changes the physical layout of all tables holding
+	 * IRIs.
+	 */
+	public static void introduceIriDictionary(Loader l) {
+		if (l.iriDictionary) {
+			new IntroduceIriDictionary(l.connectionString(), l.tables).run();
+			writeR2RML(l);
+		}
+	}
+
+	/**
+	 * R2RML processors such as Ontop open their own connections, which do not
+	 * attach the graph partitions, so a partitioned database has no R2RML mapping.
+	 */
+	public static void partitionByGraph(Loader l) {
+		if (new PartitionByGraph(l.connectionString(), l.dbFile, l.tables, l.graphPartitions).run()
+				&& l.r2rmlPath().delete()) {
+			logger.warn("Removed " + l.r2rmlPath() + ", the graph partitions can only be queried with the R2s2Sail");
+		}
+	}
+
+	/**
+	 * Tables rewritten with other compressions leave their old blocks free, the
+	 * second vacuum keeps the compressions that were chosen.
+	 */
+	public static void planCompression(Loader l) {
+		Map<String, Map<String, String>> forced = new PlanCompression(l.connectionString(), l.tables,
+				l.storageReportPath()).run();
+		if (!forced.isEmpty()) {
+			new PoorMansVacuum(l.connectionString(), l.dbFile, forced).run();
+		}
+	}
+
 	public static void parseOrReloadState(Loader l) {
 		try {
 			logger.info("Testing if " + l.descriptionPath() + " exists");
@@ -0,0 +1,252 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Writes a statistics catalog into the finished database for query planning:
+ * per predicate map the number of triples, distinct subjects and objects and
+ * the fraction of rows without the predicate; an equi width histogram of every
+ * numeric literal column; and per merged table how many rows have both of two
+ * predicates, the characteristic sets of its subjects.
+ */
+public record CollectStatistics(String temp, List<Table> tables) {
+	private static final Logger logger = LoggerFactory.getLogger(CollectStatistics.class);
+	public static final String STATISTICS = "statistics";
+	public static final String HISTOGRAMS = "statistics_histograms";
+	public static final String COOCCURRENCES = "statistics_cooccurrences";
+	public static final int BUCKETS = 16;
+	public static final Set<SqlDatatype> NUMERIC = EnumSet.of(SqlDatatype.NUMERIC, SqlDatatype.TINYINT,
+			SqlDatatype.UTINYINT, SqlDatatype.SMALLINT, SqlDatatype.USMALLINT, SqlDatatype.INTEGER,
+			SqlDatatype.UINTEGER, SqlDatatype.BIGINT, SqlDatatype.UBIGINT, SqlDatatype.HUGEINT, SqlDatatype.FLOAT,
+			SqlDatatype.DOUBLE);
+
+	private record PredicateStatistics(String table, String predicate, String objectColumn, long triples,
+			long distinctSubjects, long distinctObjects, double nullFraction) {
+	}
+
+	private record Bucket(String table, String column, int bucket, double low, double high, long count) {
+	}
+
+	private record Cooccurrence(String table, String predicateA, String predicateB, long rows) {
+	}
+
+	public void run() {
+		List<PredicateStatistics> predicates = Collections.synchronizedList(new ArrayList<>());
+		List<Bucket> buckets = Collections.synchronizedList(new ArrayList<>());
+		List<Cooccurrence> cooccurrences = Collections.synchronizedList(new ArrayList<>());
+		try (Connection conn_rw = openByJdbc(temp)) {
+			// Tables in graph partitions are views over the attached files
+			JdbcUtil.attachGraphPartitions(conn_rw);
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, tables, threads,
+					(conn, table) -> collect(conn, table, predicates, buckets, cooccurrences));
+			try (Statement stat = conn_rw.createStatement()) {
+				execute(stat, "DROP TABLE IF EXISTS " + STATISTICS);
+				execute(stat, "DROP TABLE IF EXISTS " + HISTOGRAMS);
+				execute(stat, "DROP TABLE IF EXISTS " + COOCCURRENCES);
+				execute(stat, "CREATE TABLE " + STATISTICS + " (table_name VARCHAR, predicate VARCHAR,"
+						+ " object_column VARCHAR, triples BIGINT, distinct_subjects BIGINT, distinct_objects BIGINT,"
+						+ " null_fraction DOUBLE)");
+				execute(stat, "CREATE TABLE " + HISTOGRAMS
+						+ " (table_name VARCHAR, column_name VARCHAR, bucket INTEGER, low DOUBLE, high DOUBLE, row_count BIGINT)");
+				execute(stat, "CREATE TABLE " + COOCCURRENCES
+						+ " (table_name VARCHAR, predicate_a VARCHAR, predicate_b VARCHAR, row_count BIGINT)");
+			}
+			try (PreparedStatement insert = conn_rw
+					.prepareStatement("INSERT INTO " + STATISTICS + " VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+				for (PredicateStatistics p : predicates) {
+					insert.setString(1, p.table());
+					insert.setString(2, p.predicate());
+					insert.setString(3, p.objectColumn());
+					insert.setLong(4, p.triples());
+					insert.setLong(5, p.distinctSubjects());
+					insert.setLong(6, p.distinctObjects());
+					insert.setDouble(7, p.nullFraction());
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+			try (PreparedStatement insert = conn_rw
+					.prepareStatement("INSERT INTO " + HISTOGRAMS + " VALUES (?, ?, ?, ?, ?, ?)")) {
+				for (Bucket b : buckets) {
+					insert.setString(1, b.table());
+					insert.setString(2, b.column());
+					insert.setInt(3, b.bucket());
+					insert.setDouble(4, b.low());
+					insert.setDouble(5, b.high());
+					insert.setLong(6, b.count());
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+			try (PreparedStatement insert = conn_rw
+					.prepareStatement("INSERT INTO " + COOCCURRENCES + " VALUES (?, ?, ?, ?)")) {
+				for (Cooccurrence c : cooccurrences) {
+					insert.setString(1, c.table());
+					insert.setString(2, c.predicateA());
+					insert.setString(3, c.predicateB());
+					insert.setLong(4, c.rows());
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+			JdbcUtil.commitIfNeeded(conn_rw);
+			logger.info("Collected statistics of " + predicates.size() + " predicate maps");
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the column that identifies the predicate map within its table
+	 */
+	public static String objectColumn(PredicateMap pm) {
+		return pm.groupOfColumns().columns().stream().filter(R2RMLFromTables::notTheGraphColumn).map(Column::name)
+				.findFirst().orElse(null);
+	}
+
+	/**
+	 * @return the physical column with the value of a numeric literal
+	 */
+	public static Optional<Column> numericColumn(PredicateMap pm) {
+		if (pm.objectKind() != Kind.LITERAL) {
+			return Optional.empty();
+		}
+		return pm.groupOfColumns().columns().stream().filter(Column::isPhysical)
+				.filter(c -> c.name().endsWith(GroupOfColumns.LIT_VALUE)).filter(c -> NUMERIC.contains(c.sqlDatatype()))
+				.findFirst();
+	}
+
+	private static void collect(Connection conn, Table t, List<PredicateStatistics> predicates, List<Bucket> buckets,
+			List<Cooccurrence> cooccurrences) throws SQLException {
+		long rows = count(conn, "SELECT COUNT(*) FROM " + t.name());
+		List<String> subject = physical(t.subject());
+		List<String> present = new ArrayList<>();
+		for (PredicateMap pm : t.objects()) {
+			List<String> object = physical(pm.groupOfColumns());
+			String where = object.isEmpty() ? "" : " WHERE " + object.get(0) + " IS NOT NULL";
+			present.add(object.isEmpty() ? null : object.get(0) + " IS NOT NULL");
+			long triples = object.isEmpty() ? rows : count(conn, "SELECT COUNT(*) FROM " + t.name() + where);
+			long subjects = distinct(conn, t, subject, where);
+			long objects = distinct(conn, t, object, where);
+			double nullFraction = rows == 0 ? 0 : 1 - (double) triples / rows;
+			predicates.add(new PredicateStatistics(t.name(), pm.predicate().stringValue(), objectColumn(pm), triples,
+					subjects, objects, nullFraction));
+			Optional<Column> numeric = numericColumn(pm);
+			if (numeric.isPresent()) {
+				histogram(conn, t, numeric.get(), buckets);
+			}
+		}
+		cooccurrences(conn, t, present, cooccurrences);
+	}
+
+	/**
+	 * Counts the rows with both predicates of every pair in a single scan of the
+	 * table, one filtered count per pair.
+	 */
+	private static void cooccurrences(Connection conn, Table t, List<String> present,
+			List<Cooccurrence> cooccurrences) throws SQLException {
+		List<int[]> pairs = new ArrayList<>();
+		List<String> counts = new ArrayList<>();
+		for (int a = 0; a < t.objects().size(); a++) {
+			for (int b = a + 1; b < t.objects().size(); b++) {
+				String both = Stream.of(present.get(a), present.get(b)).filter(Objects::nonNull)
+						.collect(Collectors.joining(" AND "));
+				pairs.add(new int[] { a, b });
+				counts.add(both.isEmpty() ? "COUNT(*)" : "COUNT(*) FILTER (WHERE " + both + ")");
+			}
+		}
+		if (pairs.isEmpty()) {
+			return;
+		}
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = query(stat, "SELECT " + String.join(", ", counts) + " FROM " + t.name())) {
+			rs.next();
+			for (int i = 0; i < pairs.size(); i++) {
+				int[] pair = pairs.get(i);
+				cooccurrences.add(new Cooccurrence(t.name(), t.objects().get(pair[0]).predicate().stringValue(),
+						t.objects().get(pair[1]).predicate().stringValue(), rs.getLong(i + 1)));
+			}
+		}
+	}
+
+	private static List<String> physical(GroupOfColumns group) {
+		return group.columns().stream().filter(Column::isPhysical).filter(R2RMLFromTables::notTheGraphColumn)
+				.map(Column::name).toList();
+	}
+
+	private static long distinct(Connection conn, Table t, List<String> columns, String where) throws SQLException {
+		if (columns.isEmpty()) {
+			return 1;
+		}
+		return count(conn, "SELECT COUNT(*) FROM (SELECT DISTINCT " + String.join(", ", columns) + " FROM " + t.name()
+				+ where + ") AS d");
+	}
+
+	/**
+	 * The buckets span the finite values, NaN and the infinities of a double
+	 * column are left out. Bounds and width stay in SQL, a double printed by
+	 * java is not always a number DuckDB can read back.
+	 */
+	private static void histogram(Connection conn, Table t, Column c, List<Bucket> buckets) throws SQLException {
+		String value = "CAST(" + c.name() + " AS DOUBLE)";
+		// NaN sorts above every number, so this is false for it as well
+		String finite = value + " BETWEEN -" + Double.MAX_VALUE + " AND " + Double.MAX_VALUE;
+		// Divided before subtracting, so that the width itself stays finite
+		String bucket = "CASE WHEN r.width = 0 THEN 0 ELSE LEAST(CAST(FLOOR((f.v - r.low) / r.width) AS INTEGER), "
+				+ (BUCKETS - 1) + ") END";
+		String sql = "WITH f AS (SELECT " + value + " AS v FROM " + t.name() + " WHERE " + finite
+				+ "), r AS (SELECT MIN(v) AS low, MAX(v) / " + BUCKETS + " - MIN(v) / " + BUCKETS
+				+ " AS width FROM f) SELECT bucket, MIN(v), MAX(v), COUNT(*) FROM (SELECT " + bucket
+				+ " AS bucket, f.v AS v FROM f, r) AS b GROUP BY bucket";
+		try (Statement stat = conn.createStatement(); ResultSet rs = query(stat, sql)) {
+			while (rs.next()) {
+				buckets.add(new Bucket(t.name(), c.name(), rs.getInt(1), rs.getDouble(2), rs.getDouble(3),
+						rs.getLong(4)));
+			}
+		}
+	}
+
+	private static long count(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement(); ResultSet rs = query(stat, sql)) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	private static ResultSet query(Statement stat, String sql) throws SQLException {
+		logger.debug("Running: " + sql);
+		return stat.executeQuery(sql);
+	}
+
+	private static void execute(Statement stat, String sql) throws SQLException {
+		logger.info("Running: " + sql);
+		stat.execute(sql);
+	}
+}
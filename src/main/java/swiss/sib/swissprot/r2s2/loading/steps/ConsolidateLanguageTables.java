@@ -0,0 +1,319 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForLongestCommonSubstring;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+/**
+ * Loading makes one table for every predicate and language tag combination.
+ * This folds those tables back into one table per predicate, where the
+ * language is a physical column of the shared lang_tags enum. Virtual columns
+ * that differ between the merged tables become physical, longest common
+ * prefixes are folded back into their column and recomputed for the merged
+ * table.
+ */
+public record ConsolidateLanguageTables(String temp, List<Table> tables) {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConsolidateLanguageTables.class);
+	private static final String LCS = "_lcs";
+
+	/**
+	 * The columns of the merged table and for each merged table the SQL that
+	 * gives the values of the physical columns, in the same order.
+	 */
+	private record Plan(String name, List<Table> sources, GroupOfColumns subject, GroupOfColumns object,
+			Map<Table, List<String>> select) {
+	}
+
+	public List<Table> run() {
+		if (!temp.startsWith("jdbc:duckdb:")) {
+			logger.info("Only duck db supports a language enum");
+			return tables;
+		}
+		Map<String, List<Table>> candidates = new LinkedHashMap<>();
+		for (Table t : tables) {
+			if (isPerLanguage(t)) {
+				candidates.computeIfAbsent(key(t, false), k -> new ArrayList<>()).add(t);
+			}
+		}
+		Set<String> usedNames = tables.stream().map(Table::name).collect(Collectors.toCollection(HashSet::new));
+		List<Plan> plans = new ArrayList<>();
+		for (List<Table> group : candidates.values()) {
+			if (group.size() < 2) {
+				continue;
+			}
+			Optional<Plan> plan = plan(group, usedNames);
+			if (plan.isPresent()) {
+				plans.add(plan.get());
+			} else {
+				// Some virtual columns can not be made physical, only merge the tables that
+				// agree on them.
+				Map<String, List<Table>> byValues = new LinkedHashMap<>();
+				for (Table t : group) {
+					byValues.computeIfAbsent(key(t, true), k -> new ArrayList<>()).add(t);
+				}
+				for (List<Table> sameValues : byValues.values()) {
+					if (sameValues.size() > 1) {
+						plan(sameValues, usedNames).ifPresent(plans::add);
+					}
+				}
+			}
+		}
+		if (plans.isEmpty()) {
+			logger.info("No per language tables to consolidate");
+			return tables;
+		}
+		Map<Table, Table> mergedInto = new ConcurrentHashMap<>();
+		try (Connection conn_rw = openByJdbc(temp)) {
+			createLangEnum(conn_rw, plans);
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, plans, threads, (conn, plan) -> {
+				Table merged = merge(conn, plan);
+				for (Table source : plan.sources()) {
+					mergedInto.put(source, merged);
+				}
+			});
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+		List<Table> result = new ArrayList<>();
+		Set<Table> added = new HashSet<>();
+		for (Table t : tables) {
+			Table merged = mergedInto.get(t);
+			if (merged == null) {
+				result.add(t);
+			} else if (added.add(merged)) {
+				result.add(merged);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isPerLanguage(Table t) {
+		if (t.objects().size() != 1) {
+			return false;
+		}
+		PredicateMap pm = t.objects().get(0);
+		return pm.objectKind() == Kind.LITERAL && pm.lang() != null && pm.languages().isEmpty()
+				&& pm.groupOfColumns().columns().stream().filter(ConsolidateLanguageTables::isLangColumn)
+						.allMatch(Column::isVirtual);
+	}
+
+	private static boolean isLangColumn(Column c) {
+		return c.name().endsWith(GroupOfColumns.LANG);
+	}
+
+	private static boolean isLcsColumn(Column c) {
+		return c.isVirtual() && c.name().endsWith(LCS);
+	}
+
+	/**
+	 * Tables that can be merged have the same columns apart from the language,
+	 * and if asked, the same values in their virtual columns.
+	 */
+	private static String key(Table t, boolean withValues) {
+		PredicateMap pm = t.objects().get(0);
+		StringBuilder key = new StringBuilder(pm.predicate() + " " + t.subjectKind() + " " + pm.datatype());
+		List<Column> columns = new ArrayList<>(t.subject().columns());
+		columns.addAll(pm.groupOfColumns().columns());
+		for (Column c : columns) {
+			if (!isLcsColumn(c) && !isLangColumn(c) && !GroupOfColumns.isAGraphColumn(c)) {
+				key.append(' ').append(c.name());
+				if (withValues) {
+					key.append(c.isPhysical() ? ":" + c.typeName() : "=" + ((VirtualSingleValueColumn) c).value());
+				}
+			}
+		}
+		return key.toString();
+	}
+
+	private static Optional<Plan> plan(List<Table> group, Set<String> usedNames) {
+		Map<Table, List<String>> select = new LinkedHashMap<>();
+		for (Table t : group) {
+			select.put(t, new ArrayList<>());
+		}
+		List<Column> subject = planColumns(group, Table::subject, select);
+		List<Column> object = planColumns(group, t -> t.objects().get(0).groupOfColumns(), select);
+		if (subject == null || object == null) {
+			return Optional.empty();
+		}
+		Table first = group.get(0);
+		String langSuffix = "_" + first.objects().get(0).lang().replace('-', '_');
+		String base = first.name().endsWith(langSuffix)
+				? first.name().substring(0, first.name().length() - langSuffix.length())
+				: first.name();
+		String name = base + GroupOfColumns.LANG;
+		for (int i = 1; usedNames.contains(name); i++) {
+			name = base + GroupOfColumns.LANG + "_" + i;
+		}
+		usedNames.add(name);
+		return Optional.of(new Plan(name, group, new GroupOfColumns(subject), new GroupOfColumns(object), select));
+	}
+
+	/**
+	 * @return the merged columns, or null if the tables can not be merged
+	 */
+	private static List<Column> planColumns(List<Table> group, Function<Table, GroupOfColumns> get,
+			Map<Table, List<String>> select) {
+		Map<Table, List<Column>> perTable = new LinkedHashMap<>();
+		for (Table t : group) {
+			perTable.put(t, get.apply(t).columns().stream().filter(c -> !isLcsColumn(c)).toList());
+		}
+		List<Column> merged = new ArrayList<>();
+		int size = perTable.get(group.get(0)).size();
+		for (int i = 0; i < size; i++) {
+			final int index = i;
+			List<Column> columns = group.stream().map(t -> perTable.get(t).get(index)).toList();
+			Column first = columns.get(0);
+			if (isLangColumn(first)) {
+				merged.add(new Column(first.name(), SqlDatatype.LANG_TAGS));
+				for (Table t : group) {
+					select.get(t).add(
+							"CAST(" + quote(t.objects().get(0).lang()) + " AS " + SqlDatatype.LANG_TAGS.label() + ")");
+				}
+				continue;
+			}
+			Set<String> values = columns.stream().filter(Column::isVirtual)
+					.map(c -> ((VirtualSingleValueColumn) c).value()).collect(Collectors.toSet());
+			boolean allVirtual = columns.stream().allMatch(Column::isVirtual);
+			if (allVirtual && values.size() == 1) {
+				merged.add(first.copy());
+				continue;
+			}
+			Set<String> physicalTypes = columns.stream().filter(Column::isPhysical).map(Column::typeName)
+					.collect(Collectors.toSet());
+			boolean graph = GroupOfColumns.isAGraphColumn(first);
+			if (physicalTypes.size() > 1 || (!graph && values.contains(null))) {
+				return null;
+			}
+			Column physical = columns.stream().filter(Column::isPhysical).findFirst().orElse(first);
+			Column column;
+			if (physical instanceof IriShapeColumn) {
+				// The same type means the same shapes
+				column = physical.copy();
+			} else {
+				column = new Column(first.name(), physical.sqlDatatype());
+				column.setEnumType(physical.enumType());
+			}
+			Set<Optional<String>> lcsValues = group.stream().map(t -> lcs(get.apply(t), column))
+					.collect(Collectors.toSet());
+			boolean keepLcs = column.sqlDatatype() != SqlDatatype.TEXT
+					&& lcsValues.stream().anyMatch(Optional::isPresent);
+			if (keepLcs) {
+				// A numeric tail can not take its prefix back, so the prefix must be shared
+				if (lcsValues.size() > 1 || !allPhysical(columns)) {
+					return null;
+				}
+				merged.add(new VirtualSingleValueColumn(lcsName(column), SqlDatatype.TEXT,
+						lcsValues.iterator().next().get()));
+			}
+			merged.add(column);
+			for (Table t : group) {
+				Column c = perTable.get(t).get(index);
+				if (keepLcs) {
+					select.get(t).add(c.name());
+				} else if (c.isVirtual()) {
+					String value = ((VirtualSingleValueColumn) c).value();
+					select.get(t)
+							.add(value == null ? "NULL" : "CAST(" + quote(value) + " AS " + column.typeName() + ")");
+				} else {
+					Optional<String> lcs = lcs(get.apply(t), c);
+					select.get(t).add(lcs.isPresent() ? "(" + quote(lcs.get()) + " || " + c.name() + ")" : c.name());
+				}
+			}
+		}
+		return merged;
+	}
+
+	private static Optional<String> lcs(GroupOfColumns columns, Column c) {
+		return columns.columns().stream().filter(l -> isLcsColumn(l) && l.name().equals(lcsName(c)))
+				.map(l -> ((VirtualSingleValueColumn) l).value()).filter(Objects::nonNull).findFirst();
+	}
+
+	/**
+	 * A path split into shapes keeps the prefix it had before the split.
+	 */
+	private static String lcsName(Column c) {
+		if (c instanceof IriShapeColumn) {
+			return c.name().substring(0, c.name().length() - IriShapeColumn.SHAPE.length()) + LCS;
+		}
+		return c.name() + LCS;
+	}
+
+	private static boolean allPhysical(List<Column> columns) {
+		return columns.stream().allMatch(Column::isPhysical);
+	}
+
+	private static void createLangEnum(Connection conn, List<Plan> plans) throws SQLException {
+		Set<String> languages = new TreeSet<>();
+		for (Plan plan : plans) {
+			plan.sources().forEach(t -> languages.add(t.objects().get(0).lang()));
+		}
+		// An existing type gets the new tags as well
+		EnumTypes.withValues(conn, SqlDatatype.LANG_TAGS.label(), languages);
+	}
+
+	private static Table merge(Connection conn, Plan plan) throws SQLException {
+		PredicateMap pm = plan.sources().get(0).objects().get(0);
+		List<String> languages = plan.sources().stream().map(t -> t.objects().get(0).lang()).sorted().toList();
+		PredicateMap merged = new PredicateMap(pm.predicate(), plan.object(), pm.objectKind(), null, pm.datatype(),
+				languages);
+		Table table = new Table(plan.name(), plan.subject(), plan.sources().get(0).subjectKind(), List.of(merged));
+		table.setMayContainDuplicates(plan.sources().stream().anyMatch(Table::mayContainDuplicates));
+		table.create(conn);
+		String columns = physicalColumnNames(table);
+		for (Table source : plan.sources()) {
+			execute(conn, "INSERT INTO " + table.name() + " (" + columns + ") SELECT "
+					+ String.join(", ", plan.select().get(source)) + " FROM " + source.name());
+			execute(conn, "DROP TABLE " + source.name());
+			JdbcUtil.commitIfNeeded(conn);
+		}
+		OptimizeForLongestCommonSubstring.optimize(conn, table);
+		return table;
+	}
+
+	private static String physicalColumnNames(Table table) {
+		List<Column> columns = new ArrayList<>(table.subject().columns());
+		table.objects().forEach(p -> columns.addAll(p.groupOfColumns().columns()));
+		return columns.stream().filter(Column::isPhysical).map(Column::name).collect(Collectors.joining(", "));
+	}
+
+	private static String quote(String literal) {
+		return "'" + literal.replace("'", "''") + "'";
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+
+/**
+ * Enum types that are shared by several loading steps. Duck db can not add
+ * values to an enum, and does not let a type be dropped while a table ever
+ * used it. So a type that misses values is rebuilt with the tables that use
+ * it, their columns going through text in between.
+ */
+final class EnumTypes {
+	private static final Logger logger = LoggerFactory.getLogger(EnumTypes.class);
+	private static final String COPY = "_enum_copy";
+
+	private EnumTypes() {
+	}
+
+	/**
+	 * Makes sure the enum type exists and has at least the given values, in
+	 * sorted order so that ordering on the enum is the same as on the text.
+	 */
+	static void withValues(Connection conn, String type, Collection<String> values) throws SQLException {
+		List<String> existing = PoorMansVacuum.query(conn, "SELECT type_name FROM duckdb_types() WHERE type_name = "
+				+ quote(type) + " AND database_name = current_database()");
+		if (existing.isEmpty()) {
+			PoorMansVacuum.createEnum(conn, type, List.copyOf(new TreeSet<>(values)));
+			JdbcUtil.commitIfNeeded(conn);
+			return;
+		}
+		Set<String> union = new TreeSet<>(PoorMansVacuum.query(conn, "SELECT unnest(enum_range(NULL::" + type + "))"));
+		if (union.containsAll(values)) {
+			logger.info(type + " already has all values");
+			return;
+		}
+		union.addAll(values);
+		String display = PoorMansVacuum.query(conn, "SELECT typeof(NULL::" + type + ")").get(0);
+		List<String> tables = PoorMansVacuum.query(conn,
+				"SELECT DISTINCT table_name FROM duckdb_columns() WHERE NOT internal"
+						+ " AND database_name = current_database() AND data_type = " + quote(display));
+		List<String> creates = new ArrayList<>();
+		List<String> indexes = new ArrayList<>();
+		for (String table : tables) {
+			// The definition lists the values of the enum instead of its name
+			creates.add(PoorMansVacuum.query(conn, "SELECT sql FROM duckdb_tables() WHERE table_name = "
+					+ quote(table) + " AND database_name = current_database()").get(0).replace(display, type));
+			indexes.addAll(PoorMansVacuum.query(conn, "SELECT sql FROM duckdb_indexes() WHERE sql IS NOT NULL"
+					+ " AND table_name = " + quote(table) + " AND database_name = current_database()"));
+			List<String> columns = PoorMansVacuum.query(conn,
+					"SELECT column_name FROM duckdb_columns() WHERE table_name = " + quote(table)
+							+ " AND database_name = current_database() AND data_type = " + quote(display));
+			PoorMansVacuum.execute(conn, "CREATE TABLE " + table + COPY + " AS SELECT * REPLACE ("
+					+ columns.stream().map(c -> "CAST(" + c + " AS VARCHAR) AS " + c).collect(Collectors.joining(", "))
+					+ ") FROM " + table);
+			PoorMansVacuum.execute(conn, "DROP TABLE " + table);
+		}
+		PoorMansVacuum.execute(conn, "DROP TYPE " + type);
+		PoorMansVacuum.createEnum(conn, type, List.copyOf(union));
+		for (int i = 0; i < tables.size(); i++) {
+			String table = tables.get(i);
+			PoorMansVacuum.execute(conn, creates.get(i));
+			PoorMansVacuum.execute(conn, "INSERT INTO " + table + " SELECT * FROM " + table + COPY);
+			PoorMansVacuum.execute(conn, "DROP TABLE " + table + COPY);
+		}
+		for (String index : indexes) {
+			PoorMansVacuum.execute(conn, index);
+		}
+		JdbcUtil.commitIfNeeded(conn);
+	}
+
+	private static String quote(String literal) {
+		return "'" + literal.replace("'", "''") + "'";
+	}
+}
@@ -0,0 +1,137 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Turns any text column with few distinct values into an enum. Language tags
+ * and datatype iris share one enum over all tables, every other column gets its
+ * own. Enum values are created in sorted order so that ordering on the enum
+ * is the same as on the text.
+ */
+public record IntroduceDictionaryEnums(String temp, List<Table> tables, long maxDistinct) {
+
+	private static final Logger logger = LoggerFactory.getLogger(IntroduceDictionaryEnums.class);
+	/**
+	 * Enums with more values take more than two bytes per row.
+	 */
+	public static final long DEFAULT_MAX_DISTINCT = 65535;
+	/**
+	 * If each value is not repeated at least this often the dictionary saves too
+	 * little to be worth it.
+	 */
+	private static final long MIN_ROWS_PER_VALUE = 4;
+
+	private record TableColumn(Table table, Column column) {
+	}
+
+	public IntroduceDictionaryEnums(String temp, List<Table> tables) {
+		this(temp, tables, DEFAULT_MAX_DISTINCT);
+	}
+
+	public void run() {
+		if (!temp.startsWith("jdbc:duckdb:")) {
+			logger.info("Only duck db supports enums");
+			return;
+		}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			List<TableColumn> textColumns = tables.stream()
+					.flatMap(t -> Stream
+							.concat(t.subject().columns().stream(),
+									t.objects().stream().map(PredicateMap::groupOfColumns)
+											.map(GroupOfColumns::columns).flatMap(List::stream))
+							.filter(Column::isPhysical).filter(c -> c.sqlDatatype() == SqlDatatype.TEXT)
+							.filter(c -> !GroupOfColumns.isAGraphColumn(c)).map(c -> new TableColumn(t, c)))
+					.toList();
+			List<TableColumn> perColumn = new ArrayList<>();
+			List<TableColumn> langColumns = new ArrayList<>();
+			List<TableColumn> datatypeColumns = new ArrayList<>();
+			for (TableColumn tc : textColumns) {
+				if (tc.column().name().endsWith(GroupOfColumns.LANG)) {
+					langColumns.add(tc);
+				} else if (tc.column().name().endsWith(GroupOfColumns.DATATYPE)) {
+					datatypeColumns.add(tc);
+				} else {
+					perColumn.add(tc);
+				}
+			}
+			sharedEnum(conn_rw, SqlDatatype.LANG_TAGS, langColumns);
+			sharedEnum(conn_rw, SqlDatatype.DATATYPE_IRIS, datatypeColumns);
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, perColumn, threads, (conn, tc) -> columnEnum(conn, tc));
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void sharedEnum(Connection conn, SqlDatatype enumType, List<TableColumn> columns) throws SQLException {
+		if (columns.isEmpty()) {
+			return;
+		}
+		String distinctValues = columns.stream().map(tc -> "SELECT DISTINCT " + tc.column().name() + " AS v FROM "
+				+ tc.table().name() + " WHERE " + tc.column().name() + " IS NOT NULL")
+				.collect(Collectors.joining(" UNION "));
+		long distinct = queryLong(conn, "SELECT COUNT(*) FROM (" + distinctValues + ")");
+		if (distinct == 0 || distinct > maxDistinct) {
+			logger.info("Not introducing " + enumType.label() + " for " + distinct + " distinct values");
+			return;
+		}
+		// Consolidating the language tables may already have made the type
+		EnumTypes.withValues(conn, enumType.label(), PoorMansVacuum.query(conn, distinctValues));
+		for (TableColumn tc : columns) {
+			execute(conn, "ALTER TABLE " + tc.table().name() + " ALTER " + tc.column().name() + " TYPE "
+					+ enumType.label());
+			tc.column().setDatatype(enumType);
+			JdbcUtil.commitIfNeeded(conn);
+		}
+	}
+
+	private void columnEnum(Connection conn, TableColumn tc) throws SQLException {
+		final String table = tc.table().name();
+		final String column = tc.column().name();
+		long rows = queryLong(conn, "SELECT COUNT(" + column + ") FROM " + table);
+		long distinct = queryLong(conn, "SELECT COUNT(DISTINCT " + column + ") FROM " + table);
+		if (distinct == 0 || distinct > maxDistinct || rows < distinct * MIN_ROWS_PER_VALUE) {
+			return;
+		}
+		final String enumType = table + "_" + column + "_enum";
+		execute(conn, "CREATE TYPE " + enumType + " AS ENUM (SELECT DISTINCT " + column + " FROM " + table
+				+ " WHERE " + column + " IS NOT NULL ORDER BY 1)");
+		execute(conn, "ALTER TABLE " + table + " ALTER " + column + " TYPE " + enumType);
+		tc.column().setDatatype(SqlDatatype.ENUM);
+		tc.column().setEnumType(enumType);
+		JdbcUtil.commitIfNeeded(conn);
+	}
+
+	private static long queryLong(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement(); ResultSet rs = stat.executeQuery(sql)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
@@ -3,72 +3,130 @@ package swiss.sib.swissprot.r2s2.loading.steps;
 import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import swiss.sib.swissprot.r2s2.JdbcUtil;
-import swiss.sib.swissprot.r2s2.loading.TemporaryIriIdMap;
-import swiss.sib.swissprot.r2s2.loading.TemporaryIriIdMap.TempIriId;
 import swiss.sib.swissprot.r2s2.sql.Column;
 import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
 import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
 import swiss.sib.swissprot.r2s2.sql.Table;
 
-public record IntroduceGraphEnum(String temp, List<Table> tables, TemporaryIriIdMap temporaryGraphIdMap) {
+/**
+ * Turns the temporary integer graph ids into the graph_iris enum. The enum is
+ * created in graph id order, so when the ids are contiguous the id is simply
+ * an offset into the enum values. Otherwise the graph column is rewritten with
+ * a join against the graphs table. H2 can neither create an enum from a
+ * query nor has enum_range, so there the enum is created from the graph iris
+ * read beforehand and the iri is looked up in the graphs table directly.
+ */
+public record IntroduceGraphEnum(String temp, List<Table> tables) {
 
 	private static final Logger logger = LoggerFactory.getLogger(IntroduceGraphEnum.class);
+
+	private record GraphColumn(Table table, Column column) {
+	}
+
 	public void run() {
+		final boolean duckdb = temp.startsWith("jdbc:duckdb:");
 		try (Connection conn_rw = openByJdbc(temp)) {
-
+			final String values = duckdb ? "SELECT graphs.iri FROM graphs ORDER BY graphs.id"
+					: PoorMansVacuum.query(conn_rw, "SELECT graphs.iri FROM graphs ORDER BY graphs.id").stream()
+							.map(iri -> "'" + iri.replace("'", "''") + "'").collect(Collectors.joining(", "));
 			try (java.sql.Statement stat = conn_rw.createStatement()) {
-				stat.execute("CREATE TYPE " + SqlDatatype.GRAPH_IRIS.label()
-						+ " AS ENUM (SELECT graphs.iri FROM graphs ORDER BY graphs.id)");
+				stat.execute("CREATE TYPE " + SqlDatatype.GRAPH_IRIS.label() + " AS ENUM (" + values + ")");
 			} catch (SQLException e) {
 				logger.info("graphs enum already exists");
 				return;
 			}
-
+			final Long offset = duckdb ? contiguousOffset(conn_rw) : null;
+			List<GraphColumn> graphColumns = new ArrayList<>();
 			for (Table table : tables) {
 				table.objects().stream().map(PredicateMap::groupOfColumns).map(GroupOfColumns::columns)
-						.flatMap(List::stream).filter(GroupOfColumns::isAGraphColumn).forEach(gc -> 
-							alterTable(conn_rw, table, gc));
-
+						.flatMap(List::stream).filter(GroupOfColumns::isAGraphColumn)
+						.forEach(gc -> graphColumns.add(new GraphColumn(table, gc)));
 			}
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, graphColumns, threads, (conn, gc) -> {
+				if (!duckdb) {
+					lookupIntoTable(conn, gc.table(), gc.column());
+				} else if (offset != null) {
+					alterTable(conn, gc.table(), gc.column(), offset);
+				} else {
+					joinIntoTable(conn, gc.table(), gc.column());
+				}
+			});
 		} catch (SQLException e) {
 			throw new IllegalStateException(e);
 		}
 	}
 
-	public void alterTable(Connection conn_rw, Table table, Column graphColumn) {
+	/**
+	 * @return the lowest graph id if the ids have no gaps, null otherwise
+	 */
+	private static Long contiguousOffset(Connection conn) throws SQLException {
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT MIN(id), MAX(id), COUNT(*) FROM graphs")) {
+			if (rs.next()) {
+				long min = rs.getLong(1);
+				long max = rs.getLong(2);
+				long count = rs.getLong(3);
+				if (count == 0 || max - min + 1 == count) {
+					return min;
+				}
+			}
+			logger.info("graph ids are not contiguous, converting via a join");
+			return null;
+		}
+	}
+
+	public void alterTable(Connection conn_rw, Table table, Column graphColumn, long offset) throws SQLException {
 		try (Statement stat = conn_rw.createStatement()) {
-			final String cast = "ALTER TABLE " + table.name() + " ALTER " + graphColumn.name()
-					+ " TYPE graph_iris USING (" + buildCase(graphColumn) + ")";
-			logger.info("casting " + cast);
+			final String cast = "ALTER TABLE " + table.name() + " ALTER " + graphColumn.name() + " TYPE "
+					+ SqlDatatype.GRAPH_IRIS.label() + " USING (enum_range(NULL::" + SqlDatatype.GRAPH_IRIS.label()
+					+ ")[CAST(" + graphColumn.name() + " AS BIGINT) - " + offset + " + 1])";
+			logger.info("Running: " + cast);
 			stat.execute(cast);
+			graphColumn.setDatatype(SqlDatatype.GRAPH_IRIS);
+			JdbcUtil.commitIfNeeded(conn_rw);
+		}
+	}
+
+	public void joinIntoTable(Connection conn_rw, Table table, Column graphColumn) throws SQLException {
+		final String tempName = graphColumn.name() + "_enum";
+		try (Statement stat = conn_rw.createStatement()) {
+			execute(stat, "ALTER TABLE " + table.name() + " ADD COLUMN " + tempName + " "
+					+ SqlDatatype.GRAPH_IRIS.label());
+			execute(stat, "UPDATE " + table.name() + " SET " + tempName + " = graphs.iri FROM graphs WHERE "
+					+ "CAST(" + table.name() + "." + graphColumn.name() + " AS BIGINT) = graphs.id");
+			execute(stat, "ALTER TABLE " + table.name() + " DROP COLUMN " + graphColumn.name());
+			execute(stat, "ALTER TABLE " + table.name() + " RENAME COLUMN " + tempName + " TO "
+					+ graphColumn.name());
+			graphColumn.setDatatype(SqlDatatype.GRAPH_IRIS);
 			JdbcUtil.commitIfNeeded(conn_rw);
-		} catch (SQLException e) {
-			throw new IllegalStateException(e);
 		}
 	}
 
-	public String buildCase(Column graphColumn) {
-		StringBuilder asCase = new StringBuilder("CASE");
-		for (TempIriId id : temporaryGraphIdMap.iris()) {
-			asCase.append(" WHEN ");
-			asCase.append(graphColumn.name());
-			asCase.append(" = ");
-			asCase.append(id.id());
-			asCase.append(" THEN " + "'");
-			asCase.append(id.stringValue());
-			asCase.append("'");
+	public void lookupIntoTable(Connection conn_rw, Table table, Column graphColumn) throws SQLException {
+		try (Statement stat = conn_rw.createStatement()) {
+			execute(stat, "ALTER TABLE " + table.name() + " ALTER " + graphColumn.name() + " TYPE "
+					+ SqlDatatype.GRAPH_IRIS.label() + " USING ((SELECT graphs.iri FROM graphs WHERE graphs.id = CAST("
+					+ graphColumn.name() + " AS BIGINT)))");
+			graphColumn.setDatatype(SqlDatatype.GRAPH_IRIS);
+			JdbcUtil.commitIfNeeded(conn_rw);
 		}
-		graphColumn.setDatatype(SqlDatatype.GRAPH_IRIS);
-		asCase.append(" END");
-		return asCase.toString();
+	}
+
+	private static void execute(Statement stat, String sql) throws SQLException {
+		logger.info("Running: " + sql);
+		stat.execute(sql);
 	}
 }
@@ -3,45 +3,202 @@ package swiss.sib.swissprot.r2s2.loading.steps;
 import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
 import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.Table;
 
-public record IntroduceIndexes(String temp, List<Table> tables) {
+/**
+ * Decides per table, from its row count and the number of distinct keys,
+ * whether a subject index should be unique, non unique or not be there at all.
+ * IRI valued objects get a non unique index for reverse lookups. The indexes
+ * are then built concurrently, but never more at the same time than the memory
+ * budget allows.
+ */
+public record IntroduceIndexes(String temp, List<Table> tables, boolean objectIndexes, long memoryBudget) {
 
 	private static final Logger logger = LoggerFactory.getLogger(IntroduceIndexes.class);
+	/**
+	 * Below this a scan of the table is as fast as an index lookup.
+	 */
+	private static final long MIN_ROWS_FOR_INDEX = 2048;
+	/**
+	 * With fewer distinct keys every key matches too large a part of the table
+	 * for an index to help.
+	 */
+	private static final long MIN_DISTINCT_FOR_INDEX = 100;
+	/**
+	 * Rough per row overhead of an ART index, row id plus node structure.
+	 */
+	private static final long INDEX_BYTES_PER_ROW = 32;
+	private static final long MEGABYTE = 1024 * 1024;
+
+	public record PlannedIndex(Table table, String name, List<Column> columns, boolean unique, long estimatedBytes) {
+		public String sql() {
+			return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name + " ON " + table.name()
+					+ " (" + columns.stream().map(Column::name).collect(Collectors.joining(", ")) + ")";
+		}
+	}
+
+	public IntroduceIndexes(String temp, List<Table> tables) {
+		this(temp, tables, true, 0);
+	}
 
 	public void run() {
-		for (Table table : tables)
-			try (Connection conn_rw = openByJdbc(temp)) {
-				final String subjColumns = table.subject().columns().stream().filter(Column::isPhysical)
-						.map(Column::name).collect(Collectors.joining(", "));
-				if (!subjColumns.isEmpty())
-					try (Statement stat = conn_rw.createStatement()) {
-						final String createIdx = "CREATE UNIQUE INDEX " + table.name() + "_subj_idx ON " + table.name()
-								+ " (" + subjColumns + ")";
-						logger.info("creating index " + createIdx);
-						stat.execute(createIdx);
-						JdbcUtil.commitIfNeeded(conn_rw);
-					} catch (SQLException e) {
-						try (Statement stat = conn_rw.createStatement()) {
-							final String createIdx = "CREATE INDEX " + table.name() + "_subj_idx ON " + table.name()
-									+ " (" + subjColumns + ")";
-							logger.info("creating index " + createIdx);
-							stat.execute(createIdx);
-							JdbcUtil.commitIfNeeded(conn_rw);
-						}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			final int threads = Runtime.getRuntime().availableProcessors();
+			List<PlannedIndex> plan = Collections.synchronizedList(new ArrayList<>());
+			JdbcUtil.runConcurrently(conn_rw, tables, threads, (conn, table) -> plan.addAll(plan(conn, table)));
+			// Start with the largest so that the small ones fill the gaps at the end.
+			plan.sort((a, b) -> Long.compare(b.estimatedBytes(), a.estimatedBytes()));
+			long budget = memoryBudget > 0 ? memoryBudget : defaultMemoryBudget(conn_rw);
+			int budgetInMb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / MEGABYTE));
+			logger.info("Building " + plan.size() + " indexes within a budget of " + budgetInMb + "MB");
+			Semaphore memory = new Semaphore(budgetInMb);
+			JdbcUtil.runConcurrently(conn_rw, plan, threads, (conn, index) -> {
+				int needed = (int) Math.max(1, Math.min(budgetInMb, index.estimatedBytes() / MEGABYTE));
+				memory.acquireUninterruptibly(needed);
+				try {
+					build(conn, index);
+				} finally {
+					memory.release(needed);
+				}
+			});
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	List<PlannedIndex> plan(Connection conn, Table table) throws SQLException {
+		List<PlannedIndex> planned = new ArrayList<>();
+		final List<Column> subjColumns = table.subject().columns().stream().filter(Column::isPhysical).toList();
+		if (!subjColumns.isEmpty()) {
+			planIndex(conn, table, table.name() + "_subj_idx", subjColumns, true, planned);
+		}
+		if (objectIndexes) {
+			for (PredicateMap pm : table.objects()) {
+				if (pm.objectKind() == Kind.IRI) {
+					final List<Column> objColumns = pm.groupOfColumns().columns().stream().filter(Column::isPhysical)
+							.filter(c -> !GroupOfColumns.isAGraphColumn(c)).toList();
+					if (!objColumns.isEmpty()) {
+						planIndex(conn, table, table.name() + "_" + objColumns.get(0).name() + "_idx", objColumns,
+								false, planned);
 					}
-			} catch (SQLException e) {
-				throw new IllegalStateException(e);
+				}
+			}
+		}
+		return planned;
+	}
+
+	private void planIndex(Connection conn, Table table, String name, List<Column> columns, boolean mayBeUnique,
+			List<PlannedIndex> planned) throws SQLException {
+		final String cols = columns.stream().map(Column::name).collect(Collectors.joining(", "));
+		final String sql = "SELECT (SELECT COUNT(*) FROM " + table.name() + "), (SELECT COUNT(*) FROM (SELECT DISTINCT "
+				+ cols + " FROM " + table.name() + ") d)";
+		try (Statement stat = conn.createStatement(); ResultSet rs = stat.executeQuery(sql)) {
+			rs.next();
+			long rows = rs.getLong(1);
+			long distinct = rs.getLong(2);
+			if (rows < MIN_ROWS_FOR_INDEX) {
+				logger.info("No index on " + table.name() + " (" + cols + ") only " + rows + " rows");
+			} else if (distinct < MIN_DISTINCT_FOR_INDEX) {
+				logger.info("No index on " + table.name() + " (" + cols + ") only " + distinct + " distinct keys");
+			} else {
+				// SELECT DISTINCT considers NULLs equal, a unique index does not. So if this
+				// says unique the index can be unique.
+				boolean unique = mayBeUnique && rows == distinct;
+				long estimatedBytes = rows * (INDEX_BYTES_PER_ROW + keyWidth(columns));
+				planned.add(new PlannedIndex(table, name, columns, unique, estimatedBytes));
+			}
+		}
+	}
+
+	private static long keyWidth(List<Column> columns) {
+		long width = 0;
+		for (Column c : columns) {
+			if (c.sqlDatatype() == null) {
+				width += 32;
+				continue;
+			}
+			switch (c.sqlDatatype()) {
+			case TEXT:
+			case NUMERIC:
+				width += 32;
+				break;
+			case BIGINT:
+			case DOUBLE:
+			case TIMESTAMP:
+				width += 8;
+				break;
+			default:
+				width += 4;
+			}
+		}
+		return width;
+	}
+
+	private static void build(Connection conn, PlannedIndex index) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			final String createIdx = index.sql();
+			logger.info("creating index " + createIdx);
+			stat.execute(createIdx);
+			JdbcUtil.commitIfNeeded(conn);
+		}
+	}
+
+	/**
+	 * Half of what DuckDB may use, so that the queries running concurrently
+	 * still have some room.
+	 */
+	private static long defaultMemoryBudget(Connection conn) {
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT current_setting('memory_limit')")) {
+			if (rs.next()) {
+				return parseSize(rs.getString(1)) / 2;
 			}
+		} catch (SQLException | IllegalArgumentException e) {
+			logger.info("Could not find the memory limit of the database");
+		}
+		return Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	static long parseSize(String size) {
+		String[] parts = size.trim().split(" ");
+		double value = Double.parseDouble(parts[0]);
+		String unit = parts.length > 1 ? parts[1] : "B";
+		switch (unit) {
+		case "KiB":
+			return (long) (value * 1024);
+		case "MiB":
+			return (long) (value * MEGABYTE);
+		case "GiB":
+			return (long) (value * MEGABYTE * 1024);
+		case "TiB":
+			return (long) (value * MEGABYTE * MEGABYTE);
+		case "KB":
+			return (long) (value * 1000);
+		case "MB":
+			return (long) (value * 1000_000);
+		case "GB":
+			return (long) (value * 1000_000_000);
+		case "TB":
+			return (long) (value * 1000_000_000_000L);
+		default:
+			return (long) value;
+		}
 	}
 }
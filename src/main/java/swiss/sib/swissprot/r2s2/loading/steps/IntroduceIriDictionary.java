@@ -0,0 +1,199 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Alternative layout where every IRI is stored once in a global iris table and
+ * the predicate tables only keep a BIGINT id for each subject and object IRI.
+ * Joins between tables then compare integers instead of concatenated strings.
+ * The ids are assigned in IRI order.
+ */
+public record IntroduceIriDictionary(String temp, List<Table> tables) {
+
+	private static final Logger logger = LoggerFactory.getLogger(IntroduceIriDictionary.class);
+	public static final String IRIS = "iris";
+	private static final Pattern TEMPLATE_COLUMN = Pattern.compile("\\{([^}]+)\\}");
+
+	/**
+	 * A group of IRI part columns and the SQL that concatenates them back into the
+	 * IRI.
+	 */
+	private record IriGroup(GroupOfColumns group, String idColumn, String iri) {
+	}
+
+	public void run() {
+		Map<Table, List<IriGroup>> toConvert = new LinkedHashMap<>();
+		for (Table table : tables) {
+			List<IriGroup> groups = new ArrayList<>();
+			if (table.subjectKind() == Kind.IRI) {
+				addIfPhysical(table.subject(), groups);
+			}
+			for (PredicateMap pm : table.objects()) {
+				if (pm.objectKind() == Kind.IRI) {
+					addIfPhysical(pm.groupOfColumns(), groups);
+				}
+			}
+			if (!groups.isEmpty()) {
+				toConvert.put(table, groups);
+			}
+		}
+		if (toConvert.isEmpty()) {
+			logger.info("No IRI columns left to put in the dictionary");
+			return;
+		}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			String allIris = toConvert.entrySet().stream().flatMap(en -> en.getValue().stream()
+					.map(g -> "SELECT " + g.iri() + " AS iri FROM " + en.getKey().name() + " AS t WHERE " + g.iri()
+							+ " IS NOT NULL"))
+					.collect(Collectors.joining(" UNION "));
+			execute(conn_rw, "CREATE TABLE " + IRIS + " AS SELECT (ROW_NUMBER() OVER (ORDER BY iri)) - 1 AS id, iri FROM ("
+					+ allIris + ") AS all_iris");
+			JdbcUtil.commitIfNeeded(conn_rw);
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, toConvert.entrySet(), threads,
+					(conn, en) -> replaceByIds(conn, en.getKey(), en.getValue()));
+			execute(conn_rw, "CREATE UNIQUE INDEX " + IRIS + "_id_idx ON " + IRIS + " (id)");
+			JdbcUtil.commitIfNeeded(conn_rw);
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void addIfPhysical(GroupOfColumns group, List<IriGroup> groups) {
+		List<Column> parts = group.columns().stream().filter(R2RMLFromTables::notTheGraphColumn).toList();
+		if (parts.stream().anyMatch(Column::isPhysical) && group.iriIdColumn().isEmpty()) {
+			groups.add(new IriGroup(group, baseName(parts) + GroupOfColumns.IRI_ID, iriExpression(parts)));
+		}
+	}
+
+	/**
+	 * @param parts the IRI part columns of a table aliased as t, without the graph
+	 *              columns
+	 * @return SQL giving the whole IRI
+	 */
+	public static String iriExpression(List<Column> parts) {
+		Optional<IriShapeColumn> shape = parts.stream().filter(IriShapeColumn.class::isInstance)
+				.map(IriShapeColumn.class::cast).findFirst();
+		if (shape.isPresent()) {
+			// One template per shape
+			return shape.get().shapes().stream()
+					.map(s -> " WHEN t." + shape.get().name() + " = " + quote(s) + " THEN "
+							+ iriExpression(shape.get().expand(parts, s)))
+					.collect(Collectors.joining("", "(CASE", " END)"));
+		}
+		String template = R2RMLFromTables.iriToTemplate(new LinkedHashModel(), SimpleValueFactory.getInstance(),
+				SimpleValueFactory.getInstance().createBNode(), new GroupOfColumns(parts)).toString();
+		return templateToSql(template);
+	}
+
+	/**
+	 * The IRI part columns share a name apart from the part suffix.
+	 */
+	private static String baseName(List<Column> parts) {
+		String name = parts.get(0).name();
+		String longestSuffix = "";
+		for (String suffix : GroupOfColumns.IRI_PARTS) {
+			if (name.endsWith(suffix) && suffix.length() > longestSuffix.length()) {
+				longestSuffix = suffix;
+			}
+		}
+		return name.substring(0, name.length() - longestSuffix.length());
+	}
+
+	/**
+	 * Turns the R2RML template into a SQL string concatenation. Like the template
+	 * the result is NULL if any of the columns is NULL.
+	 */
+	static String templateToSql(String template) {
+		List<String> parts = new ArrayList<>();
+		Matcher m = TEMPLATE_COLUMN.matcher(template);
+		int last = 0;
+		while (m.find()) {
+			if (m.start() > last) {
+				parts.add(quote(template.substring(last, m.start())));
+			}
+			parts.add("CAST(t." + m.group(1) + " AS VARCHAR)");
+			last = m.end();
+		}
+		if (last < template.length()) {
+			parts.add(quote(template.substring(last)));
+		}
+		return "(" + String.join(" || ", parts) + ")";
+	}
+
+	private static String quote(String literal) {
+		return "'" + literal.replace("'", "''") + "'";
+	}
+
+	private static void replaceByIds(Connection conn, Table table, List<IriGroup> groups) throws SQLException {
+		List<String> select = new ArrayList<>();
+		StringBuilder joins = new StringBuilder();
+		int i = 0;
+		for (Column c : table.subject().columns()) {
+			select(c, table.subject(), groups, select);
+		}
+		for (PredicateMap pm : table.objects()) {
+			for (Column c : pm.groupOfColumns().columns()) {
+				select(c, pm.groupOfColumns(), groups, select);
+			}
+		}
+		for (IriGroup g : groups) {
+			String alias = "d" + i++;
+			select.add(alias + ".id AS " + g.idColumn());
+			joins.append(" LEFT JOIN " + IRIS + " AS " + alias + " ON " + alias + ".iri = " + g.iri());
+		}
+		final String withIds = table.name() + "_iri_ids";
+		execute(conn, "CREATE TABLE " + withIds + " AS SELECT " + String.join(", ", select) + " FROM " + table.name()
+				+ " AS t" + joins);
+		execute(conn, "DROP TABLE " + table.name());
+		execute(conn, "ALTER TABLE " + withIds + " RENAME TO " + table.name());
+		JdbcUtil.commitIfNeeded(conn);
+		for (IriGroup g : groups) {
+			List<Column> graphs = g.group().columns().stream().filter(GroupOfColumns::isAGraphColumn).toList();
+			g.group().columns().clear();
+			g.group().columns().add(new Column(g.idColumn(), SqlDatatype.BIGINT));
+			g.group().columns().addAll(graphs);
+		}
+	}
+
+	private static void select(Column c, GroupOfColumns group, List<IriGroup> groups, List<String> select) {
+		if (c.isPhysical()
+				&& (GroupOfColumns.isAGraphColumn(c) || groups.stream().noneMatch(g -> g.group() == group))) {
+			select.add("t." + c.name());
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
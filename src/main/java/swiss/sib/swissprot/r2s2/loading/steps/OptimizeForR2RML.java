@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import swiss.sib.swissprot.r2s2.optimization.IntroduceVirtualColumns;
 import swiss.sib.swissprot.r2s2.optimization.OptimizeForDatatype;
 import swiss.sib.swissprot.r2s2.optimization.OptimizeForLongestCommonSubstring;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForNumericSuffix;
 import swiss.sib.swissprot.r2s2.optimization.RdfTypeSplitting;
 import swiss.sib.swissprot.r2s2.optimization.ReintroduceRdfSetSemantics;
 import swiss.sib.swissprot.r2s2.sql.Table;
@@ -25,7 +26,7 @@ public record OptimizeForR2RML(String dbPath, List<Table> tables, Map<String, St
 
 	private static final List<BiConsumer<Connection, Table>> OPTIMIZERS = List.of(IntroduceVirtualColumns::optimize,
 			OptimizeForDatatype::optimize, OptimizeForLongestCommonSubstring::optimize,
-			ReintroduceRdfSetSemantics::optimize);
+			OptimizeForNumericSuffix::optimize, ReintroduceRdfSetSemantics::optimize);
 	public List<Table> run() {
 		logger.info("Starting to optimize for r2rml");
 		List<Table> tables = tables();
@@ -0,0 +1,207 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.checkpoint;
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+import static swiss.sib.swissprot.r2s2.loading.steps.PoorMansVacuum.createEnum;
+import static swiss.sib.swissprot.r2s2.loading.steps.PoorMansVacuum.query;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+/**
+ * Moves the rows of each graph into a separate DuckDB file, or with more
+ * graphs than files, spreads the graphs over the files. Each moved table is
+ * replaced in the main database by a view with the same name that is the UNION
+ * ALL of its partitions, so the table description and R2RML stay the same.
+ * Connections must call {@link JdbcUtil#attachGraphPartitions(Connection)}
+ * before using those views.
+ *
+ * Tables with more than one physical graph column stay in the main database,
+ * as their rows can not be given to one graph. Rows of a partitioned table
+ * without a graph, or with a graph that is not in the graphs table, stay in the
+ * main database in a table with the suffix {@value #REST} that is part of the
+ * view.
+ */
+public record PartitionByGraph(String temp, File databaseFile, List<Table> tables, int maxFiles) {
+
+	private static final Logger logger = LoggerFactory.getLogger(PartitionByGraph.class);
+	public static final String REST = "_rest";
+
+	/**
+	 * The rows of a table that go into one partition, all of them if the filter is
+	 * null.
+	 */
+	private record Slice(String table, String filter) {
+	}
+
+	private record Partition(String alias, String file, List<Slice> slices) {
+	}
+
+	/**
+	 * @return if the database is now partitioned
+	 */
+	public boolean run() {
+		if (maxFiles <= 0) {
+			return false;
+		}
+		if (!temp.startsWith("jdbc:duckdb:")) {
+			logger.info("Only duck db can partition by graph");
+			return false;
+		}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			List<String> graphs = query(conn_rw, "SELECT iri FROM graphs ORDER BY id");
+			if (graphs.size() < 2) {
+				logger.info("Only one graph, no need to partition");
+				return false;
+			}
+			final int files = Math.min(maxFiles, graphs.size());
+			Map<String, Integer> partitionOfGraph = new HashMap<>();
+			for (int i = 0; i < graphs.size(); i++) {
+				partitionOfGraph.put(graphs.get(i), i % files);
+			}
+			List<Partition> partitions = new ArrayList<>();
+			for (int i = 0; i < files; i++) {
+				partitions.add(new Partition("graph_part_" + i, databaseFile.getName() + "-graphs-" + i,
+						new ArrayList<>()));
+			}
+			Map<String, List<String>> viewParts = new LinkedHashMap<>();
+			Map<String, String> rests = new HashMap<>();
+			for (Table table : tables) {
+				planSlices(conn_rw, table, partitionOfGraph, partitions, viewParts, rests);
+			}
+			if (viewParts.isEmpty()) {
+				logger.info("No table can be partitioned by graph");
+				return false;
+			}
+			final String mainDb = query(conn_rw, "SELECT current_database()").get(0);
+			final Map<String, List<String>> enums = PoorMansVacuum.readEnums(conn_rw);
+			for (Partition p : partitions) {
+				new File(databaseFile.getParentFile(), p.file()).delete();
+				execute(conn_rw, "ATTACH '" + new File(databaseFile.getParentFile(), p.file()).getAbsolutePath()
+						+ "' AS " + p.alias());
+			}
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, partitions, threads, (conn, p) -> fill(conn, mainDb, enums, p));
+			execute(conn_rw, "CREATE TABLE " + JdbcUtil.GRAPH_PARTITIONS + " (alias VARCHAR, file VARCHAR)");
+			for (Partition p : partitions) {
+				execute(conn_rw, "INSERT INTO " + JdbcUtil.GRAPH_PARTITIONS + " VALUES ('" + p.alias() + "', '"
+						+ p.file().replace("'", "''") + "')");
+			}
+			for (var en : viewParts.entrySet()) {
+				String table = en.getKey();
+				List<String> parts = en.getValue().stream().map(alias -> alias + ".main." + table)
+						.collect(Collectors.toCollection(ArrayList::new));
+				String rest = rests.get(table);
+				if (rest != null && !query(conn_rw, "SELECT 1 FROM " + table + " WHERE " + rest + " LIMIT 1").isEmpty()) {
+					execute(conn_rw, "CREATE TABLE " + table + REST + " AS SELECT * FROM " + table + " WHERE " + rest);
+					parts.add(table + REST);
+				}
+				execute(conn_rw, "DROP TABLE " + table);
+				execute(conn_rw, "CREATE VIEW " + table + " AS "
+						+ parts.stream().map(part -> "SELECT * FROM " + part).collect(Collectors.joining(" UNION ALL ")));
+			}
+			JdbcUtil.commitIfNeeded(conn_rw);
+			checkpoint(conn_rw);
+			return true;
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void planSlices(Connection conn, Table table, Map<String, Integer> partitionOfGraph,
+			List<Partition> partitions, Map<String, List<String>> viewParts, Map<String, String> rests)
+			throws SQLException {
+		List<Column> graphColumns = table.objects().stream().map(PredicateMap::groupOfColumns)
+				.map(GroupOfColumns::columns).flatMap(List::stream).filter(GroupOfColumns::isAGraphColumn).toList();
+		List<Column> physical = graphColumns.stream().filter(Column::isPhysical).toList();
+		if (physical.isEmpty()) {
+			List<String> values = graphColumns.stream().map(c -> ((VirtualSingleValueColumn) c).value()).distinct()
+					.toList();
+			if (values.size() == 1 && partitionOfGraph.containsKey(values.get(0))) {
+				Partition p = partitions.get(partitionOfGraph.get(values.get(0)));
+				p.slices().add(new Slice(table.name(), null));
+				viewParts.put(table.name(), List.of(p.alias()));
+			}
+		} else if (physical.size() == 1) {
+			final String graphColumn = physical.get(0).name();
+			Map<Integer, List<String>> graphsPerPartition = new LinkedHashMap<>();
+			for (String graph : query(conn, "SELECT DISTINCT CAST(" + graphColumn + " AS VARCHAR) FROM "
+					+ table.name() + " WHERE " + graphColumn + " IS NOT NULL ORDER BY 1")) {
+				Integer p = partitionOfGraph.get(graph);
+				if (p != null) {
+					graphsPerPartition.computeIfAbsent(p, k -> new ArrayList<>()).add(graph);
+				}
+			}
+			List<String> aliases = new ArrayList<>();
+			List<String> moved = new ArrayList<>();
+			for (var en : graphsPerPartition.entrySet()) {
+				Partition p = partitions.get(en.getKey());
+				String filter = "CAST(" + graphColumn + " AS VARCHAR) IN (" + quoted(en.getValue()) + ")";
+				p.slices().add(new Slice(table.name(), filter));
+				aliases.add(p.alias());
+				moved.addAll(en.getValue());
+			}
+			if (!aliases.isEmpty()) {
+				viewParts.put(table.name(), aliases);
+				rests.put(table.name(), graphColumn + " IS NULL OR CAST(" + graphColumn + " AS VARCHAR) NOT IN ("
+						+ quoted(moved) + ")");
+				// The row groups are now spread over the partitions
+				table.setRowGroups(List.of());
+			}
+		}
+	}
+
+	private static String quoted(List<String> graphs) {
+		return graphs.stream().map(g -> "'" + g.replace("'", "''") + "'").collect(Collectors.joining(", "));
+	}
+
+	private static void fill(Connection conn, String mainDb, Map<String, List<String>> enums, Partition p)
+			throws SQLException {
+		execute(conn, "USE " + p.alias());
+		try {
+			for (var en : enums.entrySet()) {
+				createEnum(conn, en.getKey(), en.getValue());
+			}
+			for (Slice slice : p.slices()) {
+				String createTable = query(conn, "SELECT sql FROM duckdb_tables() WHERE database_name = '" + mainDb
+						+ "' AND table_name = '" + slice.table() + "'").get(0);
+				execute(conn, createTable);
+				execute(conn, "INSERT INTO " + slice.table() + " SELECT * FROM " + mainDb + ".main." + slice.table()
+						+ (slice.filter() == null ? "" : " WHERE " + slice.filter()));
+				for (String index : query(conn, "SELECT sql FROM duckdb_indexes() WHERE sql IS NOT NULL"
+						+ " AND database_name = '" + mainDb + "' AND table_name = '" + slice.table() + "'")) {
+					execute(conn, index);
+				}
+			}
+			JdbcUtil.commitIfNeeded(conn);
+		} finally {
+			execute(conn, "USE " + mainDb);
+		}
+		execute(conn, "CHECKPOINT " + p.alias());
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
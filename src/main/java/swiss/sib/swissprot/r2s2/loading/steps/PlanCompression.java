@@ -0,0 +1,327 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.checkpoint;
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+import static swiss.sib.swissprot.r2s2.loading.steps.PoorMansVacuum.query;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.Column.Storage;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Measures how DuckDB stored every column of the final database, using
+ * pragma_storage_info, and records the compression and size in the table
+ * description and in a tab separated report. Large columns are tried with the
+ * other compressions that fit their type, and a table is rewritten with
+ * explicit USING COMPRESSION choices where one is clearly smaller without
+ * scanning much slower.
+ *
+ * Runs after the {@link PoorMansVacuum} as that copy lets DuckDB choose the
+ * compression again. The rewritten tables leave their old blocks free, so the
+ * loader vacuums again keeping the compressions chosen here. Tables moved into
+ * graph partitions are views in the main database and are not measured.
+ */
+public record PlanCompression(String temp, List<Table> tables, File report) {
+
+	private static final Logger logger = LoggerFactory.getLogger(PlanCompression.class);
+	private static final String TRIAL = "_compression_trial";
+	/**
+	 * Columns smaller than a block are not worth trying alternatives for.
+	 */
+	private static final long MIN_BYTES_TO_PLAN = 256 * 1024;
+	/**
+	 * A candidate must save at least this fraction of the bytes.
+	 */
+	private static final double MIN_SAVING = 0.1;
+	/**
+	 * and may scan at most this much slower.
+	 */
+	private static final double MAX_SLOWDOWN = 1.5;
+	private static final List<String> STRING_COMPRESSIONS = List.of("dictionary", "fsst");
+	private static final List<String> INTEGER_COMPRESSIONS = List.of("rle", "bitpacking");
+	private static final Set<SqlDatatype> INTEGER_LIKE = EnumSet.of(SqlDatatype.TINYINT, SqlDatatype.UTINYINT,
+			SqlDatatype.SMALLINT, SqlDatatype.USMALLINT, SqlDatatype.INTEGER, SqlDatatype.UINTEGER, SqlDatatype.BIGINT,
+			SqlDatatype.UBIGINT, SqlDatatype.DATE, SqlDatatype.TIME, SqlDatatype.TIMESTAMP, SqlDatatype.TIMESTAMPTZ,
+			SqlDatatype.ENUM, SqlDatatype.GRAPH_IRIS, SqlDatatype.SCHEME, SqlDatatype.HOST, SqlDatatype.LANG_TAGS,
+			SqlDatatype.DATATYPE_IRIS);
+
+	private record Trial(Column column, String compression, String trialColumn) {
+	}
+
+	/**
+	 * @return per rewritten table the compression forced per column, these
+	 *         tables left their old blocks free
+	 */
+	public Map<String, Map<String, String>> run() {
+		Map<String, Map<String, String>> forced = new LinkedHashMap<>();
+		if (!temp.startsWith("jdbc:duckdb:")) {
+			logger.info("Only duck db reports its storage per column");
+			return forced;
+		}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			checkpoint(conn_rw);
+			Map<String, Map<String, Storage>> storage = measure(conn_rw);
+			for (Table table : tables) {
+				Map<String, Storage> columns = storage.get(table.name());
+				if (columns != null) {
+					Map<String, String> chosen = plan(conn_rw, table, columns);
+					if (!chosen.isEmpty()) {
+						rewrite(conn_rw, table, chosen);
+						forced.put(table.name(), chosen);
+					}
+				}
+			}
+			checkpoint(conn_rw);
+			storage = measure(conn_rw);
+			for (Table table : tables) {
+				Map<String, Storage> columns = storage.getOrDefault(table.name(), Map.of());
+				physicalColumns(table).forEach(c -> c.setStorage(columns.get(c.name())));
+			}
+			writeReport(storage);
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return forced;
+	}
+
+	private static Stream<Column> physicalColumns(Table table) {
+		return Stream.concat(table.subject().columns().stream(),
+				table.objects().stream().map(PredicateMap::groupOfColumns).flatMap(g -> g.columns().stream()))
+				.filter(Column::isPhysical);
+	}
+
+	/**
+	 * Segments in a block are stored one after the other, so a segment takes the
+	 * bytes up to the next segment in the same block, or up to the end of the
+	 * block. All tables must be measured together as they share blocks.
+	 *
+	 * @return per table and column the bytes used and the compression that uses
+	 *         most of them
+	 */
+	static Map<String, Map<String, Storage>> measure(Connection conn) throws SQLException {
+		return measure(conn, query(conn, "SELECT table_name FROM duckdb_tables()"
+				+ " WHERE NOT internal AND NOT temporary AND database_name = current_database()"));
+	}
+
+	/**
+	 * Measuring only some tables counts the bytes of other tables that follow the
+	 * last segment in a shared block towards that segment.
+	 */
+	private static Map<String, Map<String, Storage>> measure(Connection conn, List<String> tableNames)
+			throws SQLException {
+		Map<String, Map<String, Storage>> storage = new LinkedHashMap<>();
+		if (tableNames.isEmpty()) {
+			return storage;
+		}
+		long blockSize = Long.parseLong(query(conn,
+				"SELECT block_size FROM pragma_database_size() WHERE database_name = current_database()").get(0));
+		String segments = tableNames.stream()
+				.map(t -> "SELECT '" + t + "' AS table_name, column_name, segment_type, compression, block_id,"
+						+ " block_offset, len(additional_block_ids) AS extra_blocks FROM pragma_storage_info('" + t
+						+ "')")
+				.collect(Collectors.joining(" UNION ALL "));
+		String sql = "SELECT table_name, column_name, compression, segment_type = 'VALIDITY', COUNT(*),"
+				+ " SUM(CASE WHEN block_id < 0 THEN 0 ELSE COALESCE(next_offset, " + blockSize
+				+ ") - block_offset + extra_blocks * " + blockSize + " END) FROM (SELECT *, LEAD(block_offset)"
+				+ " OVER (PARTITION BY block_id ORDER BY block_offset) AS next_offset FROM (" + segments
+				+ ")) GROUP BY ALL ORDER BY ALL";
+		Map<String, Map<String, Long>> bytes = new LinkedHashMap<>();
+		Map<String, Map<String, long[]>> dominant = new HashMap<>();
+		Map<String, Map<String, String>> compression = new HashMap<>();
+		try (Statement stat = conn.createStatement(); ResultSet rs = stat.executeQuery(sql)) {
+			while (rs.next()) {
+				String table = rs.getString(1);
+				String column = rs.getString(2);
+				long size = rs.getLong(6);
+				bytes.computeIfAbsent(table, k -> new LinkedHashMap<>()).merge(column, size, Long::sum);
+				if (!rs.getBoolean(4)) {
+					long[] best = dominant.computeIfAbsent(table, k -> new HashMap<>()).computeIfAbsent(column,
+							k -> new long[] { -1, -1 });
+					long segmentCount = rs.getLong(5);
+					if (size > best[0] || (size == best[0] && segmentCount > best[1])) {
+						best[0] = size;
+						best[1] = segmentCount;
+						compression.computeIfAbsent(table, k -> new HashMap<>()).put(column, rs.getString(3));
+					}
+				}
+			}
+		}
+		for (var table : bytes.entrySet()) {
+			Map<String, Storage> columns = new LinkedHashMap<>();
+			for (var column : table.getValue().entrySet()) {
+				String c = compression.getOrDefault(table.getKey(), Map.of()).getOrDefault(column.getKey(),
+						"Uncompressed");
+				columns.put(column.getKey(), new Storage(c, column.getValue()));
+			}
+			storage.put(table.getKey(), columns);
+		}
+		return storage;
+	}
+
+	private static List<String> candidates(Column column) {
+		if (column.sqlDatatype() == SqlDatatype.TEXT) {
+			return STRING_COMPRESSIONS;
+		} else if (INTEGER_LIKE.contains(column.sqlDatatype())) {
+			return INTEGER_COMPRESSIONS;
+		}
+		return List.of();
+	}
+
+	/**
+	 * Copies the large columns of a table into a trial table with one column per
+	 * candidate compression, and compares their size and scan time with the
+	 * column as DuckDB chose to store it.
+	 *
+	 * @return the compression to force per column name
+	 */
+	private static Map<String, String> plan(Connection conn, Table table, Map<String, Storage> current)
+			throws SQLException {
+		List<Trial> trials = new ArrayList<>();
+		for (Column c : physicalColumns(table).toList()) {
+			Storage s = current.get(c.name());
+			if (s != null && s.bytes() >= MIN_BYTES_TO_PLAN) {
+				for (String compression : candidates(c)) {
+					if (!compression.equalsIgnoreCase(s.compression())) {
+						trials.add(new Trial(c, compression, c.name() + "_" + compression));
+					}
+				}
+			}
+		}
+		Map<String, String> chosen = new LinkedHashMap<>();
+		if (trials.isEmpty()) {
+			return chosen;
+		}
+		final String trialTable = table.name() + TRIAL;
+		execute(conn, "CREATE TABLE " + trialTable + " (" + trials.stream()
+				.map(t -> t.trialColumn() + " " + t.column().typeName() + " USING COMPRESSION " + t.compression())
+				.collect(Collectors.joining(", ")) + ")");
+		execute(conn, "INSERT INTO " + trialTable + " SELECT "
+				+ trials.stream().map(t -> t.column().name()).collect(Collectors.joining(", ")) + " FROM "
+				+ table.name());
+		JdbcUtil.commitIfNeeded(conn);
+		checkpoint(conn);
+		Map<String, Storage> measured = measure(conn, List.of(trialTable)).get(trialTable);
+		Map<String, Long> bestBytes = new HashMap<>();
+		for (Trial t : trials) {
+			Storage before = current.get(t.column().name());
+			Storage after = measured.get(t.trialColumn());
+			long best = bestBytes.getOrDefault(t.column().name(), (long) (before.bytes() * (1 - MIN_SAVING)));
+			if (after.bytes() < best) {
+				long scanBefore = scanNanos(conn, table.name(), t.column().name());
+				long scanAfter = scanNanos(conn, trialTable, t.trialColumn());
+				logger.info(table.name() + "." + t.column().name() + " " + before + " scans in " + scanBefore
+						+ "ns, with " + t.compression() + " " + after.bytes() + " bytes scans in " + scanAfter + "ns");
+				if (scanAfter <= scanBefore * MAX_SLOWDOWN) {
+					bestBytes.put(t.column().name(), after.bytes());
+					chosen.put(t.column().name(), t.compression());
+				}
+			}
+		}
+		execute(conn, "DROP TABLE " + trialTable);
+		JdbcUtil.commitIfNeeded(conn);
+		return chosen;
+	}
+
+	/**
+	 * The fastest of a few full scans that decode every value.
+	 */
+	private static long scanNanos(Connection conn, String table, String column) throws SQLException {
+		long fastest = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			query(conn, "SELECT SUM(hash(" + column + ")) FROM " + table);
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		return fastest;
+	}
+
+	/**
+	 * Copies the table, in its current row order, into one declared with the
+	 * chosen compressions. DuckDB does not keep these in duckdb_tables().sql so
+	 * the columns are declared from the catalog.
+	 */
+	private static void rewrite(Connection conn, Table table, Map<String, String> chosen) throws SQLException {
+		logger.info("Rewriting " + table.name() + " with " + chosen);
+		// The catalog spells out enums, but the named type is needed to keep them.
+		Map<String, String> typeNames = physicalColumns(table)
+				.collect(Collectors.toMap(Column::name, Column::typeName, (a, b) -> a));
+		List<String> definitions = new ArrayList<>();
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT column_name, data_type FROM duckdb_columns()"
+						+ " WHERE database_name = current_database() AND table_name = '" + table.name()
+						+ "' ORDER BY column_index")) {
+			while (rs.next()) {
+				String name = rs.getString(1);
+				String type = rs.getString(2);
+				if (type.startsWith("ENUM(")) {
+					type = typeNames.get(name);
+				}
+				String compression = chosen.get(name);
+				definitions.add(name + " " + type + (compression == null ? "" : " USING COMPRESSION " + compression));
+			}
+		}
+		List<String> indexes = query(conn, "SELECT sql FROM duckdb_indexes() WHERE sql IS NOT NULL"
+				+ " AND database_name = current_database() AND table_name = '" + table.name() + "'");
+		final String compressed = table.name() + "_compressed";
+		execute(conn, "CREATE TABLE " + compressed + " (" + String.join(", ", definitions) + ")");
+		execute(conn, "INSERT INTO " + compressed + " SELECT * FROM " + table.name());
+		execute(conn, "DROP TABLE " + table.name());
+		execute(conn, "ALTER TABLE " + compressed + " RENAME TO " + table.name());
+		for (String index : indexes) {
+			execute(conn, index);
+		}
+		JdbcUtil.commitIfNeeded(conn);
+	}
+
+	private void writeReport(Map<String, Map<String, Storage>> storage) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(report.toPath())) {
+			out.write("table\tcolumn\tcompression\tbytes\n");
+			long total = 0;
+			for (var table : storage.entrySet()) {
+				long tableBytes = 0;
+				for (var column : table.getValue().entrySet()) {
+					out.write(table.getKey() + "\t" + column.getKey() + "\t" + column.getValue().compression() + "\t"
+							+ column.getValue().bytes() + "\n");
+					tableBytes += column.getValue().bytes();
+				}
+				out.write(table.getKey() + "\t*\t\t" + tableBytes + "\n");
+				total += tableBytes;
+			}
+			out.write("*\t*\t\t" + total + "\n");
+			logger.info("Tables use " + total + " bytes, see " + report);
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
@@ -10,79 +10,189 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public record PoorMansVacuum(String jdbc, File databaseFile) {
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+
+/**
+ * @param compressions per table the compression forced on some of its columns,
+ *                     which duckdb does not keep in the table definition
+ */
+public record PoorMansVacuum(String jdbc, File databaseFile, Map<String, Map<String, String>> compressions) {
 	private static final Logger logger = LoggerFactory.getLogger(PoorMansVacuum.class);
+	/**
+	 * If no more than this fraction of the blocks in the database is free, the
+	 * storage is dense enough and rewriting all of it is not worth the time.
+	 */
+	private static final double MAX_FREE_BLOCK_FRACTION = 0.1;
+
+	/**
+	 * What needs to be recreated in the compacted database, in the order it needs
+	 * to be recreated.
+	 */
+	private record Schema(Map<String, List<String>> enums, Map<String, String> tables, List<String> indexes,
+			List<String> views) {
+	}
+
+	public PoorMansVacuum(String jdbc, File databaseFile) {
+		this(jdbc, databaseFile, Map.of());
+	}
 
 	public void run() {
 		if (! jdbc.startsWith("jdbc:duckdb:")) {
 			logger.info("Only duck db needs a poor mans vacuum");
 		} else {
-			Set<String> tablesToCopy;
+			Schema schema;
+			try (Connection conn_rw = openByJdbc("jdbc:duckdb:" + databaseFile.getAbsolutePath())) {
+				checkpoint(conn_rw);
+				if (isDense(conn_rw)) {
+					logger.info("Storage is already dense, no need for a poor mans vacuum");
+					return;
+				}
+				logger.info("finding tables that need to be in final copy");
+				schema = readSchema(conn_rw, compressions);
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
 			File tempCopy = new File(databaseFile.getParentFile(), databaseFile.getName()+".tempCopy");
 			try {
 				Files.move(databaseFile.toPath(), tempCopy.toPath());
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
-			try {
-				logger.info("finding tables that need to be in final copy");
-				try (Connection conn_rw = openByJdbc("jdbc:duckdb:"+tempCopy.getAbsolutePath())) {
-
-					tablesToCopy = findAllPresentTables(conn_rw);
+			try (Connection conn_rw = openByJdbc("jdbc:duckdb:" + databaseFile.getAbsolutePath())) {
+				for (var en : schema.enums().entrySet()) {
+					createEnum(conn_rw, en.getKey(), en.getValue());
 				}
-				try (Connection conn_rw2 = openByJdbc("jdbc:duckdb:"+databaseFile.getAbsolutePath())) {
-					removeAnySystemTables(tablesToCopy, conn_rw2);
+				try (Statement statement = conn_rw.createStatement()) {
+					statement.execute("ATTACH '" + tempCopy.getAbsolutePath() + "' AS source (READ_ONLY)");
 				}
 				logger.info("running poor mans vacuum");
-				for (String tableName : tablesToCopy) {
-					try (Connection conn_rw2 = openByJdbc("jdbc:duckdb:"+databaseFile.getAbsolutePath())) {
-						try (Statement statement = conn_rw2.createStatement()) {
-							statement.execute("ATTACH '" + tempCopy.getAbsolutePath() + "' AS source (READ_ONLY)");
-						}
-						try (Statement statement = conn_rw2.createStatement()) {
-							statement.execute(
-									"CREATE TABLE " + tableName + " AS SELECT * from source.main." + tableName);
-						}
-						checkpoint(conn_rw2);
-					}
+				final int threads = Runtime.getRuntime().availableProcessors();
+				JdbcUtil.runConcurrently(conn_rw, schema.tables().entrySet(), threads,
+						(conn, table) -> copyTable(conn, table.getKey(), table.getValue()));
+				JdbcUtil.runConcurrently(conn_rw, schema.indexes(), threads, PoorMansVacuum::execute);
+				try (Statement statement = conn_rw.createStatement()) {
+					statement.execute("DETACH source");
 				}
-				try {
-					logger.info("deleting temporary database");
-					Files.delete(tempCopy.toPath());
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+				if (!schema.views().isEmpty()) {
+					// Views over the graph partitions only bind once those are attached
+					JdbcUtil.attachGraphPartitions(conn_rw);
+					for (String view : schema.views()) {
+						execute(conn_rw, view);
+					}
 				}
+				checkpoint(conn_rw);
 			} catch (SQLException e) {
 				throw new IllegalStateException(e);
 			}
+			try {
+				logger.info("deleting temporary database");
+				Files.delete(tempCopy.toPath());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
 		}
 	}
 
-	private void removeAnySystemTables(Set<String> tablesToCopy, Connection conn_rw2) throws SQLException {
-		try (Statement statement = conn_rw2.createStatement()) {
-			try (ResultSet rs = statement.executeQuery("SELECT table_name FROM information_schema.tables")) {
-				while (rs.next()) {
-					tablesToCopy.remove(rs.getString(1));
-				}
+	private static boolean isDense(Connection conn) throws SQLException {
+		try (Statement statement = conn.createStatement();
+				ResultSet rs = statement.executeQuery("PRAGMA database_size")) {
+			long used = 0;
+			long free = 0;
+			while (rs.next()) {
+				used += rs.getLong("used_blocks");
+				free += rs.getLong("free_blocks");
 			}
+			logger.info("Database has " + used + " used and " + free + " free blocks");
+			return free <= (used + free) * MAX_FREE_BLOCK_FRACTION;
 		}
 	}
 
-	private Set<String> findAllPresentTables(Connection conn_rw) throws SQLException {
-		Set<String> tablesToCopy = new HashSet<>();
-		try (Statement statement = conn_rw.createStatement()) {
-			try (ResultSet rs = statement.executeQuery("SELECT table_name FROM information_schema.tables")) {
-				while (rs.next()) {
-					tablesToCopy.add(rs.getString(1));
-				}
+	private static Schema readSchema(Connection conn, Map<String, Map<String, String>> compressions)
+			throws SQLException {
+		Map<String, List<String>> enums = readEnums(conn);
+		Map<String, String> tables = new LinkedHashMap<>();
+		try (Statement statement = conn.createStatement();
+				ResultSet rs = statement.executeQuery("SELECT table_name, sql FROM duckdb_tables()"
+						+ " WHERE NOT internal AND NOT temporary AND database_name = current_database()")) {
+			while (rs.next()) {
+				tables.put(rs.getString(1), rs.getString(2));
 			}
 		}
-		return tablesToCopy;
+		for (var forced : compressions.entrySet()) {
+			if (tables.containsKey(forced.getKey())) {
+				tables.put(forced.getKey(), withCompressions(conn, forced.getKey(), forced.getValue()));
+			}
+		}
+		List<String> indexes = query(conn,
+				"SELECT sql FROM duckdb_indexes() WHERE sql IS NOT NULL AND database_name = current_database()");
+		List<String> views = query(conn, "SELECT sql FROM duckdb_views() WHERE NOT internal AND NOT temporary"
+				+ " AND database_name = current_database()");
+		return new Schema(enums, tables, indexes, views);
+	}
+
+	private static String withCompressions(Connection conn, String table, Map<String, String> compressions)
+			throws SQLException {
+		List<String> definitions = new ArrayList<>();
+		try (Statement statement = conn.createStatement();
+				ResultSet rs = statement.executeQuery("SELECT column_name, data_type FROM duckdb_columns()"
+						+ " WHERE database_name = current_database() AND table_name = '" + table
+						+ "' ORDER BY column_index")) {
+			while (rs.next()) {
+				String compression = compressions.get(rs.getString(1));
+				definitions.add(rs.getString(1) + " " + rs.getString(2)
+						+ (compression == null ? "" : " USING COMPRESSION " + compression));
+			}
+		}
+		return "CREATE TABLE " + table + " (" + String.join(", ", definitions) + ")";
+	}
+
+	/**
+	 * @return the user defined enum types with their values, in order of creation
+	 */
+	static Map<String, List<String>> readEnums(Connection conn) throws SQLException {
+		Map<String, List<String>> enums = new LinkedHashMap<>();
+		for (String enumType : query(conn,
+				"SELECT type_name FROM duckdb_types() WHERE logical_type = 'ENUM' AND NOT internal"
+						+ " AND database_name = current_database() ORDER BY type_oid")) {
+			enums.put(enumType, query(conn, "SELECT unnest(enum_range(NULL::" + enumType + "))"));
+		}
+		return enums;
+	}
+
+	static List<String> query(Connection conn, String sql) throws SQLException {
+		List<String> results = new ArrayList<>();
+		try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+			while (rs.next()) {
+				results.add(rs.getString(1));
+			}
+		}
+		return results;
+	}
+
+	static void createEnum(Connection conn, String name, List<String> values) throws SQLException {
+		String labels = values.stream().map(v -> "'" + v.replace("'", "''") + "'").collect(Collectors.joining(", "));
+		execute(conn, "CREATE TYPE " + name + " AS ENUM (" + labels + ")");
+	}
+
+	private static void copyTable(Connection conn, String tableName, String createTable) throws SQLException {
+		execute(conn, createTable);
+		execute(conn, "INSERT INTO " + tableName + " SELECT * FROM source.main." + tableName);
+		JdbcUtil.commitIfNeeded(conn);
+	}
+
+	static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement statement = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			statement.execute(sql);
+		}
 	}
 }
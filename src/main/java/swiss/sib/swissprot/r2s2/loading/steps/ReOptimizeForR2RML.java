@@ -13,7 +13,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import swiss.sib.swissprot.r2s2.optimization.IntroduceVirtualColumns;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForIriShapes;
 import swiss.sib.swissprot.r2s2.optimization.OptimizeForLongestCommonSubstring;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForNumericSuffix;
 import swiss.sib.swissprot.r2s2.optimization.RdfTypeSplitting;
 import swiss.sib.swissprot.r2s2.sql.Table;
 
@@ -22,7 +24,8 @@ public record ReOptimizeForR2RML(String dbPath, List<Table> tables, Map<String,
 	private static final Logger logger = LoggerFactory.getLogger(ReOptimizeForR2RML.class);
 
 	private static final List<BiConsumer<Connection, Table>> OPTIMIZERS = List.of(IntroduceVirtualColumns::optimize,
-			OptimizeForLongestCommonSubstring::optimize);
+			OptimizeForLongestCommonSubstring::optimize, OptimizeForNumericSuffix::optimize,
+			OptimizeForIriShapes::optimize);
 	public List<Table> run() {
 		logger.info("Starting to optimize for r2rml");
 		List<Table> tables = tables();
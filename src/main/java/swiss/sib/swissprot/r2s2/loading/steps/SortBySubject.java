@@ -0,0 +1,167 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.Table.RowGroup;
+
+/**
+ * Rewrites every table in subject order so that the min/max statistics DuckDB
+ * keeps per row group let subject lookups skip most of the table. Optionally
+ * the order is a Z-order of the subject and the object column with the most
+ * distinct values, which keeps lookups on that object prunable as well. The
+ * smallest and largest subject of each row group are kept in the table
+ * description.
+ */
+public record SortBySubject(String temp, List<Table> tables, boolean zOrder) {
+
+	private static final Logger logger = LoggerFactory.getLogger(SortBySubject.class);
+	/**
+	 * DuckDB's default number of rows in a row group.
+	 */
+	static final long ROW_GROUP_SIZE = 122_880;
+	/**
+	 * The ranks are interleaved into a BIGINT so each may use at most 31 bits.
+	 */
+	private static final long MAX_Z_ORDER_RANK = 1L << 31;
+	private static final long[] SPREAD_MASKS = { 0x0000FFFF0000FFFFL, 0x00FF00FF00FF00FFL, 0x0F0F0F0F0F0F0F0FL,
+			0x3333333333333333L, 0x5555555555555555L };
+
+	public SortBySubject(String temp, List<Table> tables) {
+		this(temp, tables, false);
+	}
+
+	public void run() {
+		if (!temp.startsWith("jdbc:duckdb:")) {
+			logger.info("Only duck db has row groups to sort for");
+			return;
+		}
+		try (Connection conn_rw = openByJdbc(temp)) {
+			final int threads = Runtime.getRuntime().availableProcessors();
+			JdbcUtil.runConcurrently(conn_rw, tables, threads, this::sort);
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void sort(Connection conn, Table table) throws SQLException {
+		List<Column> subjectColumns = table.subject().columns().stream().filter(Column::isPhysical)
+				.filter(R2RMLFromTables::notTheGraphColumn).toList();
+		if (subjectColumns.isEmpty()) {
+			return;
+		}
+		long rows = count(conn, table);
+		if (rows > ROW_GROUP_SIZE) {
+			String subjectOrder = subjectColumns.stream().map(Column::name).collect(Collectors.joining(", "));
+			Optional<Column> second = zOrder && rows < MAX_Z_ORDER_RANK ? mostDistinctObject(conn, table)
+					: Optional.empty();
+			final String sorted = table.name() + "_sorted";
+			if (second.isPresent()) {
+				execute(conn, "CREATE TABLE " + sorted + " AS SELECT * EXCLUDE (z_subject, z_object) FROM (SELECT *, "
+						+ "DENSE_RANK() OVER (ORDER BY " + subjectOrder + ") AS z_subject, DENSE_RANK() OVER (ORDER BY "
+						+ second.get().name() + ") AS z_object FROM " + table.name() + ") ORDER BY ("
+						+ spread("z_subject") + " | (" + spread("z_object") + " << 1))");
+			} else {
+				execute(conn, "CREATE TABLE " + sorted + " AS SELECT * FROM " + table.name() + " ORDER BY "
+						+ subjectOrder);
+			}
+			execute(conn, "DROP TABLE " + table.name());
+			execute(conn, "ALTER TABLE " + sorted + " RENAME TO " + table.name());
+			JdbcUtil.commitIfNeeded(conn);
+		}
+		table.setRowGroups(rowGroups(conn, table, subjectColumns));
+	}
+
+	private static long count(Connection conn, Table table) throws SQLException {
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM " + table.name())) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+
+	private static Optional<Column> mostDistinctObject(Connection conn, Table table) throws SQLException {
+		List<Column> candidates = table.objects().stream().map(PredicateMap::groupOfColumns)
+				.map(GroupOfColumns::columns).flatMap(List::stream).filter(Column::isPhysical)
+				.filter(R2RMLFromTables::notTheGraphColumn).toList();
+		if (candidates.isEmpty()) {
+			return Optional.empty();
+		}
+		String sql = candidates.stream().map(c -> "APPROX_COUNT_DISTINCT(" + c.name() + ")")
+				.collect(Collectors.joining(", ", "SELECT ", " FROM " + table.name()));
+		try (Statement stat = conn.createStatement(); ResultSet rs = stat.executeQuery(sql)) {
+			rs.next();
+			Column best = null;
+			long bestDistinct = 1;
+			for (int i = 0; i < candidates.size(); i++) {
+				long distinct = rs.getLong(i + 1);
+				if (distinct > bestDistinct) {
+					best = candidates.get(i);
+					bestDistinct = distinct;
+				}
+			}
+			return Optional.ofNullable(best);
+		}
+	}
+
+	/**
+	 * Moves the bits of a rank into the even bit positions, so that two spread
+	 * ranks can be interleaved into a Morton code.
+	 */
+	static String spread(String rank) {
+		String x = "CAST(" + rank + " AS BIGINT)";
+		int shift = 16;
+		for (long mask : SPREAD_MASKS) {
+			x = "((" + x + " | (" + x + " << " + shift + ")) & " + mask + ")";
+			shift = shift / 2;
+		}
+		return x;
+	}
+
+	private static List<RowGroup> rowGroups(Connection conn, Table table, List<Column> subjectColumns)
+			throws SQLException {
+		final String key;
+		if (table.subjectKind() == Kind.IRI && table.subject().iriIdColumn().isEmpty()) {
+			key = IntroduceIriDictionary.iriExpression(
+					table.subject().columns().stream().filter(R2RMLFromTables::notTheGraphColumn).toList());
+		} else {
+			key = "t." + subjectColumns.get(0).name();
+		}
+		List<RowGroup> rowGroups = new ArrayList<>();
+		final String sql = "SELECT rowid // " + ROW_GROUP_SIZE + " AS rg, MIN(" + key + "), MAX(" + key + ") FROM "
+				+ table.name() + " AS t GROUP BY rg ORDER BY rg";
+		try (Statement stat = conn.createStatement(); ResultSet rs = stat.executeQuery(sql)) {
+			while (rs.next()) {
+				if (rs.getString(2) != null) {
+					rowGroups.add(new RowGroup(rs.getLong(1), rs.getString(2), rs.getString(3)));
+				}
+			}
+		}
+		return rowGroups;
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package swiss.sib.swissprot.r2s2.loading.steps;
+
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+
+/**
+ * Marks the end of a load with a new generation id, so that anything cached
+ * from an earlier load of the same database file can be recognized as stale.
+ */
+public record WriteLoadGeneration(String jdbc) {
+	private static final Logger logger = LoggerFactory.getLogger(WriteLoadGeneration.class);
+
+	public void run() {
+		String generation = UUID.randomUUID().toString();
+		try (Connection conn_rw = openByJdbc(jdbc); Statement stat = conn_rw.createStatement()) {
+			execute(stat, "DROP TABLE IF EXISTS " + JdbcUtil.LOAD_GENERATION);
+			execute(stat, "CREATE TABLE " + JdbcUtil.LOAD_GENERATION + " (generation VARCHAR)");
+			execute(stat, "INSERT INTO " + JdbcUtil.LOAD_GENERATION + " VALUES ('" + generation + "')");
+			JdbcUtil.commitIfNeeded(conn_rw);
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void execute(Statement stat, String sql) throws SQLException {
+		logger.info("Running: " + sql);
+		stat.execute(sql);
+	}
+}
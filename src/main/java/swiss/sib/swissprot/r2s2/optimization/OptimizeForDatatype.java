@@ -1,13 +1,18 @@
 package swiss.sib.swissprot.r2s2.optimization;
 
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import org.duckdb.DuckDBConnection;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.slf4j.Logger;
@@ -49,6 +54,36 @@ public class OptimizeForDatatype {
 		}
 	}
 
+	/**
+	 * Datatypes that are only converted if the conversion is lossless.
+	 */
+	private static final Set<IRI> INTEGERS = Set.of(XSD.INTEGER, XSD.INT, XSD.LONG, XSD.SHORT, XSD.BYTE,
+			XSD.UNSIGNED_INT, XSD.UNSIGNED_LONG, XSD.UNSIGNED_SHORT, XSD.UNSIGNED_BYTE, XSD.NON_NEGATIVE_INTEGER,
+			XSD.POSITIVE_INTEGER, XSD.NON_POSITIVE_INTEGER, XSD.NEGATIVE_INTEGER);
+	private static final Set<IRI> NARROWED = Stream.concat(INTEGERS.stream(),
+			Stream.of(XSD.DECIMAL, XSD.DATE, XSD.TIME, XSD.DATETIME, XSD.GYEARMONTH, XSD.DURATION))
+			.collect(Collectors.toUnmodifiableSet());
+
+	private record IntegerRange(SqlDatatype type, BigInteger min, BigInteger max) {
+		IntegerRange(SqlDatatype type, String min, String max) {
+			this(type, new BigInteger(min), new BigInteger(max));
+		}
+	}
+
+	/**
+	 * From narrow to wide, the first that holds all values is used.
+	 */
+	private static final List<IntegerRange> INTEGER_RANGES = List.of(
+			new IntegerRange(SqlDatatype.TINYINT, "-128", "127"), new IntegerRange(SqlDatatype.UTINYINT, "0", "255"),
+			new IntegerRange(SqlDatatype.SMALLINT, "-32768", "32767"),
+			new IntegerRange(SqlDatatype.USMALLINT, "0", "65535"),
+			new IntegerRange(SqlDatatype.INTEGER, "-2147483648", "2147483647"),
+			new IntegerRange(SqlDatatype.UINTEGER, "0", "4294967295"),
+			new IntegerRange(SqlDatatype.BIGINT, "-9223372036854775808", "9223372036854775807"),
+			new IntegerRange(SqlDatatype.UBIGINT, "0", "18446744073709551615"),
+			new IntegerRange(SqlDatatype.HUGEINT, "-170141183460469231731687303715884105728",
+					"170141183460469231731687303715884105727"));
+
 	public static void optimize(Connection conn, Table table) {
 		for (PredicateMap p : table.objects()) {
 			if (p.objectKind() == Kind.LITERAL) {
@@ -77,14 +112,18 @@ public class OptimizeForDatatype {
 		}
 	}
 
+	/**
+	 * Every value must be a number that reads back unchanged, a value that is not
+	 * a number at all makes the cast fail.
+	 */
 	private static boolean noLeadingZerosAndAllNumbers(String tableName, String name, Connection conn) {
-		String sql = "SELECT EXISTS (SELECT " + name + " FROM " + tableName + " WHERE len(cast(cast(" + name + " AS INTEGER) AS TEXT))=len("
-				+ name + "))";
+		String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE " + name + " IS NOT NULL AND CAST(CAST(" + name
+				+ " AS INTEGER) AS TEXT) <> " + name;
 		try (Statement stat = conn.createStatement()) {
 			logger.info("RUNNING " + sql);
 			try (ResultSet rs = stat.executeQuery(sql)) {
 				rs.next();
-				return rs.getBoolean(1);
+				return rs.getLong(1) == 0;
 			}
 		} catch (SQLException e) {
 			logger.info("Column:" + tableName + '.' + name + " can not be converted to just ints");
@@ -99,6 +138,12 @@ public class OptimizeForDatatype {
 	}
 
 	static void optimizeLiteral(Connection conn, String table, PredicateMap p, Column c) {
+		if (conn instanceof DuckDBConnection && NARROWED.contains(p.datatype())) {
+			if (c.isPhysical() && c.name().endsWith(GroupOfColumns.LIT_VALUE) && c.sqlDatatype() == SqlDatatype.TEXT) {
+				narrowLosslessly(conn, table, p.datatype(), c);
+			}
+			return;
+		}
 		alterForDatatype(conn, table, p, c, XSD.INT, SqlDatatype.INTEGER, "");
 		alterForDatatype(conn, table, p, c, XSD.INTEGER, SqlDatatype.NUMERIC, "");
 		alterForDatatype(conn, table, p, c, XSD.LONG, SqlDatatype.BIGINT, "");
@@ -114,6 +159,194 @@ public class OptimizeForDatatype {
 		}
 	}
 
+	/**
+	 * Picks the narrowest type that can hold every value of the column, and only
+	 * converts if each value read back in its canonical form is exactly the
+	 * lexical form loaded. Otherwise the column stays text, as any other lexical
+	 * form would change the literal.
+	 */
+	private static void narrowLosslessly(Connection conn, String table, IRI datatype, Column c) {
+		final String name = c.name();
+		if (INTEGERS.contains(datatype)) {
+			narrowInteger(conn, table, c);
+		} else if (XSD.DECIMAL.equals(datatype)) {
+			if (roundTrips(conn, table, name, "CAST(TRY_CAST(" + name + " AS HUGEINT) AS VARCHAR)")) {
+				narrowInteger(conn, table, c);
+			} else if (roundTrips(conn, table, name, decimalLexicalForm("TRY_CAST(" + name + " AS NUMERIC)"))) {
+				alterTableTo(table, c, SqlDatatype.NUMERIC, conn, "");
+			}
+		} else if (XSD.DATE.equals(datatype)) {
+			if (roundTrips(conn, table, name, "CAST(TRY_CAST(" + name + " AS DATE) AS VARCHAR)")) {
+				alterTableTo(table, c, SqlDatatype.DATE, conn, "");
+			}
+		} else if (XSD.TIME.equals(datatype)) {
+			if (roundTrips(conn, table, name, "CAST(TRY_CAST(" + name + " AS TIME) AS VARCHAR)")) {
+				alterTableTo(table, c, SqlDatatype.TIME, conn, "");
+			}
+		} else if (XSD.DATETIME.equals(datatype)) {
+			if (roundTrips(conn, table, name, dateTimeLexicalForm("TRY_CAST(" + name + " AS TIMESTAMP)", false))) {
+				alterTableTo(table, c, SqlDatatype.TIMESTAMP, conn, "");
+			} else if (roundTrips(conn, table, name,
+					dateTimeLexicalForm("TRY_CAST(" + name + " AS TIMESTAMPTZ)", true))) {
+				alterTableTo(table, c, SqlDatatype.TIMESTAMPTZ, conn, "");
+			}
+		} else if (XSD.GYEARMONTH.equals(datatype)) {
+			final String asDate = "TRY_CAST(" + name + " || '-01' AS DATE)";
+			if (roundTrips(conn, table, name, gYearMonthLexicalForm(asDate))) {
+				alterTableTo(table, c, SqlDatatype.DATE, conn, " USING (" + asDate + ")");
+			}
+		} else if (XSD.DURATION.equals(datatype)) {
+			final String asInterval = durationToInterval(name);
+			if (roundTrips(conn, table, name, intervalLexicalForm(asInterval))) {
+				alterTableTo(table, c, SqlDatatype.INTERVAL, conn, " USING (" + asInterval + ")");
+			}
+		}
+	}
+
+	private static void narrowInteger(Connection conn, String table, Column c) {
+		final String name = c.name();
+		final String asHugeInt = "TRY_CAST(" + name + " AS HUGEINT)";
+		if (!roundTrips(conn, table, name, "CAST(" + asHugeInt + " AS VARCHAR)")) {
+			return;
+		}
+		final String sql = "SELECT CAST(MIN(" + asHugeInt + ") AS VARCHAR), CAST(MAX(" + asHugeInt + ") AS VARCHAR) FROM "
+				+ table;
+		try (Statement stat = conn.createStatement()) {
+			logger.info("RUNNING " + sql);
+			try (ResultSet rs = stat.executeQuery(sql)) {
+				if (rs.next() && rs.getString(1) != null) {
+					BigInteger min = new BigInteger(rs.getString(1));
+					BigInteger max = new BigInteger(rs.getString(2));
+					for (IntegerRange range : INTEGER_RANGES) {
+						if (range.min().compareTo(min) <= 0 && range.max().compareTo(max) >= 0) {
+							alterTableTo(table, c, range.type(), conn, "");
+							return;
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			logger.info("Column:" + table + '.' + name + " has no integer range");
+		}
+	}
+
+	/**
+	 * @param lexicalForm SQL giving the value back as text after conversion, NULL
+	 *                    if the conversion failed
+	 * @return true if for every row the lexical form is the same as the text
+	 */
+	private static boolean roundTrips(Connection conn, String table, String name, String lexicalForm) {
+		final String sql = "SELECT COUNT(*) FROM " + table + " WHERE " + name + " IS NOT NULL AND (" + lexicalForm
+				+ ") IS DISTINCT FROM " + name;
+		try (Statement stat = conn.createStatement()) {
+			logger.info("RUNNING " + sql);
+			try (ResultSet rs = stat.executeQuery(sql)) {
+				rs.next();
+				return rs.getLong(1) == 0;
+			}
+		} catch (SQLException e) {
+			logger.info("Column:" + table + '.' + name + " does not round trip");
+		}
+		return false;
+	}
+
+	/**
+	 * SQL giving the lexical form of a literal value column that is not the same
+	 * as the text of the column, or empty if the column can be used as is.
+	 *
+	 * @param expression SQL of the column, e.g. t.column
+	 */
+	public static Optional<String> lexicalForm(String expression, Column c, IRI datatype) {
+		if (!c.isPhysical() || !c.name().endsWith(GroupOfColumns.LIT_VALUE)) {
+			return Optional.empty();
+		}
+		switch (c.sqlDatatype()) {
+		case INTERVAL:
+			return Optional.of(intervalLexicalForm(expression));
+		case TIMESTAMPTZ:
+			return Optional.of(dateTimeLexicalForm(expression, true));
+		case NUMERIC:
+			if (XSD.DECIMAL.equals(datatype)) {
+				return Optional.of(decimalLexicalForm(expression));
+			}
+			return Optional.empty();
+		case DATE:
+			if (XSD.GYEARMONTH.equals(datatype)) {
+				return Optional.of(gYearMonthLexicalForm(expression));
+			}
+			return Optional.empty();
+		default:
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * The canonical xsd:decimal keeps one digit after the point, but no trailing
+	 * zeros.
+	 */
+	private static String decimalLexicalForm(String decimal) {
+		final String text = "CAST(" + decimal + " AS VARCHAR)";
+		return "CASE WHEN POSITION('.' IN " + text + ") > 0 THEN regexp_replace(regexp_replace(" + text
+				+ ", '0+$', ''), '\\.$', '.0') ELSE " + text + " END";
+	}
+
+	private static String dateTimeLexicalForm(String timestamp, boolean utc) {
+		if (utc) {
+			return "replace(CAST(" + timestamp + " AT TIME ZONE 'UTC' AS VARCHAR), ' ', 'T') || 'Z'";
+		}
+		return "replace(CAST(" + timestamp + " AS VARCHAR), ' ', 'T')";
+	}
+
+	private static String gYearMonthLexicalForm(String date) {
+		return "strftime(" + date + ", '%Y-%m')";
+	}
+
+	/**
+	 * DuckDB does not read ISO 8601 durations, so the parts are taken apart with a
+	 * regular expression and added up.
+	 */
+	static String durationToInterval(String name) {
+		final String parts = "regexp_extract(" + name
+				+ ", '^P(?:([0-9]+)Y)?(?:([0-9]+)M)?(?:([0-9]+)D)?(?:T(?:([0-9]+)H)?(?:([0-9]+)M)?(?:([0-9]+(?:\\.[0-9]+)?)S)?)?$', "
+				+ "['y', 'mo', 'd', 'h', 'mi', 's'])";
+		return "CASE WHEN " + name + " IS NULL OR " + parts + ".y IS NULL OR " + name + " IN ('P', 'PT') OR " + name
+				+ " LIKE '%T' THEN NULL ELSE to_months(" + part(parts, "y") + " * 12 + " + part(parts, "mo")
+				+ ") + to_days(" + part(parts, "d") + ") + to_microseconds(CAST(round((" + part(parts, "h")
+				+ " * 3600 + " + part(parts, "mi") + " * 60 + CAST(coalesce(nullif(" + parts
+				+ ".s, ''), '0') AS DECIMAL(18, 6))) * 1000000) AS BIGINT)) END";
+	}
+
+	private static String part(String parts, String field) {
+		return "CAST(coalesce(nullif(" + parts + "." + field + ", ''), '0') AS BIGINT)";
+	}
+
+	/**
+	 * The canonical xsd:duration of an interval, months are given as years and
+	 * months, the time as hours, minutes and seconds.
+	 */
+	static String intervalLexicalForm(String interval) {
+		final String months = "datepart('year', " + interval + ") * 12 + datepart('month', " + interval + ")";
+		final String days = "datepart('day', " + interval + ")";
+		final String micros = "(datepart('hour', " + interval + ") * 3600000000 + datepart('minute', " + interval
+				+ ") * 60000000 + datepart('microseconds', " + interval + "))";
+		final String hours = "(" + micros + " // 3600000000)";
+		final String minutes = "(" + micros + " % 3600000000 // 60000000)";
+		final String seconds = "(" + micros + " % 60000000)";
+		return "CASE WHEN " + interval + " IS NULL THEN NULL WHEN " + months + " = 0 AND " + days + " = 0 AND " + micros
+				+ " = 0 THEN 'PT0S' ELSE 'P'" //
+				+ " || CASE WHEN " + months + " >= 12 THEN CAST((" + months + ") // 12 AS VARCHAR) || 'Y' ELSE '' END"
+				+ " || CASE WHEN (" + months + ") % 12 <> 0 THEN CAST((" + months
+				+ ") % 12 AS VARCHAR) || 'M' ELSE '' END" //
+				+ " || CASE WHEN " + days + " <> 0 THEN CAST(" + days + " AS VARCHAR) || 'D' ELSE '' END" //
+				+ " || CASE WHEN " + micros + " <> 0 THEN 'T'" //
+				+ " || CASE WHEN " + hours + " <> 0 THEN CAST(" + hours + " AS VARCHAR) || 'H' ELSE '' END"
+				+ " || CASE WHEN " + minutes + " <> 0 THEN CAST(" + minutes + " AS VARCHAR) || 'M' ELSE '' END"
+				+ " || CASE WHEN " + seconds + " % 1000000 <> 0 THEN rtrim(printf('%d.%06d', " + seconds
+				+ " // 1000000, " + seconds + " % 1000000), '0') || 'S' WHEN " + seconds + " <> 0 THEN CAST("
+				+ seconds + " // 1000000 AS VARCHAR) || 'S' ELSE '' END" //
+				+ " ELSE '' END END";
+	}
+
 	private static void introducingGYearType(Connection conn) {
 		try (java.sql.Statement stat = conn.createStatement()) {
 			stat.execute(GYEAR_DEF);
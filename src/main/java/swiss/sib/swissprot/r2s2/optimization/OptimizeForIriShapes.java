@@ -0,0 +1,192 @@
+package swiss.sib.swissprot.r2s2.optimization;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * An IRI path that is neither one prefix with a number nor free text often has
+ * a few shapes, e.g. isoforms/P12345-2 and uniprot/P12345. Every run of letters
+ * and digits that contains a digit is taken as a variable slot, the rest of the
+ * value as the text of its shape. If there are only a few shapes the path
+ * column is replaced by an {@link IriShapeColumn} and a column per slot, BIGINT
+ * if every value in that slot is an integer in canonical form, otherwise text.
+ */
+public class OptimizeForIriShapes {
+	private static final Logger logger = LoggerFactory.getLogger(OptimizeForIriShapes.class);
+	static final String SLOT_PATTERN = "[A-Za-z0-9]*[0-9][A-Za-z0-9]*";
+	/**
+	 * More shapes than this means the column is not that regular, and each shape
+	 * costs a TriplesMap.
+	 */
+	private static final int MAX_SHAPES = 16;
+	private static final int MAX_SLOTS = 4;
+	private static final String SHAPES = "iri_shapes_";
+
+	public static void optimize(Connection conn, Table table) {
+		if (!(conn instanceof DuckDBConnection)) {
+			return;
+		}
+		if (table.subjectKind() == Kind.IRI) {
+			optimize(conn, table, table.subject());
+		}
+		for (PredicateMap p : table.objects()) {
+			if (p.objectKind() == Kind.IRI) {
+				optimize(conn, table, p.groupOfColumns());
+			}
+		}
+	}
+
+	private static void optimize(Connection conn, Table table, GroupOfColumns group) {
+		List<Column> columns = group.columns();
+		if (columns.stream().anyMatch(IriShapeColumn.class::isInstance)) {
+			return;
+		}
+		for (int i = 0; i < columns.size(); i++) {
+			Column c = columns.get(i);
+			if (c.isPhysical() && c.sqlDatatype() == SqlDatatype.TEXT && c.name().endsWith(GroupOfColumns.PATH)) {
+				try {
+					List<String> shapes = shapes(conn, table.name(), c.name());
+					if (shapes.size() > 1) {
+						columns.addAll(i, split(conn, table, c, shapes));
+						columns.remove(c);
+						return;
+					}
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the shapes in order, or an empty list if there are too many
+	 */
+	private static List<String> shapes(Connection conn, String table, String column) throws SQLException {
+		String sql = "SELECT shape, bool_or(contains(" + column + ", '{') OR contains(" + column + ", '}'))"
+				+ " FROM (SELECT " + column + ", " + shapeOf(column) + " AS shape FROM " + table + " WHERE " + column
+				+ " IS NOT NULL) GROUP BY shape ORDER BY shape LIMIT " + (MAX_SHAPES + 1);
+		List<String> shapes = new ArrayList<>();
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			try (ResultSet rs = stat.executeQuery(sql)) {
+				while (rs.next()) {
+					if (rs.getBoolean(2)) {
+						// Braces would be taken for a slot in the R2RML template
+						return List.of();
+					}
+					shapes.add(rs.getString(1));
+				}
+			}
+		}
+		int slots = shapes.stream().mapToInt(OptimizeForIriShapes::slots).max().orElse(0);
+		if (shapes.size() > MAX_SHAPES || slots == 0 || slots > MAX_SLOTS) {
+			logger.info(table + "." + column + " has no small set of shapes");
+			return List.of();
+		}
+		return shapes;
+	}
+
+	static int slots(String shape) {
+		return shape.split("\\{\\}", -1).length - 1;
+	}
+
+	private static String shapeOf(String column) {
+		return "regexp_replace(" + column + ", '" + SLOT_PATTERN + "', '" + IriShapeColumn.PLACEHOLDER + "', 'g')";
+	}
+
+	private static String slotOf(String column, int slot) {
+		return "regexp_extract_all(" + column + ", '" + SLOT_PATTERN + "')[" + slot + "]";
+	}
+
+	private static List<Column> split(Connection conn, Table table, Column c, List<String> shapes)
+			throws SQLException {
+		final String enumType = enumType(shapes);
+		IriShapeColumn shape = new IriShapeColumn(c.name() + IriShapeColumn.SHAPE, enumType, shapes);
+		int slots = shapes.stream().mapToInt(OptimizeForIriShapes::slots).max().getAsInt();
+		List<Column> split = new ArrayList<>();
+		split.add(shape);
+		String integers = IntStream.rangeClosed(1, slots)
+				.mapToObj(i -> "COUNT(*) FILTER (WHERE " + slotOf(c.name(), i) + " IS NOT NULL AND CAST(TRY_CAST("
+						+ slotOf(c.name(), i) + " AS BIGINT) AS VARCHAR) IS DISTINCT FROM " + slotOf(c.name(), i)
+						+ ")")
+				.collect(Collectors.joining(", "));
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT " + integers + " FROM " + table.name())) {
+			rs.next();
+			for (int i = 1; i <= slots; i++) {
+				SqlDatatype type = rs.getLong(i) == 0 ? SqlDatatype.BIGINT : SqlDatatype.TEXT;
+				split.add(new Column(shape.slotName(i), type));
+			}
+		}
+		if (!typeExists(conn, enumType)) {
+			execute(conn, "CREATE TYPE " + enumType + " AS ENUM (" + shapes.stream()
+					.map(s -> "'" + s.replace("'", "''") + "'").collect(Collectors.joining(", ")) + ")");
+		}
+		for (Column s : split) {
+			execute(conn, "ALTER TABLE " + table.name() + " ADD COLUMN " + s.definition());
+		}
+		StringBuilder set = new StringBuilder(shape.name() + " = CAST(" + shapeOf(c.name()) + " AS " + enumType + ")");
+		for (int i = 1; i <= slots; i++) {
+			Column slot = split.get(i);
+			set.append(", ").append(slot.name()).append(" = CAST(").append(slotOf(c.name(), i)).append(" AS ")
+					.append(slot.typeName()).append(")");
+		}
+		execute(conn, "UPDATE " + table.name() + " SET " + set);
+		execute(conn, "ALTER TABLE " + table.name() + " DROP COLUMN " + c.name());
+		JdbcUtil.commitIfNeeded(conn);
+		return split;
+	}
+
+	/**
+	 * Named after the shapes, so that columns with the same shapes share one type
+	 * and their tables can be merged.
+	 */
+	private static String enumType(List<String> shapes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(String.join("\n", shapes).getBytes(StandardCharsets.UTF_8));
+			return SHAPES + HexFormat.of().formatHex(hash, 0, 8);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean typeExists(Connection conn, String enumType) throws SQLException {
+		try (Statement stat = conn.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM duckdb_types() WHERE type_name = '" + enumType
+						+ "' AND database_name = current_database()")) {
+			rs.next();
+			return rs.getLong(1) > 0;
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package swiss.sib.swissprot.r2s2.optimization;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+/**
+ * Many IRIs are a shared text followed by a number, e.g.
+ * http://purl.uniprot.org/citations/12345. Once the longest common prefix is
+ * virtual, the path, query or fragment column only holds the tail. If every
+ * tail, together with any digits the common prefix happened to end with, is an
+ * integer in its canonical form the column is stored as a BIGINT. The prefix
+ * without those digits stays virtual and both end up in the rr:template.
+ */
+public class OptimizeForNumericSuffix {
+	private static final Logger logger = LoggerFactory.getLogger(OptimizeForNumericSuffix.class);
+	private static final String LCS = "_lcs";
+
+	public static void optimize(Connection conn, Table table) {
+		if (!(conn instanceof DuckDBConnection)) {
+			return;
+		}
+		if (table.subjectKind() == Kind.IRI) {
+			optimize(conn, table.name(), table.subject().columns());
+		}
+		for (PredicateMap p : table.objects()) {
+			if (p.objectKind() == Kind.IRI) {
+				optimize(conn, table.name(), p.groupOfColumns().columns());
+			}
+		}
+	}
+
+	private static void optimize(Connection conn, String tableName, List<Column> columns) {
+		for (int i = 0; i < columns.size(); i++) {
+			Column c = columns.get(i);
+			if (c.isPhysical() && c.sqlDatatype() == SqlDatatype.TEXT && isNumberedPart(c)) {
+				int lcsIndex = i > 0 && columns.get(i - 1).name().equals(c.name() + LCS) ? i - 1 : -1;
+				String lcs = lcsIndex < 0 ? "" : ((VirtualSingleValueColumn) columns.get(lcsIndex)).value();
+				int digitsStart = lcs.length();
+				while (digitsStart > 0 && Character.isDigit(lcs.charAt(digitsStart - 1))) {
+					digitsStart--;
+				}
+				String digits = lcs.substring(digitsStart);
+				String number = digits.isEmpty() ? c.name() : "('" + digits + "' || " + c.name() + ")";
+				try {
+					if (allCanonicalIntegers(conn, tableName, c.name(), number)) {
+						execute(conn, "ALTER TABLE " + tableName + " ALTER " + c.name() + " TYPE "
+								+ SqlDatatype.BIGINT.label() + " USING CAST(" + number + " AS BIGINT)");
+						JdbcUtil.commitIfNeeded(conn);
+						c.setDatatype(SqlDatatype.BIGINT);
+						if (!digits.isEmpty()) {
+							Column old = columns.get(lcsIndex);
+							columns.set(lcsIndex,
+									new VirtualSingleValueColumn(old.name(), old.sqlDatatype(), lcs.substring(0, digitsStart)));
+						}
+					}
+				} catch (SQLException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	private static boolean isNumberedPart(Column c) {
+		return c.name().endsWith(GroupOfColumns.PATH) || c.name().endsWith(GroupOfColumns.QUERY)
+				|| c.name().endsWith(GroupOfColumns.FRAGMENT);
+	}
+
+	/**
+	 * Every value must read back exactly as loaded, so no leading zeros, plus
+	 * signs or numbers that do not fit a BIGINT.
+	 */
+	private static boolean allCanonicalIntegers(Connection conn, String tableName, String name, String number)
+			throws SQLException {
+		String sql = "SELECT COUNT(" + name + "), COUNT(*) FILTER (WHERE CAST(TRY_CAST(" + number
+				+ " AS BIGINT) AS VARCHAR) IS DISTINCT FROM " + number + ") FROM " + tableName + " WHERE " + name
+				+ " IS NOT NULL";
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			try (ResultSet rs = stat.executeQuery(sql)) {
+				rs.next();
+				return rs.getLong(1) > 0 && rs.getLong(2) == 0;
+			}
+		}
+	}
+
+	private static void execute(Connection conn, String sql) throws SQLException {
+		try (Statement stat = conn.createStatement()) {
+			logger.info("Running: " + sql);
+			stat.execute(sql);
+		}
+	}
+}
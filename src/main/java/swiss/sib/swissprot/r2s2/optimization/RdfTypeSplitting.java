@@ -97,10 +97,11 @@ public class RdfTypeSplitting {
 			newTable = makeNewTable(t, conn, pm.copy(), tableName);
 		} catch (SQLException e) {
 			// Can happen if the table name is not valid.
-			newTable = new Table("type_" + TYPE_ID.incrementAndGet(), new GroupOfColumns(t.subject().columns()),
-					t.subjectKind(), List.of(pm.copy()));
+			newTable = new Table("type_" + TYPE_ID.incrementAndGet(), copyOfSubject(t), t.subjectKind(),
+					List.of(pm.copy()));
 			newTable.create(conn);
 		}
+		newTable.setMayContainDuplicates(t.mayContainDuplicates());
 		newTables.add(newTable);
 		String in = generateInsertIntoSql(t, notVirtual, rs, newTable);
 		log.info("Executing " + in);
@@ -130,12 +131,18 @@ public class RdfTypeSplitting {
 	}
 
 	private static Table makeNewTable(Table t, Connection conn, PredicateMap pm, String tableName) throws SQLException {
-		Table newTable = new Table("type_" + tableName, new GroupOfColumns(t.subject().columns()), t.subjectKind(),
-				List.of(pm));
+		Table newTable = new Table("type_" + tableName, copyOfSubject(t), t.subjectKind(), List.of(pm));
 		newTable.create(conn);
 		return newTable;
 	}
 
+	/**
+	 * Each new table is optimized on its own, so must not share its columns.
+	 */
+	private static GroupOfColumns copyOfSubject(Table t) {
+		return new GroupOfColumns(t.subject().columns().stream().map(Column::copy).toList());
+	}
+
 	private static String newTableName(List<Column> notVirtual, ResultSet rs, Map<String, String> namespaces)
 			throws SQLException {
 		List<Column> forName = notVirtual.stream().filter(not(GroupOfColumns::isAGraphColumn))
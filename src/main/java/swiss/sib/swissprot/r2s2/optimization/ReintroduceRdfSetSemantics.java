@@ -26,6 +26,14 @@ public class ReintroduceRdfSetSemantics {
 		final boolean thereIsAtLeastOnePhysicalColumn = allColumns(table).findAny().isPresent();
 		if (thereIsAtLeastOnePhysicalColumn) {
 			try {
+				if (!table.mayContainDuplicates()) {
+					log.info(table.name() + " was loaded without duplicates, no need to rebuild");
+					return;
+				} else if (!containsDuplicates(conn, table)) {
+					log.info(table.name() + " has no duplicates, no need to rebuild");
+					table.setMayContainDuplicates(false);
+					return;
+				}
 				String tempName = table.name() + "_temp";
 
 				// if more than one graph per subject/object
@@ -48,12 +56,29 @@ public class ReintroduceRdfSetSemantics {
 
 				renameTemporaryTableIntoFinalName(conn, table, tempName);
 				JdbcUtil.commitIfNeeded(conn);
+				table.setMayContainDuplicates(false);
 			} catch (SQLException e) {
 				throw new IllegalStateException(e);
 			}
 		}
 	}
 
+	/**
+	 * Exact verification, an aggregation is much cheaper than sorting and copying
+	 * the whole table.
+	 */
+	static boolean containsDuplicates(Connection conn, Table table) throws SQLException {
+		String columns = allColumns(table).map(Column::name).collect(Collectors.joining(", "));
+		try (Statement st = conn.createStatement()) {
+			final String sql = "SELECT " + columns + " FROM " + table.name() + " GROUP BY " + columns
+					+ " HAVING (COUNT(*) > 1) LIMIT 1";
+			log.info("Running:" + sql);
+			try (ResultSet rs = st.executeQuery(sql)) {
+				return rs.next();
+			}
+		}
+	}
+
 	private static void renameTemporaryTableIntoFinalName(Connection conn, Table table, String tempName)
 			throws SQLException {
 		try (Statement st = conn.createStatement()) {
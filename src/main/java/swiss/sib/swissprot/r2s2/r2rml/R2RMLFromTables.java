@@ -8,6 +8,7 @@ import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Function;
 
 import org.eclipse.rdf4j.model.IRI;
@@ -20,8 +21,10 @@ import org.eclipse.rdf4j.model.vocabulary.R2RML;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 
 import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForDatatype;
 import swiss.sib.swissprot.r2s2.sql.Column;
 import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
 import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.Table;
 import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
@@ -56,14 +59,136 @@ public class R2RMLFromTables {
 		}
 	}
 
+	/**
+	 * A table mapped for only the rows that match the filter.
+	 *
+	 * @param filter SQL condition on the table aliased as t, or null for all rows
+	 */
+	private record Variant(Table table, String filter) {
+		Variant and(Table narrowed, String condition) {
+			return new Variant(narrowed, filter == null ? condition : filter + " AND " + condition);
+		}
+	}
+
 	public static Model generateR2RML(Table t, Resource tripleMap) {
+		List<Variant> variants = List.of(new Variant(t, null));
+		variants = variants.stream().flatMap(v -> perLanguage(v).stream()).toList();
+		variants = variants.stream().flatMap(v -> perShape(v).stream()).toList();
+		Model model = new LinkedHashModel();
+		for (Variant v : variants) {
+			model.addAll(generateR2RML(v.table(), v.filter()));
+		}
+		return model;
+	}
+
+	/**
+	 * R2RML can only take the language of a literal from a constant. So a table
+	 * that keeps the language in a column is mapped once per language, each time
+	 * selecting only the rows in that language.
+	 */
+	private static List<Variant> perLanguage(Variant v) {
+		Table t = v.table();
+		for (PredicateMap p : t.objects()) {
+			Optional<Column> langColumn = physicalLangColumn(p);
+			if (langColumn.isPresent()) {
+				List<Variant> variants = new ArrayList<>();
+				for (String language : p.languages()) {
+					List<PredicateMap> objects = new ArrayList<>();
+					for (PredicateMap other : t.objects()) {
+						PredicateMap copy = other.copy();
+						if (other == p) {
+							List<Column> columns = copy.groupOfColumns().columns();
+							columns.replaceAll(c -> c.name().equals(langColumn.get().name())
+									? new VirtualSingleValueColumn(c.name(), c.sqlDatatype(), language)
+									: c);
+						}
+						objects.add(copy);
+					}
+					variants.add(v.and(new Table(t.name(), t.subject(), t.subjectKind(), objects),
+							"t." + langColumn.get().name() + " = '" + language.replace("'", "''") + "'"));
+				}
+				return variants;
+			}
+		}
+		return List.of(v);
+	}
+
+	/**
+	 * An IRI part in one of a few shapes is mapped once per shape, with the text of
+	 * the shape in the template and only the slots of that shape as columns.
+	 */
+	private static List<Variant> perShape(Variant v) {
+		Table t = v.table();
+		Optional<IriShapeColumn> subjectShape = shapeColumn(t.subject());
+		if (subjectShape.isPresent()) {
+			IriShapeColumn shape = subjectShape.get();
+			List<Variant> variants = new ArrayList<>();
+			for (String s : shape.shapes()) {
+				GroupOfColumns subject = new GroupOfColumns(shape.expand(t.subject().columns(), s));
+				variants.addAll(perShape(v.and(new Table(t.name(), subject, t.subjectKind(), t.objects()),
+						shapeFilter(shape, s))));
+			}
+			return variants;
+		}
+		for (PredicateMap p : t.objects()) {
+			Optional<IriShapeColumn> objectShape = shapeColumn(p.groupOfColumns());
+			if (objectShape.isPresent()) {
+				IriShapeColumn shape = objectShape.get();
+				List<Variant> variants = new ArrayList<>();
+				for (String s : shape.shapes()) {
+					List<PredicateMap> objects = new ArrayList<>();
+					for (PredicateMap other : t.objects()) {
+						objects.add(other == p
+								? new PredicateMap(p.predicate(),
+										new GroupOfColumns(shape.expand(p.groupOfColumns().columns(), s)),
+										p.objectKind(), p.lang(), p.datatype(), p.languages())
+								: other);
+					}
+					variants.addAll(perShape(
+							v.and(new Table(t.name(), t.subject(), t.subjectKind(), objects), shapeFilter(shape, s))));
+				}
+				return variants;
+			}
+		}
+		return List.of(v);
+	}
+
+	private static Optional<IriShapeColumn> shapeColumn(GroupOfColumns group) {
+		return group.columns().stream().filter(IriShapeColumn.class::isInstance).map(IriShapeColumn.class::cast)
+				.findFirst();
+	}
+
+	private static String shapeFilter(IriShapeColumn shape, String s) {
+		return "t." + shape.name() + " = '" + s.replace("'", "''") + "'";
+	}
+
+	private static Optional<Column> physicalLangColumn(PredicateMap p) {
+		if (p.languages().isEmpty()) {
+			return Optional.empty();
+		}
+		return p.groupOfColumns().columns().stream().filter(Column::isPhysical)
+				.filter(c -> c.name().endsWith(GroupOfColumns.LANG)).findFirst();
+	}
+
+	/**
+	 * @param filter SQL condition on the table aliased as t, or null for all rows
+	 */
+	private static Model generateR2RML(Table t, String filter) {
 		Model model = new LinkedHashModel();
 		Resource table = vf.createBNode();// "table_" + name());
 		Resource tablename = vf.createBNode();// "tablename_" + name());
 		Resource subjectMap = vf.createBNode();// "subject_" + name());
 		model.add(vf.createStatement(table, RDF.TYPE, R2RML.TriplesMap));
 		model.add(vf.createStatement(table, R2RML.logicalTable, tablename));
-		model.add(vf.createStatement(tablename, R2RML.tableName, vf.createLiteral(t.name().toLowerCase())));
+		if (needsDecoding(t)) {
+			String query = decodingQuery(t) + (filter == null ? "" : " WHERE " + filter);
+			model.add(vf.createStatement(tablename, R2RML.sqlQuery, vf.createLiteral(query)));
+		} else if (filter != null) {
+			String query = "SELECT * FROM " + t.name().toLowerCase() + " AS t WHERE " + filter;
+			model.add(vf.createStatement(tablename, R2RML.sqlQuery, vf.createLiteral(query)));
+		} else {
+			model.add(vf.createStatement(tablename, R2RML.tableName, vf.createLiteral(t.name().toLowerCase())));
+		}
 		model.add(vf.createStatement(table, R2RML.subjectMap, subjectMap));
 
 		createTemplate(model, vf, subjectMap, t.subjectKind(), "subject", t.subject());
@@ -74,6 +199,54 @@ public class R2RMLFromTables {
 		return model;
 	}
 
+	private static boolean needsDecoding(Table t) {
+		return t.subject().iriIdColumn().isPresent()
+				|| t.objects().stream().anyMatch(p -> p.groupOfColumns().iriIdColumn().isPresent()
+						|| p.groupOfColumns().columns().stream().anyMatch(
+								c -> OptimizeForDatatype.lexicalForm("t." + c.name(), c, p.datatype()).isPresent()));
+	}
+
+	/**
+	 * Joins each IRI id column with the iris table to get the IRI back as a column
+	 * named like the id column without the _id. Literal values in a type without
+	 * a direct lexical form are turned back into their lexical form.
+	 */
+	static String decodingQuery(Table t) {
+		List<String> select = new ArrayList<>();
+		StringBuilder joins = new StringBuilder();
+		int i = 0;
+		for (Column c : t.subject().columns()) {
+			i = decode(c, null, select, joins, i);
+		}
+		for (PredicateMap p : t.objects()) {
+			for (Column c : p.groupOfColumns().columns()) {
+				i = decode(c, p.datatype(), select, joins, i);
+			}
+		}
+		return "SELECT " + String.join(", ", select) + " FROM " + t.name().toLowerCase() + " AS t" + joins;
+	}
+
+	private static int decode(Column c, IRI datatype, List<String> select, StringBuilder joins, int i) {
+		if (c.isPhysical()) {
+			Optional<String> lexicalForm = OptimizeForDatatype.lexicalForm("t." + c.name(), c, datatype);
+			if (lexicalForm.isPresent()) {
+				select.add(lexicalForm.get() + " AS " + c.name());
+			} else {
+				select.add("t." + c.name());
+			}
+			if (GroupOfColumns.isAnIriIdColumn(c)) {
+				String alias = "d" + i++;
+				select.add(alias + ".iri AS " + decodedIriColumn(c));
+				joins.append(" LEFT JOIN iris AS " + alias + " ON " + alias + ".id = t." + c.name());
+			}
+		}
+		return i;
+	}
+
+	private static String decodedIriColumn(Column idColumn) {
+		return idColumn.name().substring(0, idColumn.name().length() - GroupOfColumns.ID.length());
+	}
+
 	private static void createPredicateMap(Model model, SimpleValueFactory vf, Resource table, PredicateMap p,
 			Resource subjectMap) {
 		Resource predicateMap = vf.createBNode();// "predicateMap_" + name());
@@ -118,6 +291,9 @@ public class R2RMLFromTables {
 					addGraphs(model, vf, map, column);
 				}
 			}
+		} else if (k == Kind.IRI && gofc.iriIdColumn().isPresent()) {
+			model.add(map, R2RML.column, vf.createLiteral(decodedIriColumn(gofc.iriIdColumn().get())));
+			gofc.columns().stream().filter(GroupOfColumns::isAGraphColumn).forEach(c -> addGraphs(model, vf, map, c));
 		} else if (k == Kind.IRI) {
 			StringBuilder template = iriToTemplate(model, vf, map, gofc);
 			model.add(map, R2RML.template, vf.createLiteral(template.toString()));
@@ -25,10 +25,13 @@ import org.eclipse.rdf4j.rio.Rio;
 
 import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
 import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.Column.Storage;
 import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
 import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
 import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.Table.RowGroup;
 import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
 
 public class TableDescriptionAsRdf {
@@ -50,6 +53,15 @@ public class TableDescriptionAsRdf {
 		model.add(vf.createStatement(table, RDFS.LABEL, vf.createLiteral(t.name())));
 		model.add(vf.createStatement(table, TableAsRdf.subjectColumns, subjectColumns));
 		model.add(vf.createStatement(table, TableAsRdf.kind, vf.createLiteral(t.subjectKind().label())));
+		model.add(vf.createStatement(table, TableAsRdf.mayContainDuplicates,
+				vf.createLiteral(t.mayContainDuplicates())));
+		for (RowGroup rg : t.rowGroups()) {
+			Resource rowGroup = vf.createBNode();
+			model.add(vf.createStatement(table, TableAsRdf.rowGroup, rowGroup));
+			model.add(vf.createStatement(rowGroup, TableAsRdf.rowGroupIndex, vf.createLiteral(rg.index())));
+			model.add(vf.createStatement(rowGroup, TableAsRdf.minSubject, vf.createLiteral(rg.minSubject())));
+			model.add(vf.createStatement(rowGroup, TableAsRdf.maxSubject, vf.createLiteral(rg.maxSubject())));
+		}
 		for (Column c : t.subject().columns()) {
 			Resource subjectColumn = vf.createBNode();// "tablename_" + name());
 			addColumn(model, vf, subjectColumns, c, subjectColumn);
@@ -64,6 +76,8 @@ public class TableDescriptionAsRdf {
 				model.add(vf.createStatement(objectColumns, TableAsRdf.datatype, p.datatype()));
 			if (p.lang() != null)
 				model.add(vf.createStatement(objectColumns, TableAsRdf.lang, vf.createLiteral(p.lang())));
+			for (String language : p.languages())
+				model.add(vf.createStatement(objectColumns, TableAsRdf.language, vf.createLiteral(language)));
 			for (Column c : p.groupOfColumns().columns()) {
 				Resource objectColumn = vf.createBNode();// "tablename_" + name());
 				addColumn(model, vf, objectColumns, c, objectColumn);
@@ -86,6 +100,19 @@ public class TableDescriptionAsRdf {
 		}
 		model.add(vf.createStatement(subjectColumn, RDFS.LABEL, vf.createLiteral(c.name())));
 		model.add(vf.createStatement(subjectColumn, TableAsRdf.datatype, vf.createLiteral(c.sqlDatatype().label())));
+		if (c.enumType() != null) {
+			model.add(vf.createStatement(subjectColumn, TableAsRdf.enumType, vf.createLiteral(c.enumType())));
+		}
+		if (c instanceof IriShapeColumn shapes) {
+			for (String shape : shapes.shapes()) {
+				model.add(vf.createStatement(subjectColumn, TableAsRdf.shape, vf.createLiteral(shape)));
+			}
+		}
+		if (c.storage() != null) {
+			model.add(vf.createStatement(subjectColumn, TableAsRdf.compression,
+					vf.createLiteral(c.storage().compression())));
+			model.add(vf.createStatement(subjectColumn, TableAsRdf.storageBytes, vf.createLiteral(c.storage().bytes())));
+		}
 	}
 
 	public static void write(List<Table> tables, File descriptionPath) throws IOException {
@@ -114,6 +141,8 @@ public class TableDescriptionAsRdf {
 			Kind subjectKind = findKind(model, tableBnode.getSubject());
 			List<PredicateMap> opm = findPredicateMaps(model, tableBnode);
 			table = new Table(tableName, new GroupOfColumns(subjectColumns), subjectKind, opm);
+			table.setMayContainDuplicates(findMayContainDuplicates(model, tableBnode.getSubject()));
+			table.setRowGroups(findRowGroups(model, tableBnode.getSubject()));
 			tables.add(table);
 		}
 		return tables;
@@ -128,7 +157,13 @@ public class TableDescriptionAsRdf {
 			IRI predicate = readIriFrom(model, TableAsRdf.predicate, cbn);
 			String lang = readStringFrom(model, TableAsRdf.lang, cbn);
 			IRI datatype = readIriFrom(model, TableAsRdf.datatype, cbn);
-			pms.add(new PredicateMap(predicate, new GroupOfColumns(columnList), objectKind, lang, datatype));
+			List<String> languages = new ArrayList<>();
+			for (var language : model.getStatements(cbn, TableAsRdf.language, null)) {
+				languages.add(language.getObject().stringValue());
+			}
+			languages.sort(null);
+			pms.add(new PredicateMap(predicate, new GroupOfColumns(columnList), objectKind, lang, datatype,
+					languages));
 		}
 		return pms;
 	}
@@ -147,6 +182,26 @@ public class TableDescriptionAsRdf {
 		return null;
 	}
 
+	private static boolean findMayContainDuplicates(Model model, Resource tableBnode) {
+		for (var mayContainDuplicates : model.getStatements(tableBnode, TableAsRdf.mayContainDuplicates, null)) {
+			return Boolean.parseBoolean(mayContainDuplicates.getObject().stringValue());
+		}
+		// Older descriptions do not know, so we must assume the worst.
+		return true;
+	}
+
+	private static List<RowGroup> findRowGroups(Model model, Resource tableBnode) {
+		List<RowGroup> rowGroups = new ArrayList<>();
+		for (var rowGroup : model.getStatements(tableBnode, TableAsRdf.rowGroup, null)) {
+			Resource rg = (Resource) rowGroup.getObject();
+			long index = Long.parseLong(readStringFrom(model, TableAsRdf.rowGroupIndex, rg));
+			rowGroups.add(new RowGroup(index, readStringFrom(model, TableAsRdf.minSubject, rg),
+					readStringFrom(model, TableAsRdf.maxSubject, rg)));
+		}
+		rowGroups.sort((a, b) -> Long.compare(a.index(), b.index()));
+		return rowGroups;
+	}
+
 	private static Kind findKind(Model model, Resource tableBnode) {
 		Kind subjectKind = null;
 		for (var subjectColumns : model.getStatements(tableBnode, TableAsRdf.kind, null)) {
@@ -172,6 +227,7 @@ public class TableDescriptionAsRdf {
 			boolean isPhysical = false;
 			String columnName = null;
 			SqlDatatype datatype = null;
+			String enumType = readStringFrom(model, TableAsRdf.enumType, s);
 			for (Statement columnType : model.getStatements(s, RDF.TYPE, null)) {
 				isPhysical = TableAsRdf.physicalColumn.equals(columnType.getObject());
 			}
@@ -183,11 +239,26 @@ public class TableDescriptionAsRdf {
 				datatype = SqlDatatype.fromLabel(columnTypeS.getObject().stringValue());
 			}
 			if (isPhysical) {
-				columns.add(new Column(columnName, datatype));
+				List<String> shapes = new ArrayList<>();
+				for (Statement shape : model.getStatements(s, TableAsRdf.shape, null)) {
+					shapes.add(shape.getObject().stringValue());
+				}
+				shapes.sort(null);
+				Column column = shapes.isEmpty() ? new Column(columnName, datatype)
+						: new IriShapeColumn(columnName, enumType, shapes);
+				column.setEnumType(enumType);
+				String compression = readStringFrom(model, TableAsRdf.compression, s);
+				String bytes = readStringFrom(model, TableAsRdf.storageBytes, s);
+				if (compression != null && bytes != null) {
+					column.setStorage(new Storage(compression, Long.parseLong(bytes)));
+				}
+				columns.add(column);
 			} else {
 				for (Statement columnTypeS : model.getStatements(s, RDF.VALUE, null)) {
 					String singleValue = columnTypeS.getObject().stringValue();
-					columns.add(new VirtualSingleValueColumn(columnName, datatype, singleValue));
+					Column column = new VirtualSingleValueColumn(columnName, datatype, singleValue);
+					column.setEnumType(enumType);
+					columns.add(column);
 				}
 			}
 		}
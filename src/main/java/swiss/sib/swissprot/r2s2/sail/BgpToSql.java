@@ -0,0 +1,833 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import static swiss.sib.swissprot.r2s2.sail.PredicateTable.quote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.RDF4J;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.AggregateOperator;
+import org.eclipse.rdf4j.query.algebra.And;
+import org.eclipse.rdf4j.query.algebra.Bound;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.Count;
+import org.eclipse.rdf4j.query.algebra.Distinct;
+import org.eclipse.rdf4j.query.algebra.Extension;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.GroupElem;
+import org.eclipse.rdf4j.query.algebra.IsBNode;
+import org.eclipse.rdf4j.query.algebra.IsLiteral;
+import org.eclipse.rdf4j.query.algebra.IsURI;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.Lang;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
+import org.eclipse.rdf4j.query.algebra.Max;
+import org.eclipse.rdf4j.query.algebra.Min;
+import org.eclipse.rdf4j.query.algebra.Not;
+import org.eclipse.rdf4j.query.algebra.Or;
+import org.eclipse.rdf4j.query.algebra.Projection;
+import org.eclipse.rdf4j.query.algebra.ProjectionElem;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.SameTerm;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.StatementPattern.Scope;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryValueOperator;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Query;
+
+/**
+ * Turns basic graph patterns, with their FILTERs and OPTIONALs where possible,
+ * into one SQL query. Every triple pattern becomes a UNION ALL over the tables
+ * of its predicate, selecting the text and kind of each of its variables.
+ * Those are joined on the variables they share so that DuckDB can do all the
+ * joins. Virtual columns end up in the SQL as constants, and a constant in the
+ * pattern that can not match one removes that table from the union.
+ */
+final class BgpToSql {
+	private final R2s2Sail sail;
+	private final Dataset dataset;
+	private int aliases = 0;
+
+	BgpToSql(R2s2Sail sail, Dataset dataset) {
+		this.sail = sail;
+		this.dataset = dataset;
+	}
+
+	/**
+	 * SQL giving the text and kind of a variable, either columns or constants.
+	 */
+	record TermSql(String text, String kind) {
+		static TermSql of(Value v) {
+			return new TermSql(quote(PredicateTable.text(v)), quote(PredicateTable.kind(v)));
+		}
+	}
+
+	/**
+	 * @param from      a relation in SQL, column names are unique in the whole
+	 *                  query so it can be wrapped in a sub query
+	 * @param variables the columns of every variable that is not a constant
+	 * @param certain   the variables that are bound in every row
+	 */
+	record Plan(String from, List<String> parameters, List<String> where, Map<String, TermSql> variables,
+			Set<String> certain, boolean composite) {
+
+		String sql() {
+			List<String> select = variables.values().stream().map(t -> t.text() + ", " + t.kind())
+					.collect(Collectors.toList());
+			if (select.isEmpty()) {
+				select.add("1");
+			}
+			return "SELECT " + String.join(", ", select) + " FROM " + from + whereSql();
+		}
+
+		private String whereSql() {
+			return where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where);
+		}
+	}
+
+	/**
+	 * Replaces every part of the query that can be one SQL query by a
+	 * {@link SqlTupleExpr}.
+	 */
+	void rewrite(TupleExpr root) {
+		root.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+			@Override
+			protected void meetNode(QueryModelNode node) {
+				if (node instanceof TupleExpr t && isCandidate(t)
+						&& compile(t, EmptyBindingSet.getInstance()).isPresent()) {
+					node.replaceWith(new SqlTupleExpr(t, BgpToSql.this));
+				} else {
+					super.meetNode(node);
+				}
+			}
+		});
+	}
+
+	private static boolean isCandidate(TupleExpr t) {
+		return t instanceof StatementPattern || t instanceof Join || t instanceof LeftJoin || t instanceof Filter
+				|| t instanceof Group || t instanceof Extension || t instanceof Projection || t instanceof Distinct;
+	}
+
+	/**
+	 * @param bindings values already known, used as constants
+	 * @return the plan, or empty if this part of the query can not be done in SQL
+	 */
+	Optional<Plan> compile(TupleExpr expr, BindingSet bindings) {
+		return compile(expr, bindings, new ArrayList<>());
+	}
+
+	/**
+	 * @param pushed conditions of the FILTERs around this part, taken out by the
+	 *               first pattern that binds their variable to check them on its
+	 *               tables
+	 */
+	private Optional<Plan> compile(TupleExpr expr, BindingSet bindings, List<FilterPushdown.Condition> pushed) {
+		if (expr instanceof StatementPattern sp) {
+			return pattern(sp, bindings, pushed);
+		} else if (expr instanceof Join join) {
+			Optional<Plan> left = compile(join.getLeftArg(), bindings, pushed);
+			Optional<Plan> right = compile(join.getRightArg(), bindings, pushed);
+			if (left.isPresent() && right.isPresent()) {
+				return join(left.get(), right.get(), false, null);
+			}
+		} else if (expr instanceof LeftJoin join) {
+			Optional<Plan> left = compile(join.getLeftArg(), bindings, pushed);
+			Optional<Plan> right = compile(join.getRightArg(), bindings, new ArrayList<>());
+			if (left.isPresent() && right.isPresent()) {
+				String condition = null;
+				if (join.hasCondition()) {
+					Map<String, TermSql> both = new LinkedHashMap<>(left.get().variables());
+					both.putAll(right.get().variables());
+					condition = condition(join.getCondition(), both, bindings);
+					if (condition == null) {
+						return Optional.empty();
+					}
+				}
+				return join(left.get(), right.get(), true, condition);
+			}
+		} else if (expr instanceof Filter filter) {
+			List<ValueExpr> rest = new ArrayList<>();
+			List<FilterPushdown.Condition> own = new ArrayList<>();
+			for (ValueExpr conjunct : conjuncts(filter.getCondition())) {
+				FilterPushdown.of(conjunct, bindings).ifPresentOrElse(own::add, () -> rest.add(conjunct));
+			}
+			pushed.addAll(own);
+			Optional<Plan> arg = compile(filter.getArg(), bindings, pushed);
+			if (arg.isEmpty() || own.stream().anyMatch(c -> pushed.stream().anyMatch(p -> p == c))) {
+				return Optional.empty();
+			}
+			Plan p = arg.get();
+			List<String> where = new ArrayList<>(p.where());
+			for (ValueExpr conjunct : rest) {
+				String condition = condition(conjunct, p.variables(), bindings);
+				if (condition == null) {
+					return Optional.empty();
+				}
+				where.add(condition);
+			}
+			return Optional.of(new Plan(p.from(), p.parameters(), where, p.variables(), p.certain(), p.composite()));
+		} else if (expr instanceof Extension extension && extension.getArg() instanceof Group group
+				&& extension.getElements().stream().allMatch(e -> e.getExpr() instanceof AggregateOperator)) {
+			// The aggregates are bound by the group already
+			return group(group, bindings, pushed);
+		} else if (expr instanceof Group group) {
+			return group(group, bindings, pushed);
+		} else if (expr instanceof Projection projection) {
+			return projection(projection, bindings);
+		} else if (expr instanceof Distinct distinct) {
+			return distinct(distinct, bindings);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Only the projected variables, under their new names.
+	 */
+	private Optional<Plan> projection(Projection projection, BindingSet bindings) {
+		if (bindings.size() > 0) {
+			// A sub select does not see the bindings around it
+			return Optional.empty();
+		}
+		Optional<Plan> arg = compile(projection.getArg(), bindings, new ArrayList<>());
+		if (arg.isEmpty()) {
+			return arg;
+		}
+		Plan p = arg.get();
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		Set<String> certain = new LinkedHashSet<>();
+		for (ProjectionElem elem : projection.getProjectionElemList().getElements()) {
+			TermSql t = p.variables().get(elem.getName());
+			String target = elem.getProjectionAlias().orElse(elem.getName());
+			// Otherwise never bound
+			if (t != null) {
+				variables.put(target, t);
+				if (p.certain().contains(elem.getName())) {
+					certain.add(target);
+				}
+			}
+		}
+		return Optional.of(new Plan(p.from(), p.parameters(), p.where(), variables, certain, p.composite()));
+	}
+
+	private Optional<Plan> distinct(Distinct distinct, BindingSet bindings) {
+		Optional<Plan> arg = compile(distinct.getArg(), bindings, new ArrayList<>());
+		if (arg.isEmpty()) {
+			return arg;
+		}
+		Plan p = arg.get();
+		String alias = "d" + aliases++;
+		List<String> select = new ArrayList<>();
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		Set<String> certain = new LinkedHashSet<>();
+		int i = 0;
+		for (Map.Entry<String, TermSql> en : p.variables().entrySet()) {
+			TermSql t = new TermSql(alias + "v" + i, alias + "k" + i++);
+			variables.put(en.getKey(), t);
+			select.add(en.getValue().text() + " AS " + t.text());
+			select.add(en.getValue().kind() + " AS " + t.kind());
+			if (p.certain().contains(en.getKey())) {
+				certain.add(en.getKey());
+			}
+		}
+		if (select.isEmpty()) {
+			select.add("1 AS " + alias + "x");
+		}
+		String from = "(SELECT DISTINCT " + String.join(", ", select) + " FROM " + p.from() + p.whereSql() + ") AS "
+				+ alias;
+		return Optional.of(new Plan(from, p.parameters(), List.of(), variables, certain, false));
+	}
+
+	/**
+	 * A GROUP BY with its COUNT, MIN and MAX as SQL aggregates, so that only the
+	 * groups leave the database. The conditions of a HAVING on the counts are
+	 * taken from the pushed ones.
+	 */
+	private Optional<Plan> group(Group group, BindingSet bindings, List<FilterPushdown.Condition> pushed) {
+		if (group.getGroupBindingNames().isEmpty() && group.getGroupElements().isEmpty()) {
+			return Optional.empty();
+		}
+		Map<String, List<FilterPushdown.Condition>> having = new LinkedHashMap<>();
+		for (GroupElem elem : group.getGroupElements()) {
+			if (elem.getOperator() instanceof Count) {
+				having.put(elem.getName(), take(pushed, elem.getName()));
+			}
+		}
+		if (group.getArg() instanceof StatementPattern sp) {
+			Optional<Union> tables = union(sp, bindings, new ArrayList<>());
+			if (tables.isPresent() && !tables.get().queries().isEmpty()) {
+				Optional<Plan> counted = countPerTable(group, tables.get(), having);
+				if (counted.isPresent()) {
+					return counted;
+				}
+			}
+		}
+		Optional<Plan> arg = compile(group.getArg(), bindings, new ArrayList<>());
+		if (arg.isEmpty()) {
+			return arg;
+		}
+		Plan p = arg.get();
+		String alias = "g" + aliases++;
+		List<String> select = new ArrayList<>();
+		List<String> keys = new ArrayList<>();
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		Set<String> certain = new LinkedHashSet<>();
+		int i = 0;
+		for (String name : group.getGroupBindingNames()) {
+			TermSql key = p.variables().get(name);
+			if (key == null) {
+				return Optional.empty();
+			}
+			TermSql t = new TermSql(alias + "v" + i, alias + "k" + i++);
+			variables.put(name, t);
+			select.add(key.text() + " AS " + t.text());
+			select.add(key.kind() + " AS " + t.kind());
+			keys.add(key.text());
+			keys.add(key.kind());
+			if (p.certain().contains(name)) {
+				certain.add(name);
+			}
+		}
+		List<String> conditions = new ArrayList<>();
+		i = 0;
+		for (GroupElem elem : group.getGroupElements()) {
+			String aggregate = aggregate(elem.getOperator(), p.variables());
+			String kind = COUNT_KIND;
+			if (aggregate == null) {
+				return Optional.empty();
+			} else if (elem.getOperator() instanceof Count) {
+				certain.add(elem.getName());
+				if (!having(having.get(elem.getName()), aggregate, conditions)) {
+					return Optional.empty();
+				}
+			} else {
+				kind = orderedKind(group.getArg(), ((Var) ((UnaryValueOperator) elem.getOperator()).getArg()).getName(),
+						bindings);
+				if (kind == null) {
+					return Optional.empty();
+				}
+			}
+			TermSql t = new TermSql(alias + "a" + i, alias + "b" + i++);
+			variables.put(elem.getName(), t);
+			select.add(text(elem.getOperator(), aggregate) + " AS " + t.text());
+			select.add(quote(kind) + " AS " + t.kind());
+		}
+		String from = "(SELECT " + String.join(", ", select) + " FROM " + p.from() + p.whereSql()
+				+ (keys.isEmpty() ? "" : " GROUP BY " + String.join(", ", keys))
+				+ (conditions.isEmpty() ? "" : " HAVING " + String.join(" AND ", conditions)) + ") AS " + alias;
+		return Optional.of(new Plan(from, p.parameters(), List.of(), variables, certain, false));
+	}
+
+	private static final String COUNT_KIND = PredicateTable.DATATYPE_KIND + XSD.INTEGER.stringValue();
+	private static final String STRING_KIND = PredicateTable.DATATYPE_KIND + XSD.STRING.stringValue();
+
+	/**
+	 * @return the aggregate in SQL, null if it is not one we can do there
+	 */
+	private static String aggregate(AggregateOperator operator, Map<String, TermSql> variables) {
+		if (operator instanceof Count count && count.getArg() == null) {
+			return count.isDistinct() ? null : "COUNT(*)";
+		}
+		if (!(operator instanceof Count || operator instanceof Min || operator instanceof Max)
+				|| !(((UnaryValueOperator) operator).getArg() instanceof Var var)) {
+			return null;
+		}
+		TermSql t = variables.get(var.getName());
+		if (t == null) {
+			return null;
+		}
+		if (operator instanceof Count) {
+			// Kinds never have a space, so equal terms give equal strings
+			return operator.isDistinct() ? "COUNT(DISTINCT " + t.kind() + " || ' ' || " + t.text() + ")"
+					: "COUNT(" + t.text() + ")";
+		}
+		// The minimum of distinct values is the minimum of all
+		return (operator instanceof Min ? "MIN(" : "MAX(") + t.text() + ")";
+	}
+
+	/**
+	 * @return the text of the aggregate, counts are numbers in SQL
+	 */
+	private static String text(AggregateOperator operator, String aggregate) {
+		return operator instanceof Count ? "CAST(" + aggregate + " AS VARCHAR)" : aggregate;
+	}
+
+	/**
+	 * @return false if a condition can not be done in SQL
+	 */
+	private static boolean having(List<FilterPushdown.Condition> on, String count, List<String> conditions) {
+		for (FilterPushdown.Condition c : on) {
+			FilterPushdown.Sql sql = FilterPushdown.count(c, count);
+			if (sql == null) {
+				return false;
+			}
+			conditions.add(sql.sql());
+		}
+		return true;
+	}
+
+	/**
+	 * MIN and MAX of text are only the SPARQL ones for IRIs and for strings, and
+	 * only if a variable can not have another kind of value. That is known when
+	 * a pattern that always binds the variable does so from columns of one kind.
+	 *
+	 * @return the kind of every value of the variable, null if not known or not
+	 *         ordered like text
+	 */
+	private String orderedKind(TupleExpr expr, String var, BindingSet bindings) {
+		Set<String> kinds = kinds(expr, var, bindings);
+		if (kinds == null || kinds.size() != 1) {
+			return null;
+		}
+		String kind = kinds.iterator().next();
+		return kind.equals(PredicateTable.IRI_KIND) || kind.equals(STRING_KIND) ? kind : null;
+	}
+
+	private Set<String> kinds(TupleExpr expr, String var, BindingSet bindings) {
+		if (expr instanceof Join join) {
+			Set<String> left = kinds(join.getLeftArg(), var, bindings);
+			return left != null ? left : kinds(join.getRightArg(), var, bindings);
+		} else if (expr instanceof LeftJoin join) {
+			return kinds(join.getLeftArg(), var, bindings);
+		} else if (expr instanceof Filter filter) {
+			return kinds(filter.getArg(), var, bindings);
+		}
+		if (!(expr instanceof StatementPattern sp)) {
+			return null;
+		} else if (isFree(sp.getPredicateVar(), var, bindings) || isFree(sp.getContextVar(), var, bindings)) {
+			return Set.of(PredicateTable.IRI_KIND);
+		}
+		boolean subject = isFree(sp.getSubjectVar(), var, bindings);
+		if (!subject && !isFree(sp.getObjectVar(), var, bindings)) {
+			return null;
+		}
+		Value p = constant(sp.getPredicateVar(), bindings);
+		if (p != null && !p.isIRI()) {
+			return null;
+		}
+		Set<String> kinds = new HashSet<>();
+		for (PredicateTable pt : sail.predicateTables((IRI) p, constant(sp.getObjectVar(), bindings))) {
+			String kind = (subject ? pt.subject() : pt.object()).constantKind();
+			if (kind == null) {
+				return null;
+			}
+			kinds.add(kind);
+		}
+		return kinds;
+	}
+
+	private static boolean isFree(Var v, String name, BindingSet bindings) {
+		return v != null && v.getName().equals(name) && constant(v, bindings) == null;
+	}
+
+	/**
+	 * A group on a single pattern with only counts is counted per table, before
+	 * the union, so that a table that is all one group gives one row. Splitting
+	 * the tables by class makes counting per class such a count.
+	 *
+	 * @return empty if the group is not like that
+	 */
+	private Optional<Plan> countPerTable(Group group, Union u, Map<String, List<FilterPushdown.Condition>> having) {
+		List<Integer> keys = new ArrayList<>();
+		for (String name : group.getGroupBindingNames()) {
+			Integer position = u.free().get(name);
+			if (position == null) {
+				return Optional.empty();
+			}
+			keys.add(position);
+		}
+		List<String> counts = new ArrayList<>();
+		for (GroupElem elem : group.getGroupElements()) {
+			if (!(elem.getOperator() instanceof Count count) || count.isDistinct()) {
+				return Optional.empty();
+			} else if (count.getArg() == null) {
+				counts.add("COUNT(*)");
+			} else if (count.getArg() instanceof Var var && u.free().containsKey(var.getName())) {
+				counts.add("COUNT(" + COLUMNS[u.free().get(var.getName())] + ")");
+			} else {
+				return Optional.empty();
+			}
+		}
+		List<String> columns = new ArrayList<>();
+		for (int position : keys) {
+			columns.add(COLUMNS[position]);
+			if (position != 3) {
+				columns.add(kindColumn(position));
+			}
+		}
+		String groupBy = columns.isEmpty() ? "" : " GROUP BY " + String.join(", ", columns);
+		List<String> branch = new ArrayList<>(columns);
+		for (int i = 0; i < counts.size(); i++) {
+			branch.add(counts.get(i) + " AS n" + i);
+		}
+		List<String> branches = new ArrayList<>();
+		for (String query : u.queries()) {
+			branches.add("SELECT " + String.join(", ", branch) + " FROM (" + query + ") AS u" + u.whereSql() + groupBy);
+		}
+		String alias = "g" + aliases++;
+		List<String> select = new ArrayList<>();
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		int i = 0;
+		for (String name : group.getGroupBindingNames()) {
+			int position = keys.get(i);
+			TermSql t = new TermSql(alias + "v" + i, alias + "k" + i++);
+			variables.put(name, t);
+			select.add(COLUMNS[position] + " AS " + t.text());
+			select.add(kindColumn(position) + " AS " + t.kind());
+		}
+		List<String> conditions = new ArrayList<>();
+		for (int j = 0; j < counts.size(); j++) {
+			GroupElem elem = group.getGroupElements().get(j);
+			String sum = "CAST(COALESCE(SUM(n" + j + "), 0) AS BIGINT)";
+			if (!having(having.get(elem.getName()), sum, conditions)) {
+				return Optional.empty();
+			}
+			TermSql t = new TermSql(alias + "a" + j, alias + "b" + j);
+			variables.put(elem.getName(), t);
+			select.add("CAST(" + sum + " AS VARCHAR) AS " + t.text());
+			select.add(quote(COUNT_KIND) + " AS " + t.kind());
+		}
+		String from = "(SELECT " + String.join(", ", select) + " FROM (" + String.join(" UNION ALL ", branches)
+				+ ") AS u" + groupBy + (conditions.isEmpty() ? "" : " HAVING " + String.join(" AND ", conditions))
+				+ ") AS " + alias;
+		return Optional.of(new Plan(from, u.parameters(), List.of(), variables, variables.keySet(), false));
+	}
+
+	private static List<ValueExpr> conjuncts(ValueExpr e) {
+		if (e instanceof And and) {
+			List<ValueExpr> all = new ArrayList<>(conjuncts(and.getLeftArg()));
+			all.addAll(conjuncts(and.getRightArg()));
+			return all;
+		}
+		return List.of(e);
+	}
+
+	/**
+	 * Shared variables must be bound on both sides, otherwise SPARQL joins
+	 * differ from SQL joins.
+	 */
+	private Optional<Plan> join(Plan left, Plan right, boolean optional, String condition) {
+		List<String> on = new ArrayList<>();
+		for (Map.Entry<String, TermSql> en : right.variables().entrySet()) {
+			TermSql l = left.variables().get(en.getKey());
+			if (l != null) {
+				if (!left.certain().contains(en.getKey()) || !right.certain().contains(en.getKey())) {
+					return Optional.empty();
+				}
+				on.add(l.text() + " = " + en.getValue().text());
+				on.add(l.kind() + " = " + en.getValue().kind());
+			}
+		}
+		if (condition != null) {
+			on.add(condition);
+		}
+		List<String> parameters = new ArrayList<>(left.parameters());
+		parameters.addAll(right.parameters());
+		List<String> where = new ArrayList<>(left.where());
+		String rightFrom;
+		if (optional || right.composite()) {
+			rightFrom = "(SELECT * FROM " + right.from() + right.whereSql() + ") AS j" + aliases++;
+		} else {
+			rightFrom = right.from();
+			where.addAll(right.where());
+		}
+		String from = left.from() + (optional ? " LEFT JOIN " : " JOIN ") + rightFrom + " ON "
+				+ (on.isEmpty() ? "TRUE" : String.join(" AND ", on));
+		Map<String, TermSql> variables = new LinkedHashMap<>(left.variables());
+		right.variables().forEach(variables::putIfAbsent);
+		Set<String> certain = new LinkedHashSet<>(left.certain());
+		if (!optional) {
+			certain.addAll(right.certain());
+		}
+		return Optional.of(new Plan(from, parameters, where, variables, certain, true));
+	}
+
+	private Optional<Plan> pattern(StatementPattern sp, BindingSet bindings, List<FilterPushdown.Condition> pushed) {
+		Optional<Union> tables = union(sp, bindings, pushed);
+		if (tables.isEmpty()) {
+			return Optional.empty();
+		}
+		Union u = tables.get();
+		if (u.queries().isEmpty()) {
+			return Optional.of(empty(u.free().keySet()));
+		}
+		String alias = "p" + aliases++;
+		List<String> select = new ArrayList<>();
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> en : u.free().entrySet()) {
+			int i = en.getValue();
+			TermSql t = new TermSql(alias + "v" + i, alias + "k" + i);
+			variables.put(en.getKey(), t);
+			select.add(COLUMNS[i] + " AS " + t.text());
+			select.add(kindColumn(i) + " AS " + t.kind());
+		}
+		if (variables.isEmpty()) {
+			select.add("1 AS " + alias + "x");
+		}
+		String from = "(SELECT " + String.join(", ", select) + " FROM (" + String.join(" UNION ALL ", u.queries())
+				+ ") AS u" + u.whereSql() + ") AS " + alias;
+		return Optional.of(new Plan(from, u.parameters(), List.of(), variables, variables.keySet(), false));
+	}
+
+	/**
+	 * The queries on the tables of a pattern, each with the columns s, sk, p, pk,
+	 * o, ok and g.
+	 *
+	 * @param free  the position of every variable that is not a constant
+	 * @param named only rows in a named graph match
+	 */
+	private record Union(List<String> queries, List<String> parameters, Map<String, Integer> free, boolean named) {
+
+		String whereSql() {
+			return named ? " WHERE g IS NOT NULL" : "";
+		}
+	}
+
+	private static final String[] COLUMNS = { "s", "p", "o", "g" };
+
+	private static String kindColumn(int position) {
+		// Graphs are always IRIs
+		return position == 3 ? quote(PredicateTable.IRI_KIND) : COLUMNS[position] + "k";
+	}
+
+	/**
+	 * @return empty if the pattern can not be done in SQL, no queries if no table
+	 *         can match it
+	 */
+	private Optional<Union> union(StatementPattern sp, BindingSet bindings, List<FilterPushdown.Condition> pushed) {
+		Var[] vars = { sp.getSubjectVar(), sp.getPredicateVar(), sp.getObjectVar(), sp.getContextVar() };
+		Value[] values = new Value[vars.length];
+		Map<String, Integer> free = new LinkedHashMap<>();
+		for (int i = 0; i < vars.length; i++) {
+			if (vars[i] != null) {
+				values[i] = vars[i].hasValue() ? vars[i].getValue() : bindings.getValue(vars[i].getName());
+				if (values[i] == null && free.putIfAbsent(vars[i].getName(), i) != null) {
+					// ?x ?p ?x, rare enough to leave to RDF4J
+					return Optional.empty();
+				}
+			}
+		}
+		Value s = values[0];
+		Value p = values[1];
+		Value o = values[2];
+		List<FilterPushdown.Condition> onSubject = take(pushed, s == null ? sp.getSubjectVar().getName() : null);
+		List<FilterPushdown.Condition> onObject = take(pushed, o == null ? sp.getObjectVar().getName() : null);
+		Resource[] contexts = contexts(sp.getScope(), values[3]);
+		boolean named = !free.isEmpty() && sp.getScope() == Scope.NAMED_CONTEXTS && values[3] == null;
+		List<String> queries = new ArrayList<>();
+		List<String> parameters = new ArrayList<>();
+		if ((s != null && !s.isResource()) || (p != null && !p.isIRI()) || contexts == null) {
+			return Optional.of(new Union(queries, parameters, free, named));
+		}
+		for (PredicateTable pt : sail.predicateTables((IRI) p, o)) {
+			FilterPushdown.Sql filter = FilterPushdown.and(FilterPushdown.sql(onSubject, pt.subject()),
+					FilterPushdown.sql(onObject, pt.object()));
+			if (filter == null) {
+				return Optional.empty();
+			} else if (FilterPushdown.Sql.FALSE.equals(filter)) {
+				continue;
+			}
+			Optional<Query> q = pt.termQuery((Resource) s, o, filter, contexts);
+			if (q.isPresent()) {
+				queries.add(q.get().sql());
+				parameters.addAll(q.get().parameters());
+			}
+		}
+		return Optional.of(new Union(queries, parameters, free, named));
+	}
+
+	/**
+	 * Removes the conditions on the variable from the pushed ones.
+	 *
+	 * @param var null if the pattern does not bind a variable there
+	 */
+	private static List<FilterPushdown.Condition> take(List<FilterPushdown.Condition> pushed, String var) {
+		List<FilterPushdown.Condition> taken = new ArrayList<>();
+		for (Iterator<FilterPushdown.Condition> i = pushed.iterator(); i.hasNext();) {
+			FilterPushdown.Condition c = i.next();
+			if (c.var().equals(var)) {
+				taken.add(c);
+				i.remove();
+			}
+		}
+		return taken;
+	}
+
+	/**
+	 * @return the graphs to look in, none for all, or null if none can match
+	 */
+	private Resource[] contexts(Scope scope, Value context) {
+		Set<IRI> graphs = dataset == null ? Set.of()
+				: scope == Scope.DEFAULT_CONTEXTS ? dataset.getDefaultGraphs() : dataset.getNamedGraphs();
+		if (context != null) {
+			if (!context.isIRI() || (!graphs.isEmpty() && !graphs.contains(context))) {
+				return null;
+			}
+			return new Resource[] { (Resource) context };
+		}
+		return graphs.stream().map(g -> RDF4J.NIL.equals(g) ? null : g).toArray(Resource[]::new);
+	}
+
+	/**
+	 * A pattern that matches nothing, but still has its variables for the joins
+	 * around it.
+	 */
+	private Plan empty(Set<String> free) {
+		String alias = "p" + aliases++;
+		Map<String, TermSql> variables = new LinkedHashMap<>();
+		List<String> select = new ArrayList<>();
+		int i = 0;
+		for (String name : free) {
+			TermSql t = new TermSql(alias + "v" + i, alias + "k" + i++);
+			variables.put(name, t);
+			select.add("CAST(NULL AS VARCHAR) AS " + t.text());
+			select.add("CAST(NULL AS VARCHAR) AS " + t.kind());
+		}
+		if (select.isEmpty()) {
+			select.add("1 AS " + alias + "x");
+		}
+		String from = "(SELECT " + String.join(", ", select) + " FROM (SELECT 1) AS e WHERE 1 = 0) AS " + alias;
+		return new Plan(from, List.of(), List.of(), variables, variables.keySet(), false);
+	}
+
+	/**
+	 * A FILTER or OPTIONAL condition as SQL. A NULL in SQL logic behaves like an
+	 * error in SPARQL logic, so an unbound variable gives the same result.
+	 *
+	 * @return null if the condition can not be done in SQL
+	 */
+	private static String condition(ValueExpr e, Map<String, TermSql> variables, BindingSet bindings) {
+		if (e instanceof And and) {
+			return binary(condition(and.getLeftArg(), variables, bindings),
+					condition(and.getRightArg(), variables, bindings), " AND ");
+		} else if (e instanceof Or or) {
+			return binary(condition(or.getLeftArg(), variables, bindings),
+					condition(or.getRightArg(), variables, bindings), " OR ");
+		} else if (e instanceof Not not) {
+			String arg = condition(not.getArg(), variables, bindings);
+			return arg == null ? null : "(NOT " + arg + ")";
+		} else if (e instanceof Bound bound) {
+			TermSql t = term(bound.getArg(), variables, bindings);
+			return t == null ? "FALSE" : "(" + t.text() + " IS NOT NULL)";
+		} else if (e instanceof IsURI is) {
+			return kindIn(term(is.getArg(), variables, bindings), "IN", PredicateTable.IRI_KIND);
+		} else if (e instanceof IsLiteral is) {
+			return kindIn(term(is.getArg(), variables, bindings), "NOT IN", PredicateTable.IRI_KIND,
+					PredicateTable.BNODE_KIND);
+		} else if (e instanceof IsBNode is) {
+			return kindIn(term(is.getArg(), variables, bindings), "IN", PredicateTable.BNODE_KIND);
+		} else if (e instanceof SameTerm same) {
+			TermSql l = term(same.getLeftArg(), variables, bindings);
+			TermSql r = term(same.getRightArg(), variables, bindings);
+			return l == null || r == null ? null
+					: "(" + l.text() + " = " + r.text() + " AND " + l.kind() + " = " + r.kind() + ")";
+		} else if (e instanceof Compare compare) {
+			return compare(compare, variables, bindings);
+		}
+		return null;
+	}
+
+	private static String kindIn(TermSql t, String op, String... kinds) {
+		if (t == null) {
+			return null;
+		}
+		return "(" + t.kind() + " " + op + " ("
+				+ Arrays.stream(kinds).map(PredicateTable::quote).collect(Collectors.joining(", ")) + "))";
+	}
+
+	/**
+	 * Only the comparisons that do not depend on the value of a literal: equal or
+	 * not equal to an IRI, and the language of a literal.
+	 */
+	private static String compare(Compare compare, Map<String, TermSql> variables, BindingSet bindings) {
+		CompareOp op = compare.getOperator();
+		if (op != CompareOp.EQ && op != CompareOp.NE) {
+			return null;
+		}
+		ValueExpr left = compare.getLeftArg();
+		ValueExpr right = compare.getRightArg();
+		if (constant(left, bindings) != null && constant(right, bindings) == null) {
+			ValueExpr swap = left;
+			left = right;
+			right = swap;
+		}
+		Value value = constant(right, bindings);
+		if (value == null) {
+			return null;
+		}
+		String equal;
+		if (left instanceof Lang lang && value.isLiteral() && ((Literal) value).getLanguage().isEmpty()) {
+			TermSql t = term(lang.getArg(), variables, bindings);
+			if (t == null) {
+				return null;
+			}
+			String tag = ((Literal) value).getLabel();
+			// The language of a typed literal is the empty string, of an IRI an error
+			equal = "(CASE WHEN " + kindIn(t, "IN", PredicateTable.IRI_KIND, PredicateTable.BNODE_KIND)
+					+ " THEN NULL WHEN " + t.kind() + " LIKE " + quote(PredicateTable.LANG_KIND + "%") + " THEN "
+					+ t.kind() + " = " + quote(PredicateTable.LANG_KIND + tag) + " ELSE " + quote(tag) + " = '' END)";
+		} else if (value.isIRI()) {
+			TermSql t = term(left, variables, bindings);
+			if (t == null) {
+				return null;
+			}
+			TermSql c = TermSql.of(value);
+			equal = "(" + t.kind() + " = " + c.kind() + " AND " + t.text() + " = " + c.text() + ")";
+		} else {
+			return null;
+		}
+		return op == CompareOp.EQ ? equal : "(NOT " + equal + ")";
+	}
+
+	private static Value constant(ValueExpr e, BindingSet bindings) {
+		if (e instanceof ValueConstant c) {
+			return c.getValue();
+		} else if (e instanceof Var v) {
+			return v.hasValue() ? v.getValue() : bindings.getValue(v.getName());
+		}
+		return null;
+	}
+
+	/**
+	 * @return null if the expression is not a variable of this plan or a constant
+	 */
+	private static TermSql term(ValueExpr e, Map<String, TermSql> variables, BindingSet bindings) {
+		Value c = constant(e, bindings);
+		if (c != null) {
+			return TermSql.of(c);
+		} else if (e instanceof Var v) {
+			return variables.get(v.getName());
+		}
+		return null;
+	}
+
+	private static String binary(String left, String right, String op) {
+		if (left == null || right == null) {
+			return null;
+		}
+		return "(" + left + op + right + ")";
+	}
+}
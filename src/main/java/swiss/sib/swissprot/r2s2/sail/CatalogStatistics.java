@@ -0,0 +1,296 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.loading.steps.CollectStatistics;
+
+/**
+ * Cardinality estimates for the join ordering of RDF4J, from the statistics
+ * catalog written by {@link CollectStatistics}. Databases loaded without a
+ * catalog fall back to the row counts of the {@link RoutingIndex}.
+ */
+final class CatalogStatistics extends EvaluationStatistics {
+	private static final Logger logger = LoggerFactory.getLogger(CatalogStatistics.class);
+	/**
+	 * Fraction of the triples a comparison keeps when there is no histogram.
+	 */
+	private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+	private record Key(String table, String predicate, String objectColumn) {
+	}
+
+	private record PredicateStatistics(long triples, long distinctSubjects, long distinctObjects) {
+	}
+
+	private record Bucket(double low, double high, long count) {
+	}
+
+	private final RoutingIndex routing;
+	private final Map<Key, PredicateStatistics> predicates;
+	/**
+	 * Per table and column name.
+	 */
+	private final Map<List<String>, List<Bucket>> histograms;
+	/**
+	 * Rows with both predicates, per pair of predicates in the order of their
+	 * IRIs and summed over all tables.
+	 */
+	private final Map<List<String>, Long> cooccurrences;
+
+	private CatalogStatistics(RoutingIndex routing, Map<Key, PredicateStatistics> predicates,
+			Map<List<String>, List<Bucket>> histograms, Map<List<String>, Long> cooccurrences) {
+		this.routing = routing;
+		this.predicates = Map.copyOf(predicates);
+		this.histograms = Map.copyOf(histograms);
+		this.cooccurrences = Map.copyOf(cooccurrences);
+	}
+
+	static CatalogStatistics read(Connection conn, RoutingIndex routing) throws SQLException {
+		Map<Key, PredicateStatistics> predicates = new HashMap<>();
+		Map<List<String>, List<Bucket>> histograms = new HashMap<>();
+		Map<List<String>, Long> cooccurrences = new HashMap<>();
+		try (Statement stat = conn.createStatement()) {
+			try (ResultSet rs = stat.executeQuery(
+					"SELECT COUNT(*) FROM information_schema.tables WHERE LOWER(table_name) = '"
+							+ CollectStatistics.STATISTICS + "'")) {
+				rs.next();
+				if (rs.getLong(1) == 0) {
+					logger.info("No statistics catalog, estimating from row counts");
+					return new CatalogStatistics(routing, predicates, histograms, cooccurrences);
+				}
+			}
+			try (ResultSet rs = query(stat, "SELECT table_name, predicate, object_column, triples, distinct_subjects,"
+					+ " distinct_objects FROM " + CollectStatistics.STATISTICS)) {
+				while (rs.next()) {
+					predicates.put(new Key(rs.getString(1), rs.getString(2), rs.getString(3)),
+							new PredicateStatistics(rs.getLong(4), rs.getLong(5), rs.getLong(6)));
+				}
+			}
+			try (ResultSet rs = query(stat, "SELECT table_name, column_name, low, high, row_count FROM "
+					+ CollectStatistics.HISTOGRAMS + " ORDER BY bucket")) {
+				while (rs.next()) {
+					histograms.computeIfAbsent(List.of(rs.getString(1), rs.getString(2)), k -> new ArrayList<>())
+							.add(new Bucket(rs.getDouble(3), rs.getDouble(4), rs.getLong(5)));
+				}
+			}
+			try (ResultSet rs = query(stat,
+					"SELECT predicate_a, predicate_b, row_count FROM " + CollectStatistics.COOCCURRENCES)) {
+				while (rs.next()) {
+					cooccurrences.merge(pair(rs.getString(1), rs.getString(2)), rs.getLong(3), Long::sum);
+				}
+			}
+		}
+		histograms.replaceAll((k, v) -> List.copyOf(v));
+		return new CatalogStatistics(routing, predicates, histograms, cooccurrences);
+	}
+
+	private static ResultSet query(Statement stat, String sql) throws SQLException {
+		logger.debug("Running: " + sql);
+		return stat.executeQuery(sql);
+	}
+
+	private static List<String> pair(String a, String b) {
+		return a.compareTo(b) <= 0 ? List.of(a, b) : List.of(b, a);
+	}
+
+	private PredicateStatistics of(PredicateTable pt) {
+		PredicateStatistics st = predicates.get(new Key(pt.table().name(), pt.predicate().stringValue(),
+				CollectStatistics.objectColumn(pt.map())));
+		if (st == null) {
+			long rows = routing.rowCount(pt.table());
+			return new PredicateStatistics(rows, rows, rows);
+		}
+		return st;
+	}
+
+	/**
+	 * @return the tables of the pattern, empty if no table can match
+	 */
+	private List<PredicateTable> tables(StatementPattern sp) {
+		Value p = sp.getPredicateVar().getValue();
+		if (p != null && !p.isIRI()) {
+			return List.of();
+		}
+		return routing.tables((IRI) p, sp.getObjectVar().getValue());
+	}
+
+	@Override
+	protected CardinalityCalculator createCardinalityCalculator() {
+		return new Calculator();
+	}
+
+	private class Calculator extends CardinalityCalculator {
+
+		@Override
+		protected double getCardinality(StatementPattern sp) {
+			boolean subjectBound = sp.getSubjectVar().hasValue();
+			boolean objectBound = sp.getObjectVar().hasValue();
+			double cardinality = 0;
+			for (PredicateTable pt : tables(sp)) {
+				PredicateStatistics st = of(pt);
+				double estimate = st.triples();
+				if (subjectBound) {
+					estimate /= Math.max(1, st.distinctSubjects());
+				}
+				if (objectBound) {
+					estimate /= Math.max(1, st.distinctObjects());
+				}
+				cardinality += estimate;
+			}
+			return cardinality;
+		}
+
+		/**
+		 * A numeric comparison on the object of a pattern is estimated with the
+		 * histograms of its columns.
+		 */
+		@Override
+		public void meet(Filter node) {
+			if (node.getArg() instanceof StatementPattern sp && node.getCondition() instanceof Compare compare
+					&& !sp.getObjectVar().hasValue()) {
+				Optional<Double> estimate = range(sp, compare);
+				if (estimate.isPresent()) {
+					cardinality = estimate.get();
+					return;
+				}
+			}
+			super.meet(node);
+		}
+
+		/**
+		 * Two patterns on the same subject are estimated from how often their
+		 * predicates are on the same row, the characteristic sets.
+		 */
+		@Override
+		public void meet(Join node) {
+			if (node.getLeftArg() instanceof StatementPattern a && node.getRightArg() instanceof StatementPattern b
+					&& !a.getSubjectVar().hasValue() && a.getSubjectVar().getName().equals(b.getSubjectVar().getName())
+					&& a.getPredicateVar().hasValue() && b.getPredicateVar().hasValue() && !a.getObjectVar().hasValue()
+					&& !b.getObjectVar().hasValue()) {
+				Long both = cooccurrences.get(pair(a.getPredicateVar().getValue().stringValue(),
+						b.getPredicateVar().getValue().stringValue()));
+				if (both != null) {
+					cardinality = both * perSubject(a) * perSubject(b);
+					return;
+				}
+			}
+			super.meet(node);
+		}
+
+		private double perSubject(StatementPattern sp) {
+			long triples = 0;
+			long subjects = 0;
+			for (PredicateTable pt : tables(sp)) {
+				PredicateStatistics st = of(pt);
+				triples += st.triples();
+				subjects += st.distinctSubjects();
+			}
+			return subjects == 0 ? 0 : (double) triples / subjects;
+		}
+	}
+
+	private Optional<Double> range(StatementPattern sp, Compare compare) {
+		String object = sp.getObjectVar().getName();
+		CompareOp op;
+		Optional<Literal> value;
+		if (isVar(compare.getLeftArg(), object)) {
+			op = compare.getOperator();
+			value = literal(compare.getRightArg());
+		} else if (isVar(compare.getRightArg(), object)) {
+			op = FilterPushdown.flip(compare.getOperator());
+			value = literal(compare.getLeftArg());
+		} else {
+			return Optional.empty();
+		}
+		if (value.isEmpty()) {
+			return Optional.empty();
+		}
+		double v;
+		try {
+			v = value.get().doubleValue();
+		} catch (NumberFormatException e) {
+			return Optional.empty();
+		}
+		double cardinality = 0;
+		for (PredicateTable pt : tables(sp)) {
+			PredicateStatistics st = of(pt);
+			List<Bucket> buckets = CollectStatistics.numericColumn(pt.map())
+					.map(c -> histograms.get(List.of(pt.table().name(), c.name()))).orElse(null);
+			if (buckets == null) {
+				cardinality += st.triples() * DEFAULT_RANGE_SELECTIVITY;
+				continue;
+			}
+			double below = below(buckets, v);
+			double all = buckets.stream().mapToLong(Bucket::count).sum();
+			switch (op) {
+			case LT:
+			case LE:
+				cardinality += below;
+				break;
+			case GT:
+			case GE:
+				cardinality += all - below;
+				break;
+			case EQ:
+				cardinality += all / Math.max(1, st.distinctObjects());
+				break;
+			default:
+				cardinality += all;
+			}
+		}
+		return Optional.of(cardinality);
+	}
+
+	/**
+	 * @return the estimated number of values below v, assuming values are spread
+	 *         evenly within a bucket
+	 */
+	private static double below(List<Bucket> buckets, double v) {
+		double below = 0;
+		for (Bucket b : buckets) {
+			if (b.high() < v) {
+				below += b.count();
+			} else if (b.low() < v) {
+				below += b.count() * (v - b.low()) / (b.high() - b.low());
+			}
+		}
+		return below;
+	}
+
+	private static boolean isVar(ValueExpr expr, String name) {
+		return expr instanceof Var var && !var.hasValue() && var.getName().equals(name);
+	}
+
+	private static Optional<Literal> literal(ValueExpr expr) {
+		Value v = null;
+		if (expr instanceof ValueConstant c) {
+			v = c.getValue();
+		} else if (expr instanceof Var var) {
+			v = var.getValue();
+		}
+		return v != null && v.isLiteral() ? Optional.of((Literal) v) : Optional.empty();
+	}
+}
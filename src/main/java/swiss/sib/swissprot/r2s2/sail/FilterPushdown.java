@@ -0,0 +1,438 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.FN;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Str;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.util.QueryEvaluationUtil;
+
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.loading.steps.CollectStatistics;
+import swiss.sib.swissprot.r2s2.loading.steps.IntroduceIriDictionary;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Part;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Term;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+/**
+ * FILTERs on one variable that are checked on the columns of each table
+ * instead of on the terms built from them: a literal compared with a number or
+ * a date, and STRSTARTS on the text of an IRI or literal. They become a
+ * predicate on the typed column or on the parts of a decomposed IRI, which
+ * DuckDB can check against the min and max of a row group. Where a virtual
+ * column already decides the outcome there is no predicate, or no table.
+ */
+final class FilterPushdown {
+	private static final SimpleValueFactory VF = SimpleValueFactory.getInstance();
+	private static final Set<CompareOp> PUSHED = EnumSet.of(CompareOp.LT, CompareOp.LE, CompareOp.EQ, CompareOp.GT,
+			CompareOp.GE);
+	/**
+	 * NaN sorts above every number in DuckDB, but compares false in SPARQL.
+	 */
+	private static final Set<SqlDatatype> FLOATING = EnumSet.of(SqlDatatype.FLOAT, SqlDatatype.DOUBLE);
+	private static final Set<SqlDatatype> INTEGERS = EnumSet.of(SqlDatatype.TINYINT, SqlDatatype.UTINYINT,
+			SqlDatatype.SMALLINT, SqlDatatype.USMALLINT, SqlDatatype.INTEGER, SqlDatatype.UINTEGER, SqlDatatype.BIGINT,
+			SqlDatatype.UBIGINT, SqlDatatype.HUGEINT);
+	private static final Pattern CANONICAL_INTEGER = Pattern.compile("0|-?[1-9][0-9]*");
+	/**
+	 * More alternatives for where a prefix ends in an IRI template than this and
+	 * the filter is left to RDF4J.
+	 */
+	private static final int MAX_ALTERNATIVES = 16;
+
+	private FilterPushdown() {
+
+	}
+
+	/**
+	 * @param op    the comparison of the variable with the value, or null for
+	 *              STRSTARTS with the label of the value
+	 * @param value a number or date, or an xsd:string prefix
+	 */
+	record Condition(String var, CompareOp op, Literal value) {
+	}
+
+	/**
+	 * SQL on the table aliased as t, with parameters for the ? in it.
+	 */
+	record Sql(String sql, List<String> parameters) {
+		static final Sql TRUE = new Sql("TRUE", List.of());
+		static final Sql FALSE = new Sql("FALSE", List.of());
+	}
+
+	/**
+	 * @param e        a conjunct of a FILTER
+	 * @param bindings values already known, those variables are constants
+	 * @return the condition on a variable, empty if it is not one we push down
+	 */
+	static Optional<Condition> of(ValueExpr e, BindingSet bindings) {
+		if (e instanceof Compare compare && PUSHED.contains(compare.getOperator())) {
+			String var = variable(compare.getLeftArg(), bindings);
+			Value value = constant(compare.getRightArg(), bindings);
+			CompareOp op = compare.getOperator();
+			if (var == null) {
+				var = variable(compare.getRightArg(), bindings);
+				value = constant(compare.getLeftArg(), bindings);
+				op = flip(op);
+			}
+			if (var != null && value instanceof Literal l
+					&& (XMLDatatypeUtil.isNumericDatatype(l.getDatatype()) || XSD.DATE.equals(l.getDatatype()))
+					&& XMLDatatypeUtil.isValidValue(l.getLabel(), l.getDatatype())) {
+				return Optional.of(new Condition(var, op, l));
+			}
+		} else if (e instanceof FunctionCall call && FN.STARTS_WITH.stringValue().equals(call.getURI())
+				&& call.getArgs().size() == 2 && call.getArgs().get(0) instanceof Str str) {
+			String var = variable(str.getArg(), bindings);
+			Value prefix = constant(call.getArgs().get(1), bindings);
+			if (var != null && prefix instanceof Literal l && XSD.STRING.equals(l.getDatatype())) {
+				return Optional.of(new Condition(var, null, l));
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the SQL that is true for exactly the rows where all conditions are
+	 *         true for the term, or null if that can not be decided in SQL
+	 */
+	static Sql sql(List<Condition> conditions, Term term) {
+		Sql all = Sql.TRUE;
+		for (Condition c : conditions) {
+			all = and(all, sql(c, term));
+		}
+		return all;
+	}
+
+	private static Sql sql(Condition c, Term term) {
+		if (term.parts().stream().anyMatch(p -> p.isConstant() && p.constant() == null)) {
+			return Sql.FALSE;
+		}
+		if (c.op() == null) {
+			return prefix(term, c.value().getLabel());
+		}
+		return compare(term, c.op(), c.value());
+	}
+
+	private static Sql compare(Term term, CompareOp op, Literal value) {
+		if (term.kind() != Kind.LITERAL || term.langString()) {
+			// Comparing an IRI, blank node or language string with a number is an error
+			return Sql.FALSE;
+		}
+		Part label = term.parts().get(0);
+		Part dt = term.parts().get(1);
+		if (!dt.isConstant()) {
+			return null;
+		}
+		IRI datatype = VF.createIRI(dt.constant());
+		if (label.isConstant()) {
+			try {
+				return QueryEvaluationUtil.compareLiterals(VF.createLiteral(label.constant(), datatype), value, op)
+						? Sql.TRUE
+						: Sql.FALSE;
+			} catch (ValueExprEvaluationException e) {
+				return Sql.FALSE;
+			}
+		}
+		String typeClass = typeClass(datatype);
+		if (typeClass == null) {
+			return null;
+		} else if (!typeClass.equals(typeClass(value.getDatatype()))) {
+			return Sql.FALSE;
+		}
+		Column c = label.column();
+		if (c == null || !c.isPhysical()) {
+			return null;
+		}
+		String column = "t." + c.name();
+		if (XSD.DATE.equals(datatype) && XSD.DATE.equals(value.getDatatype()) && c.sqlDatatype() == SqlDatatype.DATE) {
+			try {
+				LocalDate date = LocalDate.parse(value.getLabel());
+				return new Sql(column + " " + symbol(op) + " CAST('" + date + "' AS DATE)", List.of());
+			} catch (DateTimeParseException e) {
+				// A date with a time zone
+				return null;
+			}
+		} else if (XMLDatatypeUtil.isNumericDatatype(datatype) && CollectStatistics.NUMERIC.contains(c.sqlDatatype())
+				&& !FLOATING.contains(c.sqlDatatype())) {
+			try {
+				BigDecimal number = new BigDecimal(value.getLabel().trim());
+				return new Sql(column + " " + symbol(op) + " " + number.toPlainString(), List.of());
+			} catch (NumberFormatException e) {
+				// INF or NaN
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Values of different classes can not be ordered.
+	 *
+	 * @return null for a datatype we do not know how RDF4J compares
+	 */
+	private static String typeClass(IRI datatype) {
+		if (XMLDatatypeUtil.isNumericDatatype(datatype)) {
+			return "numeric";
+		} else if (XSD.DATE.equals(datatype)) {
+			return "date";
+		} else if (XSD.STRING.equals(datatype) || RDF.LANGSTRING.equals(datatype)) {
+			return "string";
+		} else if (XSD.BOOLEAN.equals(datatype)) {
+			return "boolean";
+		}
+		return null;
+	}
+
+	private static Sql prefix(Term term, String prefix) {
+		Part part = term.parts().get(0);
+		switch (term.kind()) {
+		case BNODE:
+			// STR of a blank node is an error
+			return Sql.FALSE;
+		case IRI:
+			if (part.isConstant()) {
+				return part.constant().startsWith(prefix) ? Sql.TRUE : Sql.FALSE;
+			} else if (part.template() != null) {
+				return template(part.template(), prefix, 0);
+			} else if (part.column() != null && GroupOfColumns.isAnIriIdColumn(part.column())) {
+				return new Sql("t." + part.column().name() + " IN (SELECT i.id FROM " + IntroduceIriDictionary.IRIS
+						+ " AS i WHERE i.iri LIKE ? ESCAPE '\\')", List.of(like(prefix)));
+			}
+			return new Sql(part.select() + " LIKE ? ESCAPE '\\'", List.of(like(prefix)));
+		default:
+			if (part.isConstant()) {
+				return part.constant().startsWith(prefix) ? Sql.TRUE : Sql.FALSE;
+			}
+			return new Sql(part.select() + " LIKE ? ESCAPE '\\'", List.of(like(prefix)));
+		}
+	}
+
+	/**
+	 * Matches the prefix against the template from one of its constants on. The
+	 * prefix ends either within a column, or the column is exactly a start of
+	 * the prefix and the rest is matched from the next constant. Which
+	 * characters a part of an IRI can have limits where that can be.
+	 *
+	 * @return null if there are too many places where the prefix may end
+	 */
+	private static Sql template(LazyIri.Template t, String prefix, int index) {
+		String constant = t.constants().get(index);
+		if (prefix.length() <= constant.length()) {
+			return constant.startsWith(prefix) ? Sql.TRUE : Sql.FALSE;
+		} else if (!prefix.startsWith(constant) || index == t.parts().size()) {
+			return Sql.FALSE;
+		}
+		String rest = prefix.substring(constant.length());
+		Column c = t.parts().get(index);
+		boolean afterAuthority = index > 0 && constant.isEmpty() && isAuthority(t.parts().get(index - 1));
+		List<Sql> alternatives = new ArrayList<>();
+		if (canStart(c, rest, afterAuthority)) {
+			alternatives.add(startsWith(c, rest));
+		}
+		for (int end = 0; end < rest.length() && canStart(c, rest.substring(0, end), afterAuthority); end++) {
+			String value = rest.substring(0, end);
+			if (end == 0 && INTEGERS.contains(c.sqlDatatype())) {
+				continue;
+			}
+			Sql after = template(t, rest.substring(end), index + 1);
+			if (after == null) {
+				return null;
+			}
+			Sql both = and(equal(c, value), after);
+			if (!Sql.FALSE.equals(both)) {
+				alternatives.add(both);
+			}
+			if (alternatives.size() > MAX_ALTERNATIVES) {
+				return null;
+			}
+		}
+		return or(alternatives);
+	}
+
+	private static boolean isAuthority(Column c) {
+		return c.name().endsWith(GroupOfColumns.HOST) || c.name().endsWith(GroupOfColumns.PORT);
+	}
+
+	/**
+	 * @return false if no value of the column can start with the text
+	 */
+	private static boolean canStart(Column c, String text, boolean afterAuthority) {
+		String name = c.name();
+		String forbidden = "";
+		if (INTEGERS.contains(c.sqlDatatype()) || name.endsWith(GroupOfColumns.PORT)) {
+			return text.chars().allMatch(ch -> Character.isDigit(ch) || ch == '-');
+		} else if (name.endsWith(GroupOfColumns.SCHEME)) {
+			forbidden = ":/?#";
+		} else if (name.endsWith(GroupOfColumns.HOST)) {
+			forbidden = ":/?#@";
+		} else if (name.endsWith(GroupOfColumns.USER_INFO)) {
+			forbidden = "@/?#";
+		} else if (name.endsWith(GroupOfColumns.PATH)) {
+			// With an authority the path is empty or starts with a /
+			if (afterAuthority && !text.isEmpty() && text.charAt(0) != '/') {
+				return false;
+			}
+			forbidden = "?#";
+		} else if (name.endsWith(GroupOfColumns.QUERY)) {
+			forbidden = "#";
+		}
+		for (int i = 0; i < forbidden.length(); i++) {
+			if (text.indexOf(forbidden.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static Sql equal(Column c, String value) {
+		if (c instanceof VirtualSingleValueColumn v) {
+			return value.equals(v.value()) ? Sql.TRUE : Sql.FALSE;
+		} else if (INTEGERS.contains(c.sqlDatatype())) {
+			// Only canonical numbers are stored in integer columns
+			return CANONICAL_INTEGER.matcher(value).matches() ? new Sql("t." + c.name() + " = " + value, List.of())
+					: Sql.FALSE;
+		}
+		return new Sql(text(c) + " = ?", List.of(value));
+	}
+
+	private static Sql startsWith(Column c, String prefix) {
+		if (c instanceof VirtualSingleValueColumn v) {
+			return v.value() != null && v.value().startsWith(prefix) ? Sql.TRUE : Sql.FALSE;
+		}
+		return new Sql(text(c) + " LIKE ? ESCAPE '\\'", List.of(like(prefix)));
+	}
+
+	/**
+	 * Text columns are compared as they are, so that their statistics are used.
+	 */
+	private static String text(Column c) {
+		return c.sqlDatatype() == SqlDatatype.TEXT ? "t." + c.name() : "CAST(t." + c.name() + " AS VARCHAR)";
+	}
+
+	private static String like(String prefix) {
+		return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+	}
+
+	/**
+	 * A condition of a HAVING on the number of solutions in a group.
+	 *
+	 * @param count SQL giving the number as an integer
+	 * @return null if the condition can not be done in SQL
+	 */
+	static Sql count(Condition c, String count) {
+		if (c.op() == null) {
+			return null;
+		} else if (!XMLDatatypeUtil.isNumericDatatype(c.value().getDatatype())) {
+			// Comparing a number to a date is an error
+			return Sql.FALSE;
+		}
+		try {
+			BigDecimal number = new BigDecimal(c.value().getLabel().trim());
+			return new Sql(count + " " + symbol(c.op()) + " " + number.toPlainString(), List.of());
+		} catch (NumberFormatException e) {
+			// INF or NaN
+			return null;
+		}
+	}
+
+	/**
+	 * @return null if either is null and the other is not FALSE
+	 */
+	static Sql and(Sql a, Sql b) {
+		if (Sql.FALSE.equals(a) || Sql.FALSE.equals(b)) {
+			return Sql.FALSE;
+		} else if (a == null || b == null) {
+			return null;
+		} else if (Sql.TRUE.equals(a)) {
+			return b;
+		} else if (Sql.TRUE.equals(b)) {
+			return a;
+		}
+		List<String> parameters = new ArrayList<>(a.parameters());
+		parameters.addAll(b.parameters());
+		return new Sql("(" + a.sql() + " AND " + b.sql() + ")", parameters);
+	}
+
+	/**
+	 * @return null if any is null and none is TRUE
+	 */
+	static Sql or(List<Sql> alternatives) {
+		if (alternatives.contains(Sql.TRUE)) {
+			return Sql.TRUE;
+		} else if (alternatives.contains(null)) {
+			return null;
+		}
+		List<Sql> possible = alternatives.stream().filter(s -> !Sql.FALSE.equals(s)).toList();
+		if (possible.isEmpty()) {
+			return Sql.FALSE;
+		} else if (possible.size() == 1) {
+			return possible.get(0);
+		}
+		return new Sql(possible.stream().map(Sql::sql).collect(Collectors.joining(" OR ", "(", ")")),
+				possible.stream().flatMap(s -> s.parameters().stream()).toList());
+	}
+
+	private static String symbol(CompareOp op) {
+		return op.getSymbol();
+	}
+
+	/**
+	 * @return the same comparison with the operands swapped
+	 */
+	static CompareOp flip(CompareOp op) {
+		switch (op) {
+		case LT:
+			return CompareOp.GT;
+		case LE:
+			return CompareOp.GE;
+		case GT:
+			return CompareOp.LT;
+		case GE:
+			return CompareOp.LE;
+		default:
+			return op;
+		}
+	}
+
+	private static String variable(ValueExpr e, BindingSet bindings) {
+		if (e instanceof Var v && !v.hasValue() && !bindings.hasBinding(v.getName())) {
+			return v.getName();
+		}
+		return null;
+	}
+
+	private static Value constant(ValueExpr e, BindingSet bindings) {
+		if (e instanceof ValueConstant c) {
+			return c.getValue();
+		} else if (e instanceof Var v) {
+			return v.hasValue() ? v.getValue() : bindings.getValue(v.getName());
+		}
+		return null;
+	}
+}
@@ -0,0 +1,160 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.rdf4j.model.base.AbstractIRI;
+import org.eclipse.rdf4j.model.util.URIUtil;
+
+import swiss.sib.swissprot.r2s2.sql.Column;
+
+/**
+ * An IRI read as the values of its decomposed columns. The IRI string is only
+ * built when it is asked for, IRIs of the same template are compared and
+ * hashed on their values.
+ */
+final class LazyIri extends AbstractIRI implements PartwiseIri {
+	private static final long serialVersionUID = 1L;
+	private static final Pattern TEMPLATE_COLUMN = Pattern.compile("\\{([^}]+)\\}");
+
+	/**
+	 * An R2RML template split into its constant texts and the columns between
+	 * them, there is one more constant than there are columns.
+	 */
+	record Template(List<String> constants, List<Column> parts) {
+		/**
+		 * @param columns the columns the template may refer to by name
+		 */
+		static Template of(String template, List<Column> columns) {
+			List<String> constants = new ArrayList<>();
+			List<Column> parts = new ArrayList<>();
+			Matcher m = TEMPLATE_COLUMN.matcher(template);
+			int last = 0;
+			while (m.find()) {
+				constants.add(template.substring(last, m.start()));
+				String name = m.group(1);
+				parts.add(columns.stream().filter(c -> c.name().equals(name)).findFirst()
+						.orElseThrow(() -> new IllegalStateException("No column " + name + " in " + template)));
+				last = m.end();
+			}
+			constants.add(template.substring(last));
+			return new Template(List.copyOf(constants), List.copyOf(parts));
+		}
+
+		/**
+		 * @return the SQL giving the text of each column
+		 */
+		List<String> columns() {
+			return parts.stream().map(c -> "CAST(t." + c.name() + " AS VARCHAR)").toList();
+		}
+	}
+
+	private final Template template;
+	private final String[] values;
+	private String iri;
+	private int hashCode;
+	private int localNameIdx = -1;
+
+	/**
+	 * @param values the text of each column of the template, none null
+	 */
+	LazyIri(Template template, String[] values) {
+		this.template = template;
+		this.values = values;
+	}
+
+	@Override
+	public String stringValue() {
+		if (iri == null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < values.length; i++) {
+				sb.append(template.constants().get(i)).append(values[i]);
+			}
+			iri = sb.append(template.constants().get(values.length)).toString();
+		}
+		return iri;
+	}
+
+	@Override
+	public void appendTo(Appendable out) throws IOException {
+		if (iri != null) {
+			out.append(iri);
+			return;
+		}
+		for (int i = 0; i < values.length; i++) {
+			out.append(template.constants().get(i)).append(values[i]);
+		}
+		out.append(template.constants().get(values.length));
+	}
+
+	/**
+	 * @return the length of the IRI string, without building it
+	 */
+	int length() {
+		if (iri != null) {
+			return iri.length();
+		}
+		int length = template.constants().get(values.length).length();
+		for (int i = 0; i < values.length; i++) {
+			length += template.constants().get(i).length() + values[i].length();
+		}
+		return length;
+	}
+
+	@Override
+	public String getNamespace() {
+		return stringValue().substring(0, localNameIdx());
+	}
+
+	@Override
+	public String getLocalName() {
+		return stringValue().substring(localNameIdx());
+	}
+
+	private int localNameIdx() {
+		if (localNameIdx < 0) {
+			localNameIdx = URIUtil.getLocalNameIndex(stringValue());
+		}
+		return localNameIdx;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof LazyIri other) {
+			if (other.template == template && Arrays.equals(values, other.values)) {
+				return true;
+			} else if (other.hashCode() != hashCode()) {
+				return false;
+			}
+			// Different values can still make the same IRI, e.g. a / in a path
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * The same as the hash code of the IRI string, without building it.
+	 */
+	@Override
+	public int hashCode() {
+		if (hashCode == 0) {
+			int h = 0;
+			for (int i = 0; i < values.length; i++) {
+				h = hash(h, template.constants().get(i));
+				h = hash(h, values[i]);
+			}
+			hashCode = hash(h, template.constants().get(values.length));
+		}
+		return hashCode;
+	}
+
+	private static int hash(int h, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h;
+	}
+}
@@ -0,0 +1,160 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.duckdb.DuckDBConnection;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.sail.SailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Query;
+
+/**
+ * The statements matching a triple pattern, querying all predicate tables at
+ * the same time, each on its own duplicate of the DuckDB connection. Closing
+ * it, for example once a LIMIT is reached, cancels the queries still running.
+ */
+class ParallelStatementIteration extends LookAheadIteration<Statement, SailException> {
+	private static final Logger logger = LoggerFactory.getLogger(ParallelStatementIteration.class);
+	/**
+	 * How many statements the branches may be ahead of the reader.
+	 */
+	private static final int QUEUE_SIZE = 1024;
+	private static final Object DONE = new Object();
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final List<Future<?>> running = new ArrayList<>();
+	private final List<java.sql.Statement> statements = new CopyOnWriteArrayList<>();
+	private volatile boolean closed = false;
+	private int branches = 0;
+
+	/**
+	 * Gives the statements of one part of the pattern to the iteration.
+	 */
+	interface Branch {
+		void run(ParallelStatementIteration into) throws Exception;
+	}
+
+	ParallelStatementIteration(DuckDBConnection conn, ExecutorService executor, List<PredicateTable> tables,
+			Resource subj, Value obj, Resource... contexts) {
+		this(executor, tables.stream().flatMap(table -> table.query(subj, obj, contexts).stream()
+				.<Branch>map(query -> into -> into.query(conn, table, query))).toList());
+	}
+
+	ParallelStatementIteration(ExecutorService executor, List<Branch> branches) {
+		for (Branch branch : branches) {
+			this.branches++;
+			running.add(executor.submit(() -> run(branch)));
+		}
+	}
+
+	/**
+	 * Any failure of a branch is given to the reader, ending the branch normally
+	 * would silently drop the statements it did not get to.
+	 */
+	private void run(Branch branch) {
+		try {
+			branch.run(this);
+		} catch (Exception e) {
+			if (!closed) {
+				put(e);
+			}
+		} finally {
+			put(DONE);
+		}
+	}
+
+	private void query(DuckDBConnection conn, PredicateTable table, Query query) throws SQLException {
+		try (Connection duplicate = conn.duplicate();
+				PreparedStatement statement = duplicate.prepareStatement(query.sql())) {
+			statements.add(statement);
+			logger.debug("Running: " + query.sql());
+			for (int i = 0; i < query.parameters().size(); i++) {
+				statement.setString(i + 1, query.parameters().get(i));
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				PredicateTable.Reader reader = table.reader();
+				while (!closed && rs.next()) {
+					add(reader.statement(rs));
+				}
+			} finally {
+				statements.remove(statement);
+			}
+		}
+	}
+
+	void add(Statement statement) {
+		put(statement);
+	}
+
+	/**
+	 * Waits for the reader to make room, unless it is no longer reading.
+	 */
+	private void put(Object o) {
+		try {
+			while (!closed) {
+				if (queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	protected Statement getNextElement() throws SailException {
+		try {
+			while (branches > 0) {
+				Object next = queue.take();
+				if (next == DONE) {
+					branches--;
+				} else if (next instanceof SailException e) {
+					throw e;
+				} else if (next instanceof Exception e) {
+					throw new SailException(e);
+				} else {
+					return (Statement) next;
+				}
+			}
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SailException(e);
+		}
+	}
+
+	@Override
+	protected void handleClose() throws SailException {
+		closed = true;
+		try {
+			for (java.sql.Statement statement : statements) {
+				try {
+					statement.cancel();
+				} catch (SQLException e) {
+					logger.debug("Could not cancel a query", e);
+				}
+			}
+			for (Future<?> branch : running) {
+				branch.cancel(true);
+			}
+			queue.clear();
+		} finally {
+			super.handleClose();
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.io.IOException;
+
+import org.eclipse.rdf4j.model.IRI;
+
+/**
+ * An IRI read as the values of its decomposed columns, that can be written out
+ * from those without building its string.
+ */
+public interface PartwiseIri extends IRI {
+
+	/**
+	 * Appends the IRI string, part by part.
+	 */
+	void appendTo(Appendable out) throws IOException;
+}
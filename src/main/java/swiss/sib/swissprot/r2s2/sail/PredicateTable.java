@@ -0,0 +1,567 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.net.URISyntaxException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+
+import swiss.sib.swissprot.r2s2.loading.LoadIntoTable;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.loading.steps.IntroduceIriDictionary;
+import swiss.sib.swissprot.r2s2.optimization.OptimizeForDatatype;
+import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+/**
+ * The triples of one {@link PredicateMap} in a {@link Table}, read with SQL
+ * that builds the subject, object and graph back from their columns the same
+ * way the R2RML mapping does.
+ */
+final class PredicateTable {
+	private static final SimpleValueFactory VF = SimpleValueFactory.getInstance();
+
+	/**
+	 * Part of an RDF term, either a constant from a virtual column or SQL on the
+	 * table aliased as t giving the text of the part.
+	 *
+	 * @param condition SQL with one parameter, true if the part has that text
+	 * @param template  if not null the columns of an IRI, read one by one and
+	 *                  only put together into a {@link LazyIri} when needed
+	 * @param column    if not null the one column the text comes from
+	 */
+	record Part(String constant, String select, String condition, LazyIri.Template template, Column column) {
+		static Part constant(String value) {
+			return new Part(value, null, null, null, null);
+		}
+
+		static Part sql(String select, Column column) {
+			return new Part(null, select, select + " = ?", null, column);
+		}
+
+		boolean isConstant() {
+			return select == null;
+		}
+
+		/**
+		 * @return SQL true if the part has a text, from its columns without
+		 *         building that text
+		 */
+		String present() {
+			if (template != null) {
+				// Like the template the IRI is NULL if any of its columns is
+				return template.parts().stream().map(c -> "t." + c.name() + " IS NOT NULL")
+						.collect(Collectors.joining(" AND "));
+			} else if (column != null) {
+				return "t." + column.name() + " IS NOT NULL";
+			}
+			return select + " IS NOT NULL";
+		}
+	}
+
+	/**
+	 * An RDF term as the texts it is made of: the IRI, the blank node id, or the
+	 * label and then the language or datatype of a literal.
+	 */
+	record Term(Kind kind, boolean langString, List<Part> parts) {
+
+		static Term of(Kind kind, GroupOfColumns group, IRI datatype) {
+			List<Column> columns = group.columns().stream().filter(R2RMLFromTables::notTheGraphColumn).toList();
+			switch (kind) {
+			case IRI:
+				return new Term(kind, false, List.of(iri(columns)));
+			case BNODE:
+				return new Term(kind, false, List.of(part(columns.get(0), null)));
+			case LITERAL:
+				Part label = null;
+				Part lang = null;
+				Part dt = Part.constant(datatype == null ? XSD.STRING.stringValue() : datatype.stringValue());
+				for (Column c : columns) {
+					if (c.name().endsWith(GroupOfColumns.LANG_VALUE) || c.name().endsWith(GroupOfColumns.LIT_VALUE)) {
+						label = part(c, datatype);
+					} else if (c.name().endsWith(GroupOfColumns.LANG)) {
+						lang = part(c, null);
+					} else if (c.name().endsWith(GroupOfColumns.DATATYPE)) {
+						dt = part(c, null);
+					}
+				}
+				return new Term(kind, lang != null, List.of(label, lang != null ? lang : dt));
+			default:
+				throw new UnsupportedOperationException(kind.label());
+			}
+		}
+
+		private static Part iri(List<Column> columns) {
+			Optional<Column> id = columns.stream().filter(GroupOfColumns::isAnIriIdColumn).findFirst();
+			if (id.isPresent()) {
+				String c = "t." + id.get().name();
+				String iris = IntroduceIriDictionary.IRIS;
+				return new Part(null, "(SELECT i.iri FROM " + iris + " AS i WHERE i.id = " + c + ")",
+						c + " = (SELECT i.id FROM " + iris + " AS i WHERE i.iri = ?)", null, id.get());
+			} else if (columns.stream().allMatch(Column::isVirtual)) {
+				if (columns.stream().anyMatch(c -> ((VirtualSingleValueColumn) c).value() == null)) {
+					return Part.constant(null);
+				}
+				return Part.constant(R2RMLFromTables.iriToTemplate(new LinkedHashModel(), VF, VF.createBNode(),
+						new GroupOfColumns(columns)).toString());
+			}
+			String select = IntroduceIriDictionary.iriExpression(columns);
+			if (columns.stream().anyMatch(IriShapeColumn.class::isInstance)) {
+				return Part.sql(select, null);
+			}
+			String template = R2RMLFromTables
+					.iriToTemplate(new LinkedHashModel(), VF, VF.createBNode(), new GroupOfColumns(columns)).toString();
+			return new Part(null, select, select + " = ?", LazyIri.Template.of(template, columns), null);
+		}
+
+		private static Part part(Column c, IRI datatype) {
+			if (c instanceof VirtualSingleValueColumn v) {
+				return Part.constant(v.value());
+			}
+			String t = "t." + c.name();
+			return Part.sql(OptimizeForDatatype.lexicalForm(t, c, datatype).orElse("CAST(" + t + " AS VARCHAR)"), c);
+		}
+
+		static String sql(Part p) {
+			return p.isConstant() ? quote(p.constant()) : p.select();
+		}
+
+		String textSql() {
+			return sql(parts.get(0));
+		}
+
+		/**
+		 * @see PredicateTable#kind(Value)
+		 */
+		String kindSql() {
+			String constant = constantKind();
+			if (constant != null) {
+				return quote(constant);
+			}
+			return "(" + quote(langString ? LANG_KIND : DATATYPE_KIND) + " || " + parts.get(1).select() + ")";
+		}
+
+		/**
+		 * @return the kind of every value of this term, null if it differs per row
+		 */
+		String constantKind() {
+			switch (kind) {
+			case IRI:
+				return IRI_KIND;
+			case BNODE:
+				return BNODE_KIND;
+			default:
+				Part p = parts.get(1);
+				return p.isConstant() ? (langString ? LANG_KIND : DATATYPE_KIND) + p.constant() : null;
+			}
+		}
+
+		/**
+		 * @return the texts of the value in the order of the parts, null if this
+		 *         term can not be that value
+		 */
+		List<String> texts(Value v) {
+			switch (kind) {
+			case IRI:
+				return v.isIRI() ? List.of(v.stringValue()) : null;
+			case BNODE:
+				return v.isBNode() ? List.of(((BNode) v).getID()) : null;
+			case LITERAL:
+				if (!v.isLiteral()) {
+					return null;
+				}
+				Literal l = (Literal) v;
+				if (langString) {
+					return l.getLanguage().map(lang -> List.of(l.getLabel(), lang)).orElse(null);
+				}
+				return l.getLanguage().isPresent() ? null : List.of(l.getLabel(), l.getDatatype().stringValue());
+			default:
+				return null;
+			}
+		}
+
+		Value value(List<String> texts) {
+			switch (kind) {
+			case IRI:
+				return VF.createIRI(texts.get(0));
+			case BNODE:
+				return VF.createBNode(texts.get(0));
+			case LITERAL:
+				if (langString) {
+					return VF.createLiteral(texts.get(0), texts.get(1));
+				}
+				return VF.createLiteral(texts.get(0), VF.createIRI(texts.get(1)));
+			default:
+				throw new UnsupportedOperationException(kind.label());
+			}
+		}
+	}
+
+	static final String IRI_KIND = "i";
+	static final String BNODE_KIND = "b";
+	static final String LANG_KIND = "@";
+	static final String DATATYPE_KIND = "^^";
+
+	/**
+	 * The text of a term, together with its {@link #kind(Value)} enough to build
+	 * it back: the IRI, the blank node id or the label of the literal.
+	 */
+	static String text(Value v) {
+		if (v.isBNode()) {
+			return ((BNode) v).getID();
+		} else if (v.isLiteral()) {
+			return ((Literal) v).getLabel();
+		}
+		return v.stringValue();
+	}
+
+	/**
+	 * @return i for an IRI, b for a blank node, @ and the language of a literal
+	 *         with one, otherwise ^^ and the datatype IRI
+	 */
+	static String kind(Value v) {
+		if (v.isIRI()) {
+			return IRI_KIND;
+		} else if (v.isBNode()) {
+			return BNODE_KIND;
+		}
+		Literal l = (Literal) v;
+		return l.getLanguage().map(lang -> LANG_KIND + lang).orElseGet(() -> DATATYPE_KIND + l.getDatatype());
+	}
+
+	static Value value(String text, String kind) {
+		if (IRI_KIND.equals(kind)) {
+			return VF.createIRI(text);
+		} else if (BNODE_KIND.equals(kind)) {
+			return VF.createBNode(text);
+		} else if (kind.startsWith(LANG_KIND)) {
+			return VF.createLiteral(text, kind.substring(LANG_KIND.length()));
+		}
+		return VF.createLiteral(text, VF.createIRI(kind.substring(DATATYPE_KIND.length())));
+	}
+
+	static String quote(String text) {
+		return "'" + text.replace("'", "''") + "'";
+	}
+
+	/**
+	 * @param parameters the texts to bind to the ? in the SQL, in order
+	 */
+	record Query(String sql, List<String> parameters) {
+	}
+
+	private final Table table;
+	private final PredicateMap map;
+	private final IRI predicate;
+	private final Term subject;
+	private final Term object;
+	/**
+	 * The graph IRI, a null constant for triples in the default graph.
+	 */
+	private final Part graph;
+
+	PredicateTable(Table table, PredicateMap p) {
+		this.table = table;
+		this.map = p;
+		this.predicate = p.predicate();
+		this.subject = Term.of(table.subjectKind(), table.subject(), null);
+		this.object = Term.of(p.objectKind(), p.groupOfColumns(), p.datatype());
+		this.graph = p.groupOfColumns().columns().stream().filter(GroupOfColumns::isAGraphColumn).findFirst()
+				.map(c -> Term.part(c, null)).orElse(Part.constant(null));
+	}
+
+	IRI predicate() {
+		return predicate;
+	}
+
+	PredicateMap map() {
+		return map;
+	}
+
+	Term subject() {
+		return subject;
+	}
+
+	Term object() {
+		return object;
+	}
+
+	Table table() {
+		return table;
+	}
+
+	Part graph() {
+		return graph;
+	}
+
+	/**
+	 * @param subj     the subject or null for any
+	 * @param obj      the object or null for any
+	 * @param contexts the graphs, none for any graph
+	 * @return the SQL and its parameters, or empty if no triple in this table can
+	 *         match
+	 */
+	Optional<Query> query(Resource subj, Value obj, Resource... contexts) {
+		List<String> select = new ArrayList<>();
+		for (Part part : parts()) {
+			if (part.template() != null) {
+				for (String column : part.template().columns()) {
+					select.add(column + " AS c" + select.size());
+				}
+			} else if (!part.isConstant()) {
+				select.add(part.select() + " AS c" + select.size());
+			}
+		}
+		if (select.isEmpty()) {
+			select.add("1");
+		}
+		return query(select, subj, obj, FilterPushdown.Sql.TRUE, contexts);
+	}
+
+	/**
+	 * Like {@link #query(Resource, Value, Resource...)} but every row has the
+	 * same columns, whatever is constant in this table: the text and kind of the
+	 * subject, predicate and object as s, sk, p, pk, o, ok and the graph as g.
+	 *
+	 * @param filter SQL from {@link FilterPushdown} the rows must also match
+	 * @see #text(Value)
+	 * @see #kind(Value)
+	 */
+	Optional<Query> termQuery(Resource subj, Value obj, FilterPushdown.Sql filter, Resource... contexts) {
+		List<String> select = List.of(subject.textSql() + " AS s", subject.kindSql() + " AS sk",
+				quote(predicate.stringValue()) + " AS p", quote(IRI_KIND) + " AS pk", object.textSql() + " AS o",
+				object.kindSql() + " AS ok", (graph.isConstant() && graph.constant() == null ? "CAST(NULL AS VARCHAR)"
+						: Term.sql(graph)) + " AS g");
+		return query(select, subj, obj, filter, contexts);
+	}
+
+	private Optional<Query> query(List<String> select, Resource subj, Value obj, FilterPushdown.Sql filter,
+			Resource... contexts) {
+		List<String> where = new ArrayList<>();
+		List<String> parameters = new ArrayList<>();
+		if (!restrict(subject, subj, where, parameters) || !restrict(object, obj, where, parameters)) {
+			return Optional.empty();
+		}
+		if (contexts.length > 0) {
+			if (graph.isConstant()) {
+				IRI g = graph.constant() == null ? null : VF.createIRI(graph.constant());
+				if (Arrays.stream(contexts).noneMatch(c -> Objects.equals(c, g))) {
+					return Optional.empty();
+				}
+			} else {
+				List<String> graphs = Arrays.stream(contexts).filter(Objects::nonNull).map(Value::stringValue)
+						.toList();
+				if (graphs.isEmpty()) {
+					return Optional.empty();
+				}
+				where.add(graph.select() + " IN (" + graphs.stream().map(g -> "?").collect(Collectors.joining(", "))
+						+ ")");
+				parameters.addAll(graphs);
+			}
+		}
+		if (!FilterPushdown.Sql.TRUE.equals(filter)) {
+			where.add(filter.sql());
+			parameters.addAll(filter.parameters());
+		}
+		String sql = "SELECT " + (table.mayContainDuplicates() ? "DISTINCT " : "") + String.join(", ", select)
+				+ " FROM " + table.name() + " AS t" + (where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where));
+		return Optional.of(new Query(sql, parameters));
+	}
+
+	/**
+	 * Adds the conditions for the term to be the value, and that the term is
+	 * there at all. Merged tables have rows where an object is NULL.
+	 *
+	 * @return false if the term can never be the value
+	 */
+	private static boolean restrict(Term term, Value value, List<String> where, List<String> parameters) {
+		if (term.parts().stream().anyMatch(p -> p.isConstant() && p.constant() == null)) {
+			return false;
+		}
+		term.parts().stream().filter(p -> !p.isConstant()).findFirst()
+				.ifPresent(p -> where.add(p.present()));
+		if (value == null) {
+			return true;
+		}
+		List<String> texts = term.texts(value);
+		if (texts == null) {
+			return false;
+		}
+		for (int i = 0; i < texts.size(); i++) {
+			Part part = term.parts().get(i);
+			if (part.isConstant()) {
+				if (!part.constant().equals(texts.get(i))) {
+					return false;
+				}
+			} else if (part.template() != null) {
+				FilterPushdown.Sql sql = lookup(part.template(), texts.get(i));
+				if (sql == null) {
+					where.add(part.condition());
+					parameters.add(texts.get(i));
+				} else if (FilterPushdown.Sql.FALSE.equals(sql)) {
+					return false;
+				} else if (!FilterPushdown.Sql.TRUE.equals(sql)) {
+					where.add(sql.sql());
+					parameters.addAll(sql.parameters());
+				}
+			} else {
+				where.add(part.condition());
+				parameters.add(texts.get(i));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The columns a decomposed IRI must have to be the given one, without
+	 * building the IRI of every row. The IRI is split into its parts the same
+	 * way as when it was loaded, so each column holds the end of its part that
+	 * is not already in the template, such as a longest common prefix.
+	 *
+	 * @return FALSE if no row can be the IRI, null if a column is not a part
+	 */
+	private static FilterPushdown.Sql lookup(LazyIri.Template template, String iri) {
+		try {
+			return lookup(template, LoadIntoTable.parseIri(iri), iri, 0);
+		} catch (URISyntaxException e) {
+			// Could not have been loaded
+			return FilterPushdown.Sql.FALSE;
+		}
+	}
+
+	private static FilterPushdown.Sql lookup(LazyIri.Template template, String[] parts, String rest, int index) {
+		String constant = template.constants().get(index);
+		if (!rest.startsWith(constant)) {
+			return FilterPushdown.Sql.FALSE;
+		}
+		rest = rest.substring(constant.length());
+		if (index == template.parts().size()) {
+			return rest.isEmpty() ? FilterPushdown.Sql.TRUE : FilterPushdown.Sql.FALSE;
+		}
+		Column c = template.parts().get(index);
+		int i = 0;
+		while (i < GroupOfColumns.IRI_PARTS.size() && !c.name().endsWith(GroupOfColumns.IRI_PARTS.get(i))) {
+			i++;
+		}
+		if (i == GroupOfColumns.IRI_PARTS.size()) {
+			return null;
+		}
+		String part = parts[i];
+		List<FilterPushdown.Sql> alternatives = new ArrayList<>();
+		for (int end = 0; part != null && end <= Math.min(rest.length(), part.length()); end++) {
+			String value = rest.substring(0, end);
+			if (part.endsWith(value)) {
+				alternatives.add(FilterPushdown.and(FilterPushdown.equal(c, value),
+						lookup(template, parts, rest.substring(end), index + 1)));
+			}
+		}
+		return FilterPushdown.or(alternatives);
+	}
+
+	private List<Part> parts() {
+		List<Part> parts = new ArrayList<>(subject.parts());
+		parts.addAll(object.parts());
+		parts.add(graph);
+		return parts;
+	}
+
+	/**
+	 * @return a reader for the rows of one result of {@link #query}
+	 */
+	Reader reader() {
+		return new Reader();
+	}
+
+	/**
+	 * Turns rows into statements, decoding repeated column values once.
+	 */
+	final class Reader {
+		private final TermReader subjects = new TermReader(subject);
+		private final TermReader objects = new TermReader(object);
+		private final IRI constantGraph = graph.isConstant() && graph.constant() != null
+				? VF.createIRI(graph.constant())
+				: null;
+		private final RepeatedValues<IRI> graphs = new RepeatedValues<>(VF::createIRI);
+
+		/**
+		 * @param rs positioned on a row of the result of {@link #query}
+		 */
+		Statement statement(ResultSet rs) throws SQLException {
+			int[] column = { 1 };
+			Resource s = (Resource) subjects.value(rs, column);
+			Value o = objects.value(rs, column);
+			IRI g = graph.isConstant() ? constantGraph : graphs.get(rs.getString(column[0]));
+			if (g == null) {
+				return VF.createStatement(s, predicate, o);
+			}
+			return VF.createStatement(s, predicate, o, g);
+		}
+	}
+
+	/**
+	 * Reads a term that is one column as a whole, and the columns of a
+	 * {@link LazyIri} one by one.
+	 */
+	private static final class TermReader {
+		private final Term term;
+		private final List<RepeatedValues<String>> templateColumns = new ArrayList<>();
+		private final RepeatedValues<Value> whole;
+
+		private TermReader(Term term) {
+			this.term = term;
+			LazyIri.Template template = term.parts().get(0).template();
+			if (template != null) {
+				for (int i = 0; i < template.columns().size(); i++) {
+					templateColumns.add(new RepeatedValues<>(t -> t));
+				}
+			}
+			if (template == null && term.parts().stream().filter(p -> !p.isConstant()).count() == 1) {
+				whole = new RepeatedValues<>(text -> term.value(term.parts().stream()
+						.map(p -> p.isConstant() ? p.constant() : text).toList()));
+			} else {
+				whole = null;
+			}
+		}
+
+		/**
+		 * @param column the next column to read, moved past the columns of the
+		 *               term
+		 */
+		private Value value(ResultSet rs, int[] column) throws SQLException {
+			LazyIri.Template template = term.parts().get(0).template();
+			if (template != null) {
+				String[] values = new String[templateColumns.size()];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = templateColumns.get(i).get(rs.getString(column[0]++));
+				}
+				return new LazyIri(template, values);
+			} else if (whole != null) {
+				return whole.get(rs.getString(column[0]++));
+			}
+			List<String> texts = new ArrayList<>();
+			for (Part p : term.parts()) {
+				texts.add(p.isConstant() ? p.constant() : rs.getString(column[0]++));
+			}
+			return term.value(texts);
+		}
+	}
+}
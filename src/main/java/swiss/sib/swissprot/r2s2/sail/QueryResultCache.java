@@ -0,0 +1,220 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.ExtensionElem;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.GroupElem;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.ListBindingSet;
+
+/**
+ * The results of recent queries, for as long as the database stays at the same
+ * load generation. Entries are evicted least recently used first once their
+ * estimated size goes over the budget. The sail reads the generation when it is
+ * initialized: a database loaded again while the sail runs is only seen, and
+ * the cache only dropped, after the sail is shut down and initialized again.
+ */
+final class QueryResultCache {
+	/**
+	 * Rough size of a binding apart from the characters of its value.
+	 */
+	private static final long BINDING_OVERHEAD = 64;
+
+	/**
+	 * @param algebra the query before optimization, with anonymous variables
+	 *                renamed in the order they appear
+	 */
+	record Key(String algebra, String dataset, BindingSet bindings, boolean includeInferred) {
+		static Key of(TupleExpr expr, Dataset dataset, BindingSet bindings, boolean includeInferred) {
+			TupleExpr normalized = expr.clone();
+			Map<String, String> anonymous = new HashMap<>();
+			// The parser names aggregates in a HAVING with a random suffix
+			UnaryOperator<String> rename = name -> name.startsWith("_anon_")
+					? anonymous.computeIfAbsent(name, n -> "_anon_" + anonymous.size())
+					: name;
+			normalized.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+				@Override
+				public void meet(Var var) {
+					if (var.isAnonymous() && !var.isConstant()) {
+						var.replaceWith(new Var(rename.apply(var.getName()), var.getValue(), true, false));
+					}
+				}
+
+				@Override
+				public void meet(Group node) {
+					node.setGroupBindingNames(
+							node.getGroupBindingNames().stream().map(rename).collect(Collectors.toSet()));
+					super.meet(node);
+				}
+
+				@Override
+				public void meet(GroupElem node) {
+					node.setName(rename.apply(node.getName()));
+					super.meet(node);
+				}
+
+				@Override
+				public void meet(ExtensionElem node) {
+					node.setName(rename.apply(node.getName()));
+					super.meet(node);
+				}
+			});
+			return new Key(normalized.toString(), Objects.toString(dataset), bindings, includeInferred);
+		}
+	}
+
+	private record Entry(List<BindingSet> results, long bytes) {
+	}
+
+	private final long maxBytes;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+	private volatile String generation;
+
+	/**
+	 * @param maxBytes the estimated size all results together may take
+	 */
+	QueryResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Drops everything if the database was loaded again since the last call.
+	 */
+	synchronized void atGeneration(String generation) {
+		if (!Objects.equals(this.generation, generation)) {
+			entries.clear();
+			bytes = 0;
+			this.generation = generation;
+		}
+	}
+
+	synchronized Optional<List<BindingSet>> get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return Optional.empty();
+		}
+		hits++;
+		return Optional.of(entry.results());
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * @return the results, which are put into the cache once they are all read
+	 *         if they fit
+	 */
+	CloseableIteration<BindingSet, QueryEvaluationException> caching(Key key,
+			CloseableIteration<? extends BindingSet, QueryEvaluationException> results) {
+		String atStart = generation;
+		return new LookAheadIteration<>() {
+			private List<BindingSet> seen = new ArrayList<>();
+			private long size = 0;
+
+			@Override
+			protected BindingSet getNextElement() throws QueryEvaluationException {
+				if (!results.hasNext()) {
+					if (seen != null) {
+						put(key, atStart, seen, size);
+						seen = null;
+					}
+					return null;
+				}
+				BindingSet next = results.next();
+				if (seen != null) {
+					size += bytes(next);
+					if (size > maxBytes) {
+						seen = null;
+					} else {
+						seen.add(copy(next));
+					}
+				}
+				return next;
+			}
+
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				try {
+					results.close();
+				} finally {
+					super.handleClose();
+				}
+			}
+		};
+	}
+
+	private synchronized void put(Key key, String generation, List<BindingSet> results, long size) {
+		if (!Objects.equals(this.generation, generation)) {
+			return;
+		}
+		Entry old = entries.put(key, new Entry(List.copyOf(results), size));
+		if (old != null) {
+			bytes -= old.bytes();
+		}
+		bytes += size;
+		Iterator<Entry> lru = entries.values().iterator();
+		while (bytes > maxBytes && lru.hasNext()) {
+			bytes -= lru.next().bytes();
+			lru.remove();
+		}
+	}
+
+	private static BindingSet copy(BindingSet bs) {
+		List<String> names = new ArrayList<>();
+		List<Value> values = new ArrayList<>();
+		for (Binding b : bs) {
+			names.add(b.getName());
+			values.add(b.getValue());
+		}
+		return new ListBindingSet(names, values);
+	}
+
+	/**
+	 * Without building the strings of IRIs read from their columns.
+	 */
+	private static long bytes(BindingSet bs) {
+		long size = 0;
+		for (Binding b : bs) {
+			Value v = b.getValue();
+			int length;
+			if (v instanceof LazyIri lazy) {
+				length = lazy.length();
+			} else if (v instanceof Literal l) {
+				length = l.getLabel().length();
+			} else {
+				length = v.stringValue().length();
+			}
+			size += BINDING_OVERHEAD + 2L * length;
+		}
+		return size;
+	}
+}
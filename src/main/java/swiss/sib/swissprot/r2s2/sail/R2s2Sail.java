@@ -0,0 +1,206 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.duckdb.DuckDBConnection;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.helpers.AbstractSail;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader;
+import swiss.sib.swissprot.r2s2.r2rml.TableDescriptionAsRdf;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Read only access to a database built by the {@link Loader}. Triple patterns
+ * are answered with SQL on the predicate tables listed in the table
+ * description, queries are evaluated by RDF4J on top of those.
+ */
+public class R2s2Sail extends AbstractSail {
+	private final String jdbc;
+	private final File descriptionPath;
+	private RoutingIndex routing;
+	private CatalogStatistics statistics;
+	private Connection conn;
+	private String loadGeneration;
+	private boolean compileToSql = true;
+	private QueryResultCache queryCache = new QueryResultCache(DEFAULT_QUERY_CACHE_BYTES);
+	private static final long DEFAULT_QUERY_CACHE_BYTES = 64 * 1024 * 1024;
+	private boolean parallelBranches = false;
+	private ExecutorService branchExecutor;
+
+	/**
+	 * @param jdbc            connection string of the loaded database
+	 * @param descriptionPath the table description written by the loader
+	 */
+	public R2s2Sail(String jdbc, File descriptionPath) {
+		this.jdbc = jdbc;
+		this.descriptionPath = descriptionPath;
+	}
+
+	@Override
+	protected void initializeInternal() throws SailException {
+		try {
+			List<Table> tables = TableDescriptionAsRdf.read(descriptionPath);
+			if (tables == null) {
+				throw new SailException("Can not read the table description " + descriptionPath);
+			}
+			conn = JdbcUtil.openReadOnly(jdbc);
+			JdbcUtil.attachGraphPartitions(conn);
+			routing = RoutingIndex.build(tables, conn);
+			statistics = CatalogStatistics.read(conn, routing);
+			loadGeneration = JdbcUtil.loadGeneration(conn);
+		} catch (IOException | SQLException e) {
+			throw new SailException(e);
+		}
+	}
+
+	public boolean isCompileToSql() {
+		return compileToSql;
+	}
+
+	/**
+	 * Do basic graph patterns as one SQL query, see {@link BgpToSql}. Otherwise
+	 * RDF4J joins the triple patterns one by one.
+	 */
+	public void setCompileToSql(boolean compileToSql) {
+		this.compileToSql = compileToSql;
+	}
+
+	public boolean isParallelBranches() {
+		return parallelBranches;
+	}
+
+	/**
+	 * Query all predicate tables that can hold a triple pattern at the same time,
+	 * each on its own connection. Only DuckDB connections can be duplicated for
+	 * this, other databases still query them one after the other.
+	 */
+	public void setParallelBranches(boolean parallelBranches) {
+		this.parallelBranches = parallelBranches;
+	}
+
+	/**
+	 * Every branch runs until it is done or cancelled, so there is no bound on the
+	 * threads: a bound would let branches of nested patterns wait on each other.
+	 */
+	synchronized ExecutorService branchExecutor() {
+		if (branchExecutor == null) {
+			branchExecutor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "r2s2-branch");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return branchExecutor;
+	}
+
+	/**
+	 * @return the cache of query results, or null if there is none
+	 */
+	QueryResultCache queryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * @param bytes the estimated size of all cached query results together, 0 to
+	 *              not cache results at all
+	 */
+	public void setQueryCacheBytes(long bytes) {
+		this.queryCache = bytes > 0 ? new QueryResultCache(bytes) : null;
+	}
+
+	/**
+	 * @return how often the results of a query were taken from the cache
+	 */
+	public long getQueryCacheHits() {
+		QueryResultCache cache = queryCache;
+		return cache == null ? 0 : cache.hits();
+	}
+
+	/**
+	 * @return how often the results of a query were not in the cache
+	 */
+	public long getQueryCacheMisses() {
+		QueryResultCache cache = queryCache;
+		return cache == null ? 0 : cache.misses();
+	}
+
+	/**
+	 * @param predicate or null for all
+	 * @param object    or null for any
+	 * @return the tables that can hold triples with that predicate and object
+	 */
+	List<PredicateTable> predicateTables(IRI predicate, Value object) {
+		return routing.tables(predicate, object);
+	}
+
+	RoutingIndex routing() {
+		return routing;
+	}
+
+	CatalogStatistics statistics() {
+		return statistics;
+	}
+
+	/**
+	 * DuckDB connections to the same database are duplicated so that they share
+	 * the attached graph partitions.
+	 */
+	@Override
+	protected SailConnection getConnectionInternal() throws SailException {
+		try {
+			Connection c;
+			if (conn instanceof DuckDBConnection duckdb) {
+				c = duckdb.duplicate();
+			} else {
+				c = JdbcUtil.openReadOnly(jdbc);
+			}
+			QueryResultCache cache = queryCache;
+			if (cache != null) {
+				cache.atGeneration(loadGeneration);
+			}
+			return new R2s2SailConnection(this, c);
+		} catch (SQLException e) {
+			throw new SailException(e);
+		}
+	}
+
+	@Override
+	protected void shutDownInternal() throws SailException {
+		synchronized (this) {
+			if (branchExecutor != null) {
+				branchExecutor.shutdownNow();
+				branchExecutor = null;
+			}
+		}
+		try {
+			if (conn != null) {
+				conn.close();
+			}
+		} catch (SQLException e) {
+			throw new SailException(e);
+		}
+	}
+
+	@Override
+	public boolean isWritable() throws SailException {
+		return false;
+	}
+
+	@Override
+	public ValueFactory getValueFactory() {
+		return SimpleValueFactory.getInstance();
+	}
+}
@@ -0,0 +1,248 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.duckdb.DuckDBConnection;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Namespace;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.DefaultEvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryEvaluationContext;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.SailReadOnlyException;
+import org.eclipse.rdf4j.sail.helpers.AbstractSailConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Part;
+import swiss.sib.swissprot.r2s2.sail.SqlTupleExpr.PlanIteration;
+
+class R2s2SailConnection extends AbstractSailConnection {
+	private static final Logger logger = LoggerFactory.getLogger(R2s2SailConnection.class);
+	private static final String READ_ONLY = "A loaded r2s2 database is read only";
+	private final R2s2Sail sail;
+	private final Connection conn;
+
+	R2s2SailConnection(R2s2Sail sail, Connection conn) {
+		super(sail);
+		this.sail = sail;
+		this.conn = conn;
+	}
+
+	@Override
+	protected void closeInternal() throws SailException {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			throw new SailException(e);
+		}
+	}
+
+	/**
+	 * Repeated queries are answered from the {@link QueryResultCache} if the sail
+	 * has one.
+	 */
+	@Override
+	protected CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateInternal(TupleExpr tupleExpr,
+			Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
+		QueryResultCache cache = sail.queryCache();
+		if (cache == null) {
+			return evaluateUncached(tupleExpr, dataset, bindings, includeInferred);
+		}
+		QueryResultCache.Key key = QueryResultCache.Key.of(tupleExpr, dataset, bindings, includeInferred);
+		Optional<List<BindingSet>> cached = cache.get(key);
+		if (cached.isPresent()) {
+			return new CloseableIteratorIteration<>(cached.get().iterator());
+		}
+		return cache.caching(key, evaluateUncached(tupleExpr, dataset, bindings, includeInferred));
+	}
+
+	private CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluateUncached(TupleExpr tupleExpr,
+			Dataset dataset, BindingSet bindings, boolean includeInferred) {
+		TripleSource source = new TripleSource() {
+			@Override
+			public CloseableIteration<? extends org.eclipse.rdf4j.model.Statement, QueryEvaluationException> getStatements(
+					Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+				var statements = getStatementsInternal(subj, pred, obj, includeInferred, contexts);
+				return new LookAheadIteration<org.eclipse.rdf4j.model.Statement, QueryEvaluationException>() {
+					@Override
+					protected org.eclipse.rdf4j.model.Statement getNextElement() throws QueryEvaluationException {
+						try {
+							return statements.hasNext() ? statements.next() : null;
+						} catch (SailException e) {
+							throw new QueryEvaluationException(e);
+						}
+					}
+
+					@Override
+					protected void handleClose() throws QueryEvaluationException {
+						try {
+							statements.close();
+						} finally {
+							super.handleClose();
+						}
+					}
+				};
+			}
+
+			@Override
+			public ValueFactory getValueFactory() {
+				return sail.getValueFactory();
+			}
+		};
+		EvaluationStrategy strategy = new DefaultEvaluationStrategy(source, dataset, null) {
+			@Override
+			public QueryEvaluationStep precompile(TupleExpr expr, QueryEvaluationContext context) {
+				if (expr instanceof SqlTupleExpr sql) {
+					QueryEvaluationStep fallback = super.precompile(sql.original(), context);
+					return bs -> sql.compiler().compile(sql.original(), bs)
+							.<CloseableIteration<BindingSet, QueryEvaluationException>>map(
+									plan -> new PlanIteration(conn, plan, bs))
+							.orElseGet(() -> fallback.evaluate(bs));
+				}
+				return super.precompile(expr, context);
+			}
+		};
+		TupleExpr expr = tupleExpr.clone();
+		if (!(expr instanceof QueryRoot)) {
+			expr = new QueryRoot(expr);
+		}
+		expr = strategy.optimize(expr, sail.statistics(), bindings);
+		if (sail.isCompileToSql()) {
+			new BgpToSql(sail, dataset).rewrite(expr);
+		}
+		// Also the root when the whole query is done in SQL. The fallbacks of the
+		// SQL parts bind variables that the root does not know of.
+		return strategy.precompile(expr, new QueryEvaluationContext.Minimal(dataset, sail.getValueFactory()))
+				.evaluate(bindings);
+	}
+
+	/**
+	 * Every graph that has at least one triple.
+	 */
+	@Override
+	protected CloseableIteration<? extends Resource, SailException> getContextIDsInternal() throws SailException {
+		Set<Resource> graphs = new LinkedHashSet<>();
+		ValueFactory vf = sail.getValueFactory();
+		for (PredicateTable pt : sail.predicateTables(null, null)) {
+			Part graph = pt.graph();
+			if (graph.isConstant() && graph.constant() != null) {
+				graphs.add(vf.createIRI(graph.constant()));
+			} else if (!graph.isConstant()) {
+				String sql = "SELECT DISTINCT " + graph.select() + " FROM " + pt.table().name() + " AS t WHERE "
+						+ graph.select() + " IS NOT NULL";
+				try (Statement stat = conn.createStatement()) {
+					logger.debug("Running: " + sql);
+					try (ResultSet rs = stat.executeQuery(sql)) {
+						while (rs.next()) {
+							graphs.add(vf.createIRI(rs.getString(1)));
+						}
+					}
+				} catch (SQLException e) {
+					throw new SailException(e);
+				}
+			}
+		}
+		return new CloseableIteratorIteration<>(graphs.iterator());
+	}
+
+	@Override
+	protected CloseableIteration<? extends org.eclipse.rdf4j.model.Statement, SailException> getStatementsInternal(
+			Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+		List<PredicateTable> tables = sail.predicateTables(pred, obj);
+		if (sail.isParallelBranches() && tables.size() > 1 && conn instanceof DuckDBConnection duckdb) {
+			return new ParallelStatementIteration(duckdb, sail.branchExecutor(), tables, subj, obj, contexts);
+		}
+		return new StatementIteration(conn, tables, subj, obj, contexts);
+	}
+
+	@Override
+	protected long sizeInternal(Resource... contexts) throws SailException {
+		long size = 0;
+		try (var statements = getStatementsInternal(null, null, null, false, contexts)) {
+			while (statements.hasNext()) {
+				statements.next();
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	protected void startTransactionInternal() throws SailException {
+		// Nothing changes, so there is nothing to isolate
+	}
+
+	@Override
+	protected void commitInternal() throws SailException {
+		// Nothing to commit
+	}
+
+	@Override
+	protected void rollbackInternal() throws SailException {
+		// Nothing to roll back
+	}
+
+	@Override
+	protected void addStatementInternal(Resource subj, IRI pred, Value obj, Resource... contexts)
+			throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+
+	@Override
+	protected void removeStatementsInternal(Resource subj, IRI pred, Value obj, Resource... contexts)
+			throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+
+	@Override
+	protected void clearInternal(Resource... contexts) throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+
+	@Override
+	protected CloseableIteration<? extends Namespace, SailException> getNamespacesInternal() throws SailException {
+		return new EmptyIteration<>();
+	}
+
+	@Override
+	protected String getNamespaceInternal(String prefix) throws SailException {
+		return null;
+	}
+
+	@Override
+	protected void setNamespaceInternal(String prefix, String name) throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+
+	@Override
+	protected void removeNamespaceInternal(String prefix) throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+
+	@Override
+	protected void clearNamespacesInternal() throws SailException {
+		throw new SailReadOnlyException(READ_ONLY);
+	}
+}
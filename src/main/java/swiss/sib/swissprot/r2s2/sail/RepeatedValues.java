@@ -0,0 +1,42 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decodes the texts of one result column, remembering what it decoded so that
+ * a column with few distinct values, like the enums of graphs, schemes and
+ * hosts, is decoded once per value and every row shares the same object.
+ * Stops remembering once a column turns out to have many distinct values.
+ */
+final class RepeatedValues<T> {
+	private static final int MAX_DISTINCT = 1024;
+	private final Function<String, T> decode;
+	private Map<String, T> seen = new HashMap<>();
+
+	RepeatedValues(Function<String, T> decode) {
+		this.decode = decode;
+	}
+
+	/**
+	 * @return null for a NULL text
+	 */
+	T get(String text) {
+		if (text == null) {
+			return null;
+		} else if (seen == null) {
+			return decode.apply(text);
+		}
+		T value = seen.get(text);
+		if (value == null) {
+			value = decode.apply(text);
+			if (seen.size() < MAX_DISTINCT) {
+				seen.put(text, value);
+			} else {
+				seen = null;
+			}
+		}
+		return value;
+	}
+}
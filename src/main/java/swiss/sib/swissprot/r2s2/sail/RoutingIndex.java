@@ -0,0 +1,159 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Part;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Term;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+/**
+ * Which predicate tables can hold a triple pattern, built once from the table
+ * description. Every lookup is a hash map get, the lists are computed up
+ * front.
+ */
+final class RoutingIndex {
+	private static final Logger logger = LoggerFactory.getLogger(RoutingIndex.class);
+
+	/**
+	 * A predicate together with the datatype of its literal objects,
+	 * rdf:langString for literals with a language.
+	 */
+	record Typed(IRI predicate, IRI datatype) {
+	}
+
+	private final List<PredicateTable> all;
+	private final Map<IRI, List<PredicateTable>> byPredicate;
+	/**
+	 * The rdf:type tables that can hold a class, including those where the class
+	 * is a column and not split out into its own type_ table.
+	 */
+	private final Map<IRI, List<PredicateTable>> byClass;
+	private final List<PredicateTable> anyClass;
+	/**
+	 * The tables with literals of that datatype, including the ones with a
+	 * datatype column.
+	 */
+	private final Map<Typed, List<PredicateTable>> byDatatype;
+	private final Map<IRI, List<PredicateTable>> anyDatatype;
+	private final Map<String, Long> rowCounts;
+
+	private RoutingIndex(List<PredicateTable> all, Map<String, Long> rowCounts) {
+		this.all = List.copyOf(all);
+		this.rowCounts = Map.copyOf(rowCounts);
+		Map<IRI, List<PredicateTable>> predicates = new LinkedHashMap<>();
+		Map<IRI, List<PredicateTable>> classes = new LinkedHashMap<>();
+		List<PredicateTable> unsplit = new ArrayList<>();
+		Map<Typed, List<PredicateTable>> datatypes = new LinkedHashMap<>();
+		Map<IRI, List<PredicateTable>> untyped = new HashMap<>();
+		for (PredicateTable pt : all) {
+			predicates.computeIfAbsent(pt.predicate(), k -> new ArrayList<>()).add(pt);
+			Term o = pt.object();
+			Part first = o.parts().get(0);
+			if (RDF.TYPE.equals(pt.predicate()) && o.kind() == Kind.IRI) {
+				if (!first.isConstant()) {
+					unsplit.add(pt);
+				} else if (first.constant() != null) {
+					classes.computeIfAbsent(iri(first.constant()), k -> new ArrayList<>()).add(pt);
+				}
+			} else if (o.kind() == Kind.LITERAL) {
+				Part dt = o.parts().get(1);
+				if (o.langString()) {
+					datatypes.computeIfAbsent(new Typed(pt.predicate(), RDF.LANGSTRING), k -> new ArrayList<>())
+							.add(pt);
+				} else if (dt.isConstant()) {
+					datatypes.computeIfAbsent(new Typed(pt.predicate(), iri(dt.constant())), k -> new ArrayList<>())
+							.add(pt);
+				} else {
+					untyped.computeIfAbsent(pt.predicate(), k -> new ArrayList<>()).add(pt);
+				}
+			}
+		}
+		classes.replaceAll((k, v) -> {
+			v.addAll(unsplit);
+			return v;
+		});
+		datatypes.forEach((k, v) -> v.addAll(untyped.getOrDefault(k.predicate(), List.of())));
+		this.byPredicate = copy(predicates);
+		this.byClass = copy(classes);
+		this.anyClass = List.copyOf(unsplit);
+		this.byDatatype = copy(datatypes);
+		this.anyDatatype = copy(untyped);
+	}
+
+	/**
+	 * @param conn to count the rows of every table
+	 */
+	static RoutingIndex build(List<Table> tables, Connection conn) throws SQLException {
+		List<PredicateTable> all = new ArrayList<>();
+		Map<String, Long> rowCounts = new HashMap<>();
+		try (Statement stat = conn.createStatement()) {
+			for (Table t : tables) {
+				for (PredicateMap p : t.objects()) {
+					all.add(new PredicateTable(t, p));
+				}
+				String sql = "SELECT COUNT(*) FROM " + t.name();
+				logger.debug("Running: " + sql);
+				try (ResultSet rs = stat.executeQuery(sql)) {
+					rowCounts.put(t.name(), rs.next() ? rs.getLong(1) : 0L);
+				}
+			}
+		}
+		return new RoutingIndex(all, rowCounts);
+	}
+
+	/**
+	 * @param predicate or null for all
+	 * @param object    or null for any, a class or literal narrows the tables
+	 * @return the tables that can hold triples with that predicate and object
+	 */
+	List<PredicateTable> tables(IRI predicate, Value object) {
+		if (predicate == null) {
+			return all;
+		} else if (object == null) {
+			return byPredicate.getOrDefault(predicate, List.of());
+		} else if (RDF.TYPE.equals(predicate) && object.isIRI()) {
+			return byClass.getOrDefault(object, anyClass);
+		} else if (object.isLiteral()) {
+			// Literals with a language have rdf:langString as datatype
+			return byDatatype.getOrDefault(new Typed(predicate, ((Literal) object).getDatatype()),
+					anyDatatype.getOrDefault(predicate, List.of()));
+		}
+		return byPredicate.getOrDefault(predicate, List.of());
+	}
+
+	/**
+	 * @return the number of rows in the table, each row can hold a triple for
+	 *         every predicate map of the table
+	 */
+	long rowCount(Table table) {
+		return rowCounts.getOrDefault(table.name(), 0L);
+	}
+
+	private static IRI iri(String iri) {
+		return SimpleValueFactory.getInstance().createIRI(iri);
+	}
+
+	private static <K> Map<K, List<PredicateTable>> copy(Map<K, List<PredicateTable>> map) {
+		Map<K, List<PredicateTable>> copy = new HashMap<>();
+		map.forEach((k, v) -> copy.put(k, List.copyOf(v)));
+		return Map.copyOf(copy);
+	}
+}
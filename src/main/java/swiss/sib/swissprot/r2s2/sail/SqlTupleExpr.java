@@ -0,0 +1,147 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.AbstractQueryModelNode;
+import org.eclipse.rdf4j.query.algebra.QueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.sail.BgpToSql.Plan;
+
+/**
+ * A part of a query that {@link BgpToSql} does as one SQL query.
+ */
+class SqlTupleExpr extends AbstractQueryModelNode implements TupleExpr {
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(SqlTupleExpr.class);
+	private final TupleExpr original;
+	private final transient BgpToSql compiler;
+
+	SqlTupleExpr(TupleExpr original, BgpToSql compiler) {
+		this.original = original;
+		this.compiler = compiler;
+	}
+
+	/**
+	 * @return the part of the query this replaces
+	 */
+	TupleExpr original() {
+		return original;
+	}
+
+	BgpToSql compiler() {
+		return compiler;
+	}
+
+	@Override
+	public Set<String> getBindingNames() {
+		return original.getBindingNames();
+	}
+
+	@Override
+	public Set<String> getAssuredBindingNames() {
+		return original.getAssuredBindingNames();
+	}
+
+	@Override
+	public <X extends Exception> void visit(QueryModelVisitor<X> visitor) throws X {
+		visitor.meetOther(this);
+	}
+
+	@Override
+	public SqlTupleExpr clone() {
+		return (SqlTupleExpr) super.clone();
+	}
+
+	@Override
+	public String getSignature() {
+		return super.getSignature() + " " + original.getSignature();
+	}
+
+	/**
+	 * The rows of the plan, each added to the bindings it was compiled with.
+	 * Values are decoded per variable and kind, so that repeated ones are only
+	 * decoded once.
+	 */
+	static class PlanIteration extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+		private final Connection conn;
+		private final Plan plan;
+		private final BindingSet bindings;
+		private final List<String> names;
+		private final List<Map<String, RepeatedValues<Value>>> decoded = new ArrayList<>();
+		private PreparedStatement statement;
+		private ResultSet rs;
+
+		PlanIteration(Connection conn, Plan plan, BindingSet bindings) {
+			this.conn = conn;
+			this.plan = plan;
+			this.bindings = bindings;
+			this.names = new ArrayList<>(plan.variables().keySet());
+			for (int i = 0; i < names.size(); i++) {
+				decoded.add(new HashMap<>());
+			}
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			try {
+				if (rs == null) {
+					String sql = plan.sql();
+					logger.debug("Running: " + sql);
+					statement = conn.prepareStatement(sql);
+					for (int i = 0; i < plan.parameters().size(); i++) {
+						statement.setString(i + 1, plan.parameters().get(i));
+					}
+					rs = statement.executeQuery();
+				}
+				if (!rs.next()) {
+					return null;
+				}
+				QueryBindingSet result = new QueryBindingSet(bindings);
+				for (int i = 0; i < names.size(); i++) {
+					String text = rs.getString(i * 2 + 1);
+					if (text != null) {
+						String kind = rs.getString(i * 2 + 2);
+						RepeatedValues<Value> values = decoded.get(i).computeIfAbsent(kind,
+								k -> new RepeatedValues<>(t -> PredicateTable.value(t, k)));
+						result.setBinding(names.get(i), values.get(text));
+					}
+				}
+				return result;
+			} catch (SQLException e) {
+				throw new QueryEvaluationException(e);
+			}
+		}
+
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			try {
+				if (rs != null) {
+					rs.close();
+				}
+				if (statement != null) {
+					statement.close();
+				}
+			} catch (SQLException e) {
+				throw new QueryEvaluationException(e);
+			} finally {
+				super.handleClose();
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.sail.SailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Query;
+
+/**
+ * The statements matching a triple pattern, running the query on one predicate
+ * table at a time so that only one result set is open.
+ */
+class StatementIteration extends LookAheadIteration<Statement, SailException> {
+	private static final Logger logger = LoggerFactory.getLogger(StatementIteration.class);
+	private final Connection conn;
+	private final Iterator<PredicateTable> tables;
+	private final Resource subj;
+	private final Value obj;
+	private final Resource[] contexts;
+	private PredicateTable.Reader current;
+	private PreparedStatement statement;
+	private ResultSet rs;
+
+	StatementIteration(Connection conn, List<PredicateTable> tables, Resource subj, Value obj, Resource... contexts) {
+		this.conn = conn;
+		this.tables = tables.iterator();
+		this.subj = subj;
+		this.obj = obj;
+		this.contexts = contexts;
+	}
+
+	@Override
+	protected Statement getNextElement() throws SailException {
+		try {
+			while (true) {
+				if (rs != null && rs.next()) {
+					return current.statement(rs);
+				}
+				closeCurrent();
+				if (!tables.hasNext()) {
+					return null;
+				}
+				PredicateTable table = tables.next();
+				current = table.reader();
+				Optional<Query> query = table.query(subj, obj, contexts);
+				if (query.isPresent()) {
+					logger.debug("Running: " + query.get().sql());
+					statement = conn.prepareStatement(query.get().sql());
+					List<String> parameters = query.get().parameters();
+					for (int i = 0; i < parameters.size(); i++) {
+						statement.setString(i + 1, parameters.get(i));
+					}
+					rs = statement.executeQuery();
+				}
+			}
+		} catch (SQLException e) {
+			throw new SailException(e);
+		}
+	}
+
+	private void closeCurrent() throws SQLException {
+		try {
+			if (rs != null) {
+				rs.close();
+			}
+		} finally {
+			rs = null;
+			if (statement != null) {
+				statement.close();
+				statement = null;
+			}
+		}
+	}
+
+	@Override
+	protected void handleClose() throws SailException {
+		try {
+			closeCurrent();
+		} catch (SQLException e) {
+			throw new SailException(e);
+		} finally {
+			super.handleClose();
+		}
+	}
+}
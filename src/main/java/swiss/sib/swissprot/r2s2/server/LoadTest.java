@@ -0,0 +1,97 @@
+package swiss.sib.swissprot.r2s2.server;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends many concurrent requests for one query to a SPARQL endpoint and
+ * reports the throughput and latencies.
+ */
+public final class LoadTest {
+	private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+	public record Report(int requests, int failures, long millis, long[] latenciesMillis) {
+
+		public double perSecond() {
+			return millis == 0 ? requests : requests * 1000.0 / millis;
+		}
+
+		/**
+		 * @param p between 0 and 1
+		 */
+		public long percentile(double p) {
+			if (latenciesMillis.length == 0) {
+				return 0;
+			}
+			return latenciesMillis[(int) Math.min(latenciesMillis.length - 1, Math.floor(p * latenciesMillis.length))];
+		}
+
+		@Override
+		public String toString() {
+			return requests + " requests, " + failures + " failed, in " + millis + "ms, "
+					+ String.format("%.1f", perSecond()) + "/s, latency p50 " + percentile(0.5) + "ms p95 "
+					+ percentile(0.95) + "ms p99 " + percentile(0.99) + "ms max " + percentile(1) + "ms";
+		}
+	}
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		URI endpoint = URI.create(args[0]);
+		String query = args[1];
+		int requests = args.length >= 3 ? Integer.parseInt(args[2]) : 10_000;
+		int concurrency = args.length >= 4 ? Integer.parseInt(args[3]) : 1_000;
+		String accept = args.length >= 5 ? args[4] : ResultFormat.JSON.mimeType();
+		logger.info(run(endpoint, query, accept, requests, concurrency).toString());
+	}
+
+	/**
+	 * @param concurrency the most requests in flight at once
+	 */
+	public static Report run(URI endpoint, String query, String accept, int requests, int concurrency)
+			throws InterruptedException {
+		ExecutorService executor = SparqlEndpoint.requestExecutor(concurrency);
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+		HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint + "?query="
+				+ URLEncoder.encode(query, StandardCharsets.UTF_8))).header("Accept", accept).GET().build();
+		Semaphore inFlight = new Semaphore(concurrency);
+		AtomicInteger failures = new AtomicInteger();
+		long[] latencies = new long[requests];
+		CompletableFuture<?>[] responses = new CompletableFuture<?>[requests];
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < requests; i++) {
+				inFlight.acquire();
+				int at = i;
+				long sent = System.nanoTime();
+				responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+						.whenComplete((response, e) -> {
+							latencies[at] = (System.nanoTime() - sent) / 1_000_000;
+							if (e != null || response.statusCode() != 200) {
+								failures.incrementAndGet();
+							}
+							inFlight.release();
+						});
+			}
+			CompletableFuture.allOf(responses).exceptionally(e -> null).join();
+		} finally {
+			executor.shutdown();
+		}
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		Arrays.sort(latencies);
+		return new Report(requests, failures.get(), millis, latencies);
+	}
+}
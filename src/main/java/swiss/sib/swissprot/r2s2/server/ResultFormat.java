@@ -0,0 +1,89 @@
+package swiss.sib.swissprot.r2s2.server;
+
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The SPARQL result formats the endpoint can write, chosen from the Accept
+ * header of a request.
+ */
+enum ResultFormat {
+	JSON("application/sparql-results+json", "application/json"),
+	XML("application/sparql-results+xml", "application/xml", "text/xml"),
+	CSV("text/csv"),
+	TSV("text/tab-separated-values");
+
+	private final String mimeType;
+	private final List<String> aliases;
+
+	ResultFormat(String mimeType, String... aliases) {
+		this.mimeType = mimeType;
+		this.aliases = List.of(aliases);
+	}
+
+	String mimeType() {
+		return mimeType;
+	}
+
+	ResultWriter writer(Writer out) {
+		switch (this) {
+		case XML:
+			return new ResultWriter.Xml(out);
+		case CSV:
+			return new ResultWriter.Csv(out);
+		case TSV:
+			return new ResultWriter.Tsv(out);
+		default:
+			return new ResultWriter.Json(out);
+		}
+	}
+
+	/**
+	 * @param accept the Accept header, may be null
+	 * @return the acceptable format with the highest quality, JSON if any is
+	 *         acceptable and null if none is
+	 */
+	static ResultFormat negotiate(String accept) {
+		if (accept == null || accept.isBlank()) {
+			return JSON;
+		}
+		ResultFormat best = null;
+		double bestQuality = 0;
+		for (String range : accept.split(",")) {
+			String[] parts = range.split(";");
+			String type = parts[0].trim().toLowerCase();
+			double quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			ResultFormat format = of(type);
+			if (format != null && quality > bestQuality) {
+				best = format;
+				bestQuality = quality;
+			}
+		}
+		return best;
+	}
+
+	private static ResultFormat of(String type) {
+		if ("*/*".equals(type) || "application/*".equals(type)) {
+			return JSON;
+		}
+		if ("text/*".equals(type)) {
+			return CSV;
+		}
+		for (ResultFormat format : values()) {
+			if (format.mimeType.equals(type) || format.aliases.contains(type)) {
+				return format;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,397 @@
+package swiss.sib.swissprot.r2s2.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.BindingSet;
+
+import swiss.sib.swissprot.r2s2.sail.PartwiseIri;
+
+/**
+ * Writes solutions as soon as they are given, so that the endpoint can flush
+ * them to the client in batches while the query is still running.
+ */
+abstract class ResultWriter {
+	protected final Writer out;
+	protected List<String> variables;
+	private final StringBuilder iri = new StringBuilder();
+
+	ResultWriter(Writer out) {
+		this.out = out;
+	}
+
+	void start(List<String> variables) throws IOException {
+		this.variables = variables;
+	}
+
+	abstract void solution(BindingSet solution) throws IOException;
+
+	abstract void end() throws IOException;
+
+	abstract void ask(boolean value) throws IOException;
+
+	/**
+	 * Writes the IRI straight from its parts if it was read decomposed.
+	 */
+	protected void writeIri(Value v) throws IOException {
+		if (v instanceof PartwiseIri p) {
+			p.appendTo(out);
+		} else {
+			out.write(v.stringValue());
+		}
+	}
+
+	/**
+	 * @return the IRI string, put together from its parts in a buffer that the
+	 *         next IRI reuses if it was read decomposed
+	 */
+	protected CharSequence iri(Value v) throws IOException {
+		if (v instanceof PartwiseIri p) {
+			iri.setLength(0);
+			p.appendTo(iri);
+			return iri;
+		}
+		return v.stringValue();
+	}
+
+	/**
+	 * @return the datatype of the literal, null for a plain or language tagged one
+	 */
+	static String datatype(Literal l) {
+		if (l.getLanguage().isPresent() || XSD.STRING.equals(l.getDatatype())) {
+			return null;
+		}
+		return l.getDatatype().stringValue();
+	}
+
+	/**
+	 * SPARQL 1.1 Query Results JSON Format.
+	 */
+	static final class Json extends ResultWriter {
+		private boolean first = true;
+
+		Json(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void start(List<String> variables) throws IOException {
+			super.start(variables);
+			out.write("{\"head\":{\"vars\":[");
+			for (int i = 0; i < variables.size(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				string(variables.get(i));
+			}
+			out.write("]},\"results\":{\"bindings\":[\n");
+		}
+
+		@Override
+		void solution(BindingSet solution) throws IOException {
+			out.write(first ? "{" : ",\n{");
+			first = false;
+			boolean firstBinding = true;
+			for (String variable : variables) {
+				Value v = solution.getValue(variable);
+				if (v == null) {
+					continue;
+				}
+				if (!firstBinding) {
+					out.write(',');
+				}
+				firstBinding = false;
+				string(variable);
+				out.write(":{\"type\":");
+				if (v.isIRI()) {
+					out.write("\"uri\",\"value\":");
+					string(iri(v));
+				} else if (v.isBNode()) {
+					out.write("\"bnode\",\"value\":");
+					string(((BNode) v).getID());
+				} else {
+					Literal l = (Literal) v;
+					out.write("\"literal\",\"value\":");
+					string(l.getLabel());
+					if (l.getLanguage().isPresent()) {
+						out.write(",\"xml:lang\":");
+						string(l.getLanguage().get());
+					} else if (datatype(l) != null) {
+						out.write(",\"datatype\":");
+						string(datatype(l));
+					}
+				}
+				out.write('}');
+			}
+			out.write('}');
+		}
+
+		@Override
+		void end() throws IOException {
+			out.write("\n]}}\n");
+		}
+
+		@Override
+		void ask(boolean value) throws IOException {
+			out.write("{\"head\":{},\"boolean\":" + value + "}\n");
+		}
+
+		private void string(CharSequence s) throws IOException {
+			out.write('"');
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				switch (c) {
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				case '\r':
+					out.write("\\r");
+					break;
+				case '\t':
+					out.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						out.write(String.format("\\u%04x", (int) c));
+					} else {
+						out.write(c);
+					}
+				}
+			}
+			out.write('"');
+		}
+	}
+
+	/**
+	 * SPARQL Query Results XML Format.
+	 */
+	static final class Xml extends ResultWriter {
+		private static final String HEADER = "<?xml version=\"1.0\"?>\n"
+				+ "<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n";
+
+		Xml(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void start(List<String> variables) throws IOException {
+			super.start(variables);
+			out.write(HEADER);
+			out.write("<head>\n");
+			for (String variable : variables) {
+				out.write("<variable name=\"" + escape(variable) + "\"/>\n");
+			}
+			out.write("</head>\n<results>\n");
+		}
+
+		@Override
+		void solution(BindingSet solution) throws IOException {
+			out.write("<result>");
+			for (String variable : variables) {
+				Value v = solution.getValue(variable);
+				if (v == null) {
+					continue;
+				}
+				out.write("<binding name=\"" + escape(variable) + "\">");
+				if (v.isIRI()) {
+					out.write("<uri>");
+					escape(iri(v), out);
+					out.write("</uri>");
+				} else if (v.isBNode()) {
+					out.write("<bnode>" + escape(((BNode) v).getID()) + "</bnode>");
+				} else {
+					Literal l = (Literal) v;
+					out.write("<literal");
+					if (l.getLanguage().isPresent()) {
+						out.write(" xml:lang=\"" + escape(l.getLanguage().get()) + "\"");
+					} else if (datatype(l) != null) {
+						out.write(" datatype=\"" + escape(datatype(l)) + "\"");
+					}
+					out.write(">" + escape(l.getLabel()) + "</literal>");
+				}
+				out.write("</binding>");
+			}
+			out.write("</result>\n");
+		}
+
+		@Override
+		void end() throws IOException {
+			out.write("</results>\n</sparql>\n");
+		}
+
+		@Override
+		void ask(boolean value) throws IOException {
+			out.write(HEADER);
+			out.write("<head/>\n<boolean>" + value + "</boolean>\n</sparql>\n");
+		}
+
+		private static String escape(String s) throws IOException {
+			StringBuilder sb = new StringBuilder(s.length());
+			escape(s, sb);
+			return sb.toString();
+		}
+
+		private static void escape(CharSequence s, Appendable to) throws IOException {
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				switch (c) {
+				case '&':
+					to.append("&amp;");
+					break;
+				case '<':
+					to.append("&lt;");
+					break;
+				case '>':
+					to.append("&gt;");
+					break;
+				case '"':
+					to.append("&quot;");
+					break;
+				default:
+					to.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * SPARQL 1.1 Query Results CSV Format, only the lexical form of each value.
+	 */
+	static final class Csv extends ResultWriter {
+
+		Csv(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void start(List<String> variables) throws IOException {
+			super.start(variables);
+			out.write(String.join(",", variables));
+			out.write("\r\n");
+		}
+
+		@Override
+		void solution(BindingSet solution) throws IOException {
+			for (int i = 0; i < variables.size(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				Value v = solution.getValue(variables.get(i));
+				if (v == null) {
+					continue;
+				}
+				CharSequence s = v.isIRI() ? iri(v) : v.isBNode() ? "_:" + ((BNode) v).getID() : v.stringValue();
+				if (needsQuotes(s)) {
+					out.write('"');
+					for (int c = 0; c < s.length(); c++) {
+						if (s.charAt(c) == '"') {
+							out.write('"');
+						}
+						out.write(s.charAt(c));
+					}
+					out.write('"');
+				} else if (v.isIRI()) {
+					writeIri(v);
+				} else {
+					out.append(s);
+				}
+			}
+			out.write("\r\n");
+		}
+
+		@Override
+		void end() {
+		}
+
+		@Override
+		void ask(boolean value) throws IOException {
+			out.write(value + "\r\n");
+		}
+
+		private static boolean needsQuotes(CharSequence s) {
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '"' || c == ',' || c == '\n' || c == '\r') {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * SPARQL 1.1 Query Results TSV Format, values in their Turtle syntax.
+	 */
+	static final class Tsv extends ResultWriter {
+
+		Tsv(Writer out) {
+			super(out);
+		}
+
+		@Override
+		void start(List<String> variables) throws IOException {
+			super.start(variables);
+			for (int i = 0; i < variables.size(); i++) {
+				if (i > 0) {
+					out.write('\t');
+				}
+				out.write('?' + variables.get(i));
+			}
+			out.write('\n');
+		}
+
+		@Override
+		void solution(BindingSet solution) throws IOException {
+			for (int i = 0; i < variables.size(); i++) {
+				if (i > 0) {
+					out.write('\t');
+				}
+				Value v = solution.getValue(variables.get(i));
+				if (v == null) {
+					continue;
+				}
+				if (v.isIRI()) {
+					out.write('<');
+					writeIri(v);
+					out.write('>');
+				} else if (v.isBNode()) {
+					out.write("_:" + ((BNode) v).getID());
+				} else {
+					Literal l = (Literal) v;
+					out.write('"' + escape(l.getLabel()) + '"');
+					if (l.getLanguage().isPresent()) {
+						out.write('@' + l.getLanguage().get());
+					} else if (datatype(l) != null) {
+						out.write("^^<" + datatype(l) + '>');
+					}
+				}
+			}
+			out.write('\n');
+		}
+
+		@Override
+		void end() {
+		}
+
+		@Override
+		void ask(boolean value) throws IOException {
+			out.write(value + "\n");
+		}
+
+		private static String escape(String s) {
+			return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r")
+					.replace("\t", "\\t");
+		}
+	}
+}
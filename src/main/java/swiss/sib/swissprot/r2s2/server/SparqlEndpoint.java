@@ -0,0 +1,299 @@
+package swiss.sib.swissprot.r2s2.server;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.impl.SimpleDataset;
+import org.eclipse.rdf4j.query.parser.ParsedBooleanQuery;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.sail.SailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import swiss.sib.swissprot.r2s2.sail.R2s2Sail;
+
+/**
+ * A SPARQL 1.1 protocol endpoint on the HTTP server of the JDK for a loaded
+ * database. Every request opens its own read only connection from the sail and
+ * holds it for as long as its results stream out. At most a fixed number of
+ * requests are evaluated at once, those that find no free slot within a while
+ * are answered with 503.
+ */
+public final class SparqlEndpoint implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(SparqlEndpoint.class);
+	public static final String PATH = "/sparql";
+	/**
+	 * Solutions written between two flushes of a response.
+	 */
+	static final int BATCH = 1024;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final R2s2Sail sail;
+	private final Semaphore connections;
+	private final ValueFactory vf;
+	private final long waitMillis;
+
+	/**
+	 * @param sail        an initialized sail, still to be shut down by the caller
+	 * @param address     to listen on
+	 * @param connections how many requests may be evaluated at once
+	 * @param waitMillis  how long a request may wait for a free connection
+	 */
+	public SparqlEndpoint(R2s2Sail sail, InetSocketAddress address, int connections, long waitMillis)
+			throws IOException {
+		this.sail = sail;
+		this.vf = sail.getValueFactory();
+		this.waitMillis = waitMillis;
+		this.connections = new Semaphore(connections);
+		this.executor = requestExecutor(connections);
+		this.server = HttpServer.create(address, 4096);
+		server.createContext(PATH, this::handle);
+		server.setExecutor(executor);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String jdbc = args[0];
+		File description = new File(args[1]);
+		int port = args.length >= 3 ? Integer.parseInt(args[2]) : 8080;
+		int connections = args.length >= 4 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		R2s2Sail sail = new R2s2Sail(jdbc, description);
+		sail.init();
+		SparqlEndpoint endpoint = new SparqlEndpoint(sail,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connections, 30_000);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			endpoint.close();
+			sail.shutDown();
+		}));
+		endpoint.start();
+	}
+
+	/**
+	 * A virtual thread per request when the JVM has them, from Java 21 on.
+	 * Before that a bounded pool of platform threads, a few per connection as
+	 * most of the time of a request goes into writing its results.
+	 */
+	static ExecutorService requestExecutor(int connections) {
+		MethodHandle virtual;
+		try {
+			virtual = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+					MethodType.methodType(ExecutorService.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			logger.info("No virtual threads in this JVM, serving requests from a pool of platform threads");
+			return Executors.newFixedThreadPool(connections * 4);
+		}
+		try {
+			return (ExecutorService) virtual.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void start() {
+		server.start();
+		logger.info("Serving SPARQL at http://" + server.getAddress().getHostString() + ":" + port() + PATH);
+	}
+
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, List<String>> parameters = parameters(exchange.getRequestURI().getRawQuery());
+			String query;
+			if ("POST".equals(exchange.getRequestMethod())) {
+				String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				String body = read(exchange.getRequestBody());
+				if (contentType != null && contentType.startsWith("application/sparql-query")) {
+					query = body;
+				} else {
+					parameters(body).forEach((k, v) -> parameters.computeIfAbsent(k, n -> new ArrayList<>()).addAll(v));
+					query = first(parameters, "query");
+				}
+			} else if ("GET".equals(exchange.getRequestMethod())) {
+				query = first(parameters, "query");
+			} else {
+				exchange.getResponseHeaders().set("Allow", "GET, POST");
+				error(exchange, 405, "Only GET and POST");
+				return;
+			}
+			if (query == null) {
+				error(exchange, 400, "Missing query");
+				return;
+			}
+			ResultFormat format = ResultFormat.negotiate(exchange.getRequestHeaders().getFirst("Accept"));
+			if (format == null) {
+				error(exchange, 406, "No acceptable result format");
+				return;
+			}
+			ParsedQuery parsed;
+			try {
+				parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null);
+			} catch (MalformedQueryException e) {
+				error(exchange, 400, e.getMessage());
+				return;
+			}
+			if (!(parsed instanceof ParsedTupleQuery) && !(parsed instanceof ParsedBooleanQuery)) {
+				error(exchange, 400, "Only SELECT and ASK queries");
+				return;
+			}
+			Dataset dataset;
+			try {
+				dataset = dataset(parsed, parameters);
+			} catch (IllegalArgumentException e) {
+				error(exchange, 400, e.getMessage());
+				return;
+			}
+			if (!connections.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+				error(exchange, 503, "No free connection");
+				return;
+			}
+			try {
+				SailConnection conn;
+				try {
+					conn = sail.getConnection();
+				} catch (SailException e) {
+					logger.error("Failed to open a connection", e);
+					error(exchange, 500, e.getMessage());
+					return;
+				}
+				try (conn) {
+					evaluate(exchange, conn, parsed, dataset, format);
+				}
+			} finally {
+				connections.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void evaluate(HttpExchange exchange, SailConnection conn, ParsedQuery parsed, Dataset dataset,
+			ResultFormat format) throws IOException {
+		CloseableIteration<? extends BindingSet, QueryEvaluationException> solutions;
+		try {
+			solutions = conn.evaluate(parsed.getTupleExpr(), dataset, EmptyBindingSet.getInstance(), false);
+		} catch (SailException | QueryEvaluationException e) {
+			logger.error("Failed to evaluate " + parsed.getSourceString(), e);
+			error(exchange, 500, e.getMessage());
+			return;
+		}
+		try (solutions) {
+			exchange.getResponseHeaders().set("Content-Type", format.mimeType() + "; charset=utf-8");
+			// Chunked, the length is not known until the last solution
+			exchange.sendResponseHeaders(200, 0);
+			Writer out = new BufferedWriter(
+					new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+			ResultWriter writer = format.writer(out);
+			if (parsed instanceof ParsedBooleanQuery) {
+				writer.ask(solutions.hasNext());
+			} else {
+				writer.start(List.copyOf(parsed.getTupleExpr().getBindingNames()));
+				long written = 0;
+				while (solutions.hasNext()) {
+					writer.solution(solutions.next());
+					if (++written % BATCH == 0) {
+						out.flush();
+					}
+				}
+				writer.end();
+			}
+			out.flush();
+		} catch (QueryEvaluationException e) {
+			// The status is already sent, all we can do is cut the response short
+			logger.error("Failed while streaming " + parsed.getSourceString(), e);
+		}
+	}
+
+	/**
+	 * The graphs given in the request replace those of the query, a graph that
+	 * is not an iri throws an IllegalArgumentException.
+	 */
+	private Dataset dataset(ParsedQuery parsed, Map<String, List<String>> parameters) {
+		List<String> defaultGraphs = parameters.getOrDefault("default-graph-uri", List.of());
+		List<String> namedGraphs = parameters.getOrDefault("named-graph-uri", List.of());
+		if (defaultGraphs.isEmpty() && namedGraphs.isEmpty()) {
+			return parsed.getDataset();
+		}
+		SimpleDataset dataset = new SimpleDataset();
+		defaultGraphs.forEach(g -> dataset.addDefaultGraph(vf.createIRI(g)));
+		namedGraphs.forEach(g -> dataset.addNamedGraph(vf.createIRI(g)));
+		return dataset;
+	}
+
+	private static Map<String, List<String>> parameters(String form) {
+		Map<String, List<String>> parameters = new HashMap<>();
+		if (form == null || form.isEmpty()) {
+			return parameters;
+		}
+		for (String pair : form.split("&")) {
+			int eq = pair.indexOf('=');
+			String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			parameters.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+		}
+		return parameters;
+	}
+
+	private static String first(Map<String, List<String>> parameters, String name) {
+		List<String> values = parameters.get(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+	}
+
+	private static void error(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
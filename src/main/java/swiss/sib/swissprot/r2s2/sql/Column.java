@@ -8,7 +8,18 @@ import org.duckdb.DuckDBAppender;
 public class Column {
 	private final String name;
 	private SqlDatatype datatype;
-	
+	private String enumType;
+	/**
+	 * How this column is stored, only known once the database is final.
+	 */
+	private Storage storage;
+
+	/**
+	 * @param compression the DuckDB compression taking most of the bytes
+	 * @param bytes       estimated size on disk
+	 */
+	public record Storage(String compression, long bytes) {
+	}
 	
 	public Column(String name, SqlDatatype datatype) {
 		this.name = name;
@@ -16,7 +27,17 @@ public class Column {
 	}
 
 	public String definition() {
-		return name + " " + datatype.label();
+		return name + " " + typeName();
+	}
+
+	/**
+	 * @return the type as used in SQL, for a dictionary enum the name of the enum type
+	 */
+	public String typeName() {
+		if (datatype == SqlDatatype.ENUM) {
+			return enumType;
+		}
+		return datatype.label();
 	}
 
 	public void add(int tempGraphId, DuckDBAppender appender) throws SQLException {
@@ -60,7 +81,26 @@ public class Column {
 		this.datatype = datatype;
 	}
 	
+	public String enumType() {
+		return enumType;
+	}
+
+	public void setEnumType(String enumType) {
+		this.enumType = enumType;
+	}
+
+	public Storage storage() {
+		return storage;
+	}
+
+	public void setStorage(Storage storage) {
+		this.storage = storage;
+	}
+
 	public Column copy() {
-		return new Column(name, datatype);
+		Column copy = new Column(name, datatype);
+		copy.setEnumType(enumType);
+		copy.setStorage(storage);
+		return copy;
 	}
 }
@@ -29,6 +29,10 @@ public record GroupOfColumns(List<Column> columns) {
 	public static final String QUERY = "_query";
 	public static final String FRAGMENT = "_fragment";
 	public static final String GRAPH = "_graph";
+	/**
+	 * Key into the global iris table, replacing all the IRI part columns.
+	 */
+	public static final String IRI_ID = IRI + ID;
 	public static final List<String> IRI_PARTS = List.of(SCHEME, SCHEME_SPECIFIC_PART, AUTHORITY, USER_INFO, HOST, PORT,
 			PATH, QUERY, FRAGMENT);
 
@@ -106,4 +110,12 @@ public record GroupOfColumns(List<Column> columns) {
 	public static boolean isAGraphColumn(Column c) {
 		return c.name().endsWith(GRAPH);
 	}
+
+	public static boolean isAnIriIdColumn(Column c) {
+		return c.isPhysical() && c.name().endsWith(IRI_ID);
+	}
+
+	public Optional<Column> iriIdColumn() {
+		return columns.stream().filter(GroupOfColumns::isAnIriIdColumn).findFirst();
+	}
 }
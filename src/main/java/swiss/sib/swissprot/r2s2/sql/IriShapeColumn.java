@@ -0,0 +1,72 @@
+package swiss.sib.swissprot.r2s2.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An IRI part that was split into one of a few shapes and the variable slots of
+ * that shape. The column itself holds the shape, an enum of the shape texts
+ * where each slot is written as {}. The slots are in the physical columns named
+ * like this column with _slot1, _slot2 etc. instead of _shape.
+ */
+public class IriShapeColumn extends Column {
+	public static final String SHAPE = "_shape";
+	public static final String SLOT = "_slot";
+	public static final String PLACEHOLDER = "{}";
+	private static final String PIECE = "_piece";
+
+	private final List<String> shapes;
+
+	public IriShapeColumn(String name, String enumType, List<String> shapes) {
+		super(name, SqlDatatype.ENUM);
+		setEnumType(enumType);
+		this.shapes = List.copyOf(shapes);
+	}
+
+	public List<String> shapes() {
+		return shapes;
+	}
+
+	public String slotName(int slot) {
+		return name().substring(0, name().length() - SHAPE.length()) + SLOT + slot;
+	}
+
+	/**
+	 * @param columns the IRI part columns this column is one of
+	 * @param shape   one of the shapes
+	 * @return the columns as if the part was only ever in this shape, the shape
+	 *         replaced by its constant text and the slot columns it uses
+	 */
+	public List<Column> expand(List<Column> columns, String shape) {
+		List<Column> expanded = new ArrayList<>();
+		for (Column c : columns) {
+			if (c == this || c.name().equals(name())) {
+				String[] pieces = shape.split("\\{\\}", -1);
+				for (int i = 0; i < pieces.length; i++) {
+					if (!pieces[i].isEmpty()) {
+						expanded.add(new VirtualSingleValueColumn(name() + PIECE + i, SqlDatatype.TEXT, pieces[i]));
+					}
+					if (i < pieces.length - 1) {
+						String slotName = slotName(i + 1);
+						columns.stream().filter(s -> s.name().equals(slotName)).findFirst().ifPresent(expanded::add);
+					}
+				}
+			} else if (!isSlot(c)) {
+				expanded.add(c);
+			}
+		}
+		return expanded;
+	}
+
+	private boolean isSlot(Column c) {
+		String prefix = name().substring(0, name().length() - SHAPE.length()) + SLOT;
+		return c.name().startsWith(prefix) && c.name().substring(prefix.length()).chars().allMatch(Character::isDigit);
+	}
+
+	@Override
+	public Column copy() {
+		IriShapeColumn copy = new IriShapeColumn(name(), enumType(), shapes);
+		copy.setStorage(storage());
+		return copy;
+	}
+}
@@ -1,13 +1,28 @@
 package swiss.sib.swissprot.r2s2.sql;
 
+import java.util.List;
+
 import org.eclipse.rdf4j.model.IRI;
 
 import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
 
-public record PredicateMap(IRI predicate, GroupOfColumns groupOfColumns, Kind objectKind, String lang, IRI datatype) {
+/**
+ * @param languages the language tags that can be found in a physical lang
+ *                  column, empty when there is one lang for the whole map
+ */
+public record PredicateMap(IRI predicate, GroupOfColumns groupOfColumns, Kind objectKind, String lang, IRI datatype,
+		List<String> languages) {
+
+	public PredicateMap(IRI predicate, GroupOfColumns groupOfColumns, Kind objectKind, String lang, IRI datatype) {
+		this(predicate, groupOfColumns, objectKind, lang, datatype, List.of());
+	}
+
+	public PredicateMap {
+		languages = List.copyOf(languages);
+	}
 	
 	public PredicateMap copy() {
-		return new PredicateMap(predicate, groupOfColumns.copy(), objectKind, lang, datatype);
+		return new PredicateMap(predicate, groupOfColumns.copy(), objectKind, lang, datatype, languages);
 	}
 
 }
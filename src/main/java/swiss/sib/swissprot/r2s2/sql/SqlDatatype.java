@@ -3,7 +3,14 @@ package swiss.sib.swissprot.r2s2.sql;
 public enum SqlDatatype {
 	BOOLEAN("boolean"), NUMERIC("numeric"), TEXT("text"), DATE("date"), TIMESTAMP("timestamp"), INTERVAL("interval"),
 	BLOB("blob"), LIST("list"), STRUCT("struct"), MAP("map"), UNION("union"), INTEGER("integer"), BIGINT("bigint"),
-	DOUBLE("double"), FLOAT("float"), GRAPH_IRIS("graph_iris"), SCHEME("scheme"), HOST("host"), GYEAR("gyear"), GRAPH_IRIS_LIST("graph_iris[]");
+	DOUBLE("double"), FLOAT("float"), GRAPH_IRIS("graph_iris"), SCHEME("scheme"), HOST("host"), GYEAR("gyear"), GRAPH_IRIS_LIST("graph_iris[]"),
+	LANG_TAGS("lang_tags"), DATATYPE_IRIS("datatype_iris"), TINYINT("tinyint"), UTINYINT("utinyint"),
+	SMALLINT("smallint"), USMALLINT("usmallint"), UINTEGER("uinteger"), UBIGINT("ubigint"), HUGEINT("hugeint"),
+	TIMESTAMPTZ("timestamptz"), TIME("time"),
+	/**
+	 * A dictionary enum of one column, the type name is in {@link Column#enumType()}
+	 */
+	ENUM("enum");
 
 	private final String sql;
 
@@ -25,8 +25,21 @@ public class Table {
 
 	private final Kind subjectKind;
 	private final String name;
+	/**
+	 * Unless we know for sure that every row is distinct we must assume there
+	 * might be duplicate triples in this table.
+	 */
+	private boolean mayContainDuplicates = true;
+	/**
+	 * Smallest and largest subject in each row group, only known once the table
+	 * is sorted by subject.
+	 */
+	private List<RowGroup> rowGroups = List.of();
 	private static final AtomicInteger ID_GEN = new AtomicInteger();
 
+	public record RowGroup(long index, String minSubject, String maxSubject) {
+	}
+
 	public Table(IRI predicate, GroupOfColumns subject, Kind subjectKind, GroupOfColumns object, Kind objectKind, String lang,
 			IRI datatype) {
 		super();
@@ -129,5 +142,21 @@ public class Table {
 		return subjectKind;
 	}
 
+	public boolean mayContainDuplicates() {
+		return mayContainDuplicates;
+	}
+
+	public void setMayContainDuplicates(boolean mayContainDuplicates) {
+		this.mayContainDuplicates = mayContainDuplicates;
+	}
+
+	public List<RowGroup> rowGroups() {
+		return rowGroups;
+	}
+
+	public void setRowGroups(List<RowGroup> rowGroups) {
+		this.rowGroups = List.copyOf(rowGroups);
+	}
+
 
 }
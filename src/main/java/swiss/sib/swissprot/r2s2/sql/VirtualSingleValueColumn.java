@@ -19,6 +19,8 @@ public class VirtualSingleValueColumn extends Column {
 
 	@Override
 	public Column copy() {
-		return new VirtualSingleValueColumn(name(), sqlDatatype(), value);
+		VirtualSingleValueColumn copy = new VirtualSingleValueColumn(name(), sqlDatatype(), value);
+		copy.setEnumType(enumType());
+		return copy;
 	}
 }
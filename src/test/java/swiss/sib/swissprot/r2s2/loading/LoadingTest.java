@@ -13,15 +13,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.RDFWriterFactory;
@@ -29,7 +37,18 @@ import org.eclipse.rdf4j.rio.RDFWriterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.loading.steps.CollectStatistics;
+import swiss.sib.swissprot.r2s2.loading.steps.IntroduceDictionaryEnums;
+import swiss.sib.swissprot.r2s2.loading.steps.PoorMansVacuum;
 import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
+import swiss.sib.swissprot.r2s2.sail.R2s2Sail;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
 import swiss.sib.swissprot.r2s2.sql.Table;
 
 public class LoadingTest {
@@ -76,6 +95,295 @@ public class LoadingTest {
 		}
 	}
 
+	@Test
+	public void partitionByGraphKeepsAllRows() throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File first = new File(temp, "first.rdf");
+		File second = new File(temp, "second.rdf");
+		String ns = "https://example.org/";
+		List<Statement> inFirst = new ArrayList<>();
+		List<Statement> inSecond = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			IRI s = vf.createIRI(ns, "i" + i);
+			inFirst.add(vf.createStatement(s, RDF.TYPE, vf.createIRI(ns, "T")));
+			if (i % 2 == 0) {
+				inFirst.add(vf.createStatement(s, RDFS.LABEL, vf.createLiteral("label " + i, "en")));
+			}
+			// Merged into the type table with a graph column that is NULL for the
+			// subjects without one
+			if (i % 3 == 0) {
+				inSecond.add(vf.createStatement(s, RDFS.SEEALSO, vf.createIRI(ns, "o" + i)));
+				inSecond.add(vf.createStatement(s, RDFS.LABEL, vf.createLiteral("other " + i, "en")));
+			} else if (i % 5 == 0) {
+				inFirst.add(vf.createStatement(s, RDFS.SEEALSO, vf.createIRI(ns, "o" + i)));
+			}
+		}
+		writeTestData(first, inFirst);
+		writeTestData(second, inSecond);
+		// The loader shuffles the files it is given
+		List<String> lines = new ArrayList<>(List.of(first.getAbsolutePath() + "\thttp://example.org/a",
+				second.getAbsolutePath() + "\thttp://example.org/b"));
+		Loader loader = new Loader(newFolder, 1, lines);
+		loader.setGraphPartitions(2);
+		int partition = 16;
+		for (int i = 0; i < partition; i++) {
+			loader.runStep(i);
+		}
+		Map<String, Long> before = rowCounts(loader);
+		loader.runStep(partition);
+		assertEquals(before, rowCounts(loader));
+		// Also once the database is vacuumed
+		loader.runStep(partition + 1);
+		assertEquals(before, rowCounts(loader));
+		assertFalse(loader.r2rmlPath().exists(), "Other R2RML processors can not read the partitions");
+	}
+
+	@Test
+	public void dictionaryEnumsExtendExistingLanguageTags() throws SQLException {
+		String jdbc = "jdbc:duckdb:" + new File(temp, "enums").getAbsolutePath();
+		Column lang = new Column("object_rdfs_label" + GroupOfColumns.LANG, SqlDatatype.TEXT);
+		Column value = new Column("object_rdfs_label" + GroupOfColumns.LANG_VALUE, SqlDatatype.TEXT);
+		PredicateMap pm = new PredicateMap(RDFS.LABEL, new GroupOfColumns(List.of(lang, value)), Kind.LITERAL, null,
+				null);
+		Table table = new Table("label", new GroupOfColumns(List.of()), Kind.IRI, List.of(pm));
+		try (Connection conn = openByJdbc(jdbc); java.sql.Statement stat = conn.createStatement()) {
+			// As left by consolidating the per language tables
+			stat.execute("CREATE TYPE " + SqlDatatype.LANG_TAGS.label() + " AS ENUM ('en', 'fr')");
+			stat.execute("CREATE TABLE consolidated (l " + SqlDatatype.LANG_TAGS.label() + ")");
+			stat.execute("INSERT INTO consolidated VALUES ('fr'), ('en')");
+			stat.execute("CREATE TABLE label (" + lang.definition() + ", " + value.definition() + ")");
+			stat.execute("INSERT INTO label SELECT CASE WHEN i % 2 = 0 THEN 'de' ELSE 'en' END, 'label ' || i"
+					+ " FROM range(20) r(i)");
+		}
+		new IntroduceDictionaryEnums(jdbc, List.of(table)).run();
+		assertEquals(SqlDatatype.LANG_TAGS, lang.sqlDatatype());
+		try (Connection conn = openByJdbc(jdbc)) {
+			assertEquals(List.of("de", "en", "fr"), strings(conn,
+					"SELECT unnest(enum_range(NULL::" + SqlDatatype.LANG_TAGS.label() + "))"));
+			assertEquals(List.of("en", "fr"), strings(conn, "SELECT CAST(l AS VARCHAR) FROM consolidated ORDER BY l"));
+			assertEquals(List.of("de", "en"), strings(conn, "SELECT DISTINCT CAST(" + lang.name()
+					+ " AS VARCHAR) FROM label ORDER BY 1"));
+			assertEquals(List.of("ENUM('de', 'en', 'fr')"),
+					strings(conn, "SELECT DISTINCT typeof(" + lang.name() + ") FROM label"));
+		}
+	}
+
+	@Test
+	public void consolidationAddsNewLanguageTags() throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		String ns = "https://example.org/";
+		List<Statement> statements = new ArrayList<>();
+		// Every language on other subjects, so that the tables are not merged
+		for (int i = 0; i < 40; i++) {
+			statements.add(vf.createStatement(vf.createIRI(ns, "s" + i), RDFS.LABEL,
+					vf.createLiteral("label " + i, "en")));
+			statements.add(vf.createStatement(vf.createIRI(ns, "s" + (40 + i)), RDFS.LABEL,
+					vf.createLiteral("étiquette " + i, "fr")));
+		}
+		writeTestData(input, statements);
+		Loader loader = new Loader(newFolder, 1, List.of(input.getAbsolutePath() + "\thttp://example.org/graph"));
+		int consolidate = 8;
+		for (int i = 0; i < consolidate; i++) {
+			loader.runStep(i);
+		}
+		try (Connection conn = openByJdbc(loader.connectionString()); java.sql.Statement stat = conn.createStatement()) {
+			// As left by an earlier load that only knew other tags
+			stat.execute("CREATE TYPE " + SqlDatatype.LANG_TAGS.label() + " AS ENUM ('es', 'fr')");
+			stat.execute("CREATE TABLE earlier (l " + SqlDatatype.LANG_TAGS.label() + ")");
+			stat.execute("INSERT INTO earlier VALUES ('es'), ('fr')");
+		}
+		loader.runStep(consolidate);
+		try (Connection conn = openByJdbc(loader.connectionString())) {
+			assertEquals(List.of("en", "es", "fr"), strings(conn,
+					"SELECT unnest(enum_range(NULL::" + SqlDatatype.LANG_TAGS.label() + "))"));
+			assertEquals(List.of("es", "fr"), strings(conn, "SELECT CAST(l AS VARCHAR) FROM earlier ORDER BY l"));
+			List<Table> consolidated = loader.tables().stream().filter(t -> t.objects().size() == 1
+					&& t.objects().get(0).languages().equals(List.of("en", "fr"))).toList();
+			assertEquals(1, consolidated.size());
+			Column lang = consolidated.get(0).objects().get(0).groupOfColumns().columns().stream()
+					.filter(c -> c.name().endsWith(GroupOfColumns.LANG)).findFirst().get();
+			assertEquals(List.of("en", "fr"), strings(conn, "SELECT DISTINCT CAST(" + lang.name()
+					+ " AS VARCHAR) FROM " + consolidated.get(0).name() + " ORDER BY 1"));
+		}
+	}
+
+	@Test
+	public void iriShapesAreConsolidatedAndRoundTrip() throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		String ns = "https://example.org/entry/";
+		IRI graph = vf.createIRI("http://example.org/graph");
+		List<Statement> statements = new ArrayList<>();
+		// Entries and their isoforms, in both languages the same two shapes
+		for (int i = 0; i < 20; i++) {
+			statements.add(vf.createStatement(vf.createIRI(ns + i), RDFS.LABEL, vf.createLiteral("entry " + i, "en")));
+			statements.add(vf.createStatement(vf.createIRI(ns + i + "/isoform/1"), RDFS.LABEL,
+					vf.createLiteral("isoform " + i, "en")));
+			statements.add(vf.createStatement(vf.createIRI(ns + (20 + i)), RDFS.LABEL,
+					vf.createLiteral("entrée " + i, "fr")));
+			statements.add(vf.createStatement(vf.createIRI(ns + (20 + i) + "/isoform/2"), RDFS.LABEL,
+					vf.createLiteral("isoforme " + i, "fr")));
+		}
+		writeTestData(input, statements);
+		Loader loader = new Loader(newFolder, 0, List.of(input.getAbsolutePath() + "\t" + graph));
+		loader.parse();
+		assertEquals(1, loader.tables().size(), "The per language tables share their shapes");
+		Table table = loader.tables().get(0);
+		assertEquals(List.of("en", "fr"), table.objects().get(0).languages());
+		IriShapeColumn shape = table.subject().columns().stream().filter(IriShapeColumn.class::isInstance)
+				.map(IriShapeColumn.class::cast).findFirst().orElseThrow();
+		assertEquals(List.of("{}", "{}/isoform/{}"), shape.shapes());
+		try (Connection conn = openByJdbc(loader.connectionString())) {
+			for (int slot = 1; slot <= 2; slot++) {
+				assertEquals(List.of("BIGINT"), strings(conn, "SELECT data_type FROM duckdb_columns() WHERE table_name = '"
+						+ table.name() + "' AND column_name = '" + shape.slotName(slot) + "'"));
+			}
+		}
+		R2s2Sail sail = new R2s2Sail(loader.connectionString(), loader.descriptionPath());
+		SailRepository repo = new SailRepository(sail);
+		repo.init();
+		try (RepositoryConnection conn = repo.getConnection()) {
+			Set<Statement> expected = new HashSet<>();
+			statements.forEach(st -> expected
+					.add(vf.createStatement(st.getSubject(), st.getPredicate(), st.getObject(), graph)));
+			Set<Statement> read = new HashSet<>();
+			conn.getStatements(null, null, null).forEach(read::add);
+			assertEquals(expected, read);
+			assertTrue(conn.hasStatement(vf.createIRI(ns + "3/isoform/1"), RDFS.LABEL, null, false));
+			assertFalse(conn.hasStatement(vf.createIRI(ns + "3/isoform/2"), RDFS.LABEL, null, false));
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@Test
+	public void vacuumKeepsForcedCompressions() throws SQLException {
+		File db = new File(temp, "vacuum");
+		String jdbc = "jdbc:duckdb:" + db.getAbsolutePath();
+		try (Connection conn = openByJdbc(jdbc); java.sql.Statement stat = conn.createStatement()) {
+			// Every value differs, duck db would never choose rle itself
+			stat.execute("CREATE TABLE kept (i BIGINT USING COMPRESSION rle)");
+			stat.execute("INSERT INTO kept SELECT range FROM range(100000)");
+			stat.execute("CREATE TABLE rewritten AS SELECT range AS i FROM range(2000000)");
+			stat.execute("CHECKPOINT");
+			stat.execute("DROP TABLE rewritten");
+			stat.execute("CHECKPOINT");
+		}
+		new PoorMansVacuum(jdbc, db, Map.of("kept", Map.of("i", "rle"))).run();
+		try (Connection conn = openByJdbc(jdbc)) {
+			assertEquals(List.of("100000"), strings(conn, "SELECT COUNT(*) FROM kept"));
+			assertEquals(List.of("RLE"), strings(conn,
+					"SELECT DISTINCT compression FROM pragma_storage_info('kept') WHERE segment_type <> 'VALIDITY'"));
+			assertEquals(List.of("0"), strings(conn, "SELECT free_blocks FROM pragma_database_size()"
+					+ " WHERE database_name = current_database()"));
+		}
+	}
+
+	@Test
+	public void graphEnumOnH2() throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File first = new File(temp, "first.rdf");
+		File second = new File(temp, "second.rdf");
+		String ns = "https://example.org/";
+		writeTestData(first, List.of(vf.createStatement(vf.createIRI(ns, "i1"), RDFS.LABEL,
+				vf.createLiteral("one", "en"))));
+		writeTestData(second, List.of(vf.createStatement(vf.createIRI(ns, "i2"), RDFS.LABEL,
+				vf.createLiteral("two", "en"))));
+		List<String> lines = new ArrayList<>(List.of(first.getAbsolutePath() + "\thttp://example.org/a",
+				second.getAbsolutePath() + "\thttp://example.org/b"));
+		String jdbc = "jdbc:h2:file:" + newFolder.getAbsolutePath();
+		Loader loader = new Loader(newFolder, 1, lines, jdbc);
+		loader.runStep(0);
+		loader.runStep(1);
+		Table table = loader.tables().get(0);
+		Column graph = table.objects().get(0).groupOfColumns().columns().stream()
+				.filter(GroupOfColumns::isAGraphColumn).findFirst().get();
+		assertEquals(SqlDatatype.GRAPH_IRIS, graph.sqlDatatype());
+		try (Connection conn = openByJdbc(jdbc)) {
+			assertEquals(List.of("http://example.org/a", "http://example.org/b"),
+					strings(conn, "SELECT CAST(" + graph.name() + " AS VARCHAR) FROM " + table.name() + " ORDER BY 1"));
+		}
+	}
+
+	@Test
+	public void statisticsOfAMergedTable() throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		String ns = "https://example.org/";
+		List<Statement> statements = new ArrayList<>();
+		// Every subject has a type and a label, only the even ones a see also
+		for (int i = 0; i < 20; i++) {
+			statements.add(vf.createStatement(vf.createIRI(ns, "i" + i), RDF.TYPE, vf.createIRI(ns, "T")));
+			statements.add(vf.createStatement(vf.createIRI(ns, "i" + i), RDFS.LABEL,
+					vf.createLiteral("label " + i, "en")));
+			if (i % 2 == 0) {
+				statements.add(vf.createStatement(vf.createIRI(ns, "i" + i), RDFS.SEEALSO,
+						vf.createIRI(ns, "o" + (i % 3))));
+			}
+		}
+		writeTestData(input, statements);
+		Loader loader = new Loader(newFolder, 0, List.of(input.getAbsolutePath() + "\thttp://example.org/graph"));
+		loader.parse();
+		assertEquals(1, loader.tables().size());
+		try (Connection conn = openByJdbc(loader.connectionString())) {
+			assertEquals(List.of("10|10|3|0.5"), strings(conn,
+					"SELECT triples || '|' || distinct_subjects || '|' || distinct_objects || '|' || null_fraction FROM "
+							+ CollectStatistics.STATISTICS + " WHERE predicate = '" + RDFS.SEEALSO + "'"));
+			assertEquals(List.of("10"), strings(conn, "SELECT row_count FROM " + CollectStatistics.COOCCURRENCES
+					+ " WHERE '" + RDFS.SEEALSO + "' IN (predicate_a, predicate_b) AND '" + RDFS.LABEL
+					+ "' IN (predicate_a, predicate_b)"));
+		}
+	}
+
+	@Test
+	public void histogramsSkipNonFiniteDoubles() throws SQLException {
+		String jdbc = "jdbc:duckdb:" + new File(temp, "db").getAbsolutePath();
+		Column value = new Column("object_value" + GroupOfColumns.LIT_VALUE, SqlDatatype.DOUBLE);
+		PredicateMap pm = new PredicateMap(RDF.VALUE, new GroupOfColumns(List.of(value)), Kind.LITERAL, null,
+				XSD.DOUBLE);
+		Table table = new Table("data", new GroupOfColumns(List.of(new Column("subject_id", SqlDatatype.INTEGER))),
+				Kind.BNODE, List.of(pm));
+		try (Connection conn = openByJdbc(jdbc); java.sql.Statement stat = conn.createStatement()) {
+			stat.execute("CREATE TABLE data (subject_id INTEGER, " + value.definition() + ")");
+			stat.execute("INSERT INTO data SELECT i, i FROM range(10) AS r(i)");
+			stat.execute("INSERT INTO data VALUES (10, 'NaN'), (11, 'Infinity'), (12, '-Infinity')");
+		}
+		new CollectStatistics(jdbc, List.of(table)).run();
+		try (Connection conn = openByJdbc(jdbc)) {
+			assertEquals(List.of("10|0.0|9.0"), strings(conn, "SELECT SUM(row_count) || '|' || MIN(low) || '|'"
+					+ " || MAX(high) FROM " + CollectStatistics.HISTOGRAMS));
+			// The width is 9 / 16, the maximum goes into the last bucket
+			assertEquals(List.of("0", "1", "3", "5", "7", "8", "10", "12", "14", "15"),
+					strings(conn, "SELECT bucket FROM " + CollectStatistics.HISTOGRAMS + " ORDER BY bucket"));
+		}
+	}
+
+	private static List<String> strings(Connection conn, String sql) throws SQLException {
+		List<String> values = new ArrayList<>();
+		try (java.sql.Statement stat = conn.createStatement(); var rs = stat.executeQuery(sql)) {
+			while (rs.next()) {
+				values.add(rs.getString(1));
+			}
+		}
+		return values;
+	}
+
+	private static Map<String, Long> rowCounts(Loader loader) throws SQLException {
+		Map<String, Long> counts = new HashMap<>();
+		try (Connection conn = openByJdbc(loader.connectionString())) {
+			JdbcUtil.attachGraphPartitions(conn);
+			for (Table t : loader.tables()) {
+				try (java.sql.Statement count = conn.createStatement();
+						var rs = count.executeQuery("SELECT COUNT(*) FROM " + t.name())) {
+					assertTrue(rs.next());
+					counts.put(t.name(), rs.getLong(1));
+				}
+			}
+		}
+		return counts;
+	}
+
 	public static void writeR2RML(List<Table> tables) throws IOException {
 		try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
 			R2RMLFromTables.write(tables, out);
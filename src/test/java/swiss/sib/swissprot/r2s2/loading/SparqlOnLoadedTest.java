@@ -10,6 +10,16 @@ import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -37,6 +47,11 @@ import org.junit.jupiter.params.provider.MethodSource;
 import it.unibz.inf.ontop.injection.OntopSQLOWLAPIConfiguration;
 import it.unibz.inf.ontop.rdf4j.repository.OntopRepository;
 
+import swiss.sib.swissprot.r2s2.loading.steps.CollectStatistics;
+import swiss.sib.swissprot.r2s2.sail.R2s2Sail;
+import swiss.sib.swissprot.r2s2.server.LoadTest;
+import swiss.sib.swissprot.r2s2.server.SparqlEndpoint;
+
 public class SparqlOnLoadedTest {
 
     static Stream<Arguments> driverStrings(){
@@ -89,8 +104,125 @@ public class SparqlOnLoadedTest {
 		}
 	}
 
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void loadAndQueryForTypesWithIriDictionary(String jdbcUrlPrefix, String jdbcDriver, String dbName) {
+		List<Statement> statements = IntStream.range(1, 100).mapToObj(i -> VF.createStatement(VF.createIRI(NS, "i" + i),
+				RDF.TYPE, VF.createIRI(NS, i % 2 == 0 ? "odd" : "even"))).collect(Collectors.toList());
+		IntStream.range(1, 100).mapToObj(
+				i -> VF.createStatement(VF.createIRI(NS, "i" + i), RDFS.SEEALSO, VF.createIRI(NS, "o" + (i % 7))))
+				.forEach(statements::add);
+		try {
+			testTypePresence(statements, jdbcUrlPrefix, jdbcDriver, 2, dbName, true);
+		} catch (Exception e) {
+			fail(e.getMessage(), e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void statisticsCoverEveryTriple(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		List<Statement> statements = IntStream.range(1, 100).mapToObj(i -> VF.createStatement(VF.createIRI(NS, "i" + i),
+				RDF.TYPE, VF.createIRI(NS, i % 2 == 0 ? "odd" : "even"))).collect(Collectors.toList());
+		IntStream.range(1, 100).mapToObj(
+				i -> VF.createStatement(VF.createIRI(NS, "i" + i), RDFS.SEEALSO, VF.createIRI(NS, "o" + (i % 7))))
+				.forEach(statements::add);
+		IntStream.range(1, 100).mapToObj(
+				i -> VF.createStatement(VF.createIRI(NS, "i" + i), RDFS.LABEL, VF.createLiteral("label " + i, "en")))
+				.forEach(statements::add);
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		LoadingTest.writeTestData(input, statements);
+		final String jdbc = jdbcUrlPrefix + newFolder.getAbsolutePath();
+		new Loader(newFolder, 0, List.of(input.getAbsolutePath() + "\thttp://example.org/graph"), jdbc).parse();
+		try (Connection db = openByJdbc(jdbc); java.sql.Statement stat = db.createStatement();
+				ResultSet rs = stat.executeQuery("SELECT SUM(triples) FROM " + CollectStatistics.STATISTICS)) {
+			assertTrue(rs.next());
+			assertEquals(297, rs.getLong(1));
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void loadAndServeOverHttp(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		List<Statement> statements = IntStream.range(1, 100).mapToObj(i -> VF.createStatement(VF.createIRI(NS, "i" + i),
+				RDFS.LABEL, VF.createLiteral("label, \"" + i + "\"", "en"))).collect(Collectors.toList());
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		LoadingTest.writeTestData(input, statements);
+		final String jdbc = jdbcUrlPrefix + newFolder.getAbsolutePath();
+		Loader loader = new Loader(newFolder, 0, List.of(input.getAbsolutePath() + "\thttp://example.org/graph"), jdbc);
+		loader.parse();
+
+		R2s2Sail sail = new R2s2Sail(jdbc, loader.descriptionPath());
+		sail.init();
+		try (SparqlEndpoint endpoint = new SparqlEndpoint(sail,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4, 10_000)) {
+			endpoint.start();
+			URI uri = URI.create("http://localhost:" + endpoint.port() + SparqlEndpoint.PATH);
+			HttpClient client = HttpClient.newHttpClient();
+			String query = "SELECT ?s ?label WHERE {?s <" + RDFS.LABEL + "> ?label} ORDER BY ?s LIMIT 2";
+			HttpResponse<String> csv = client.send(
+					HttpRequest.newBuilder(URI.create(uri + "?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8)))
+							.header("Accept", "text/csv").build(),
+					BodyHandlers.ofString());
+			assertEquals(200, csv.statusCode());
+			assertEquals("s,label\r\n" + NS + "i1,\"label, \"\"1\"\"\"\r\n" + NS + "i10,\"label, \"\"10\"\"\"\r\n",
+					csv.body());
+			// Triple patterns read the subjects as their decomposed columns, which are
+			// written out as they are
+			sail.setCompileToSql(false);
+			HttpRequest select = HttpRequest
+					.newBuilder(URI.create(uri + "?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8))).build();
+			assertEquals("?s\t?label\n<" + NS + "i1>\t\"label, \\\"1\\\"\"@en\n<" + NS
+					+ "i10>\t\"label, \\\"10\\\"\"@en\n",
+					client.send(HttpRequest.newBuilder(select, (n, v) -> true)
+							.header("Accept", "text/tab-separated-values").build(), BodyHandlers.ofString()).body());
+			assertTrue(client.send(HttpRequest.newBuilder(select, (n, v) -> true)
+					.header("Accept", "application/sparql-results+json").build(), BodyHandlers.ofString()).body()
+					.contains("{\"s\":{\"type\":\"uri\",\"value\":\"" + NS + "i10\"}"));
+			assertTrue(client.send(HttpRequest.newBuilder(select, (n, v) -> true)
+					.header("Accept", "application/sparql-results+xml").build(), BodyHandlers.ofString()).body()
+					.contains("<binding name=\"s\"><uri>" + NS + "i10</uri></binding>"));
+			sail.setCompileToSql(true);
+			HttpResponse<String> json = client.send(HttpRequest.newBuilder(uri)
+					.header("Content-Type", "application/sparql-query").header("Accept", "application/json;q=0.5, */*;q=0.1")
+					.POST(BodyPublishers.ofString("ASK {<" + NS + "i3> ?p ?o}")).build(), BodyHandlers.ofString());
+			assertEquals("{\"head\":{},\"boolean\":true}\n", json.body());
+			HttpResponse<String> malformed = client.send(
+					HttpRequest.newBuilder(URI.create(uri + "?query=SELECT")).build(), BodyHandlers.ofString());
+			assertEquals(400, malformed.statusCode());
+			HttpResponse<String> badGraph = client.send(HttpRequest.newBuilder(URI.create(uri + "?query="
+					+ URLEncoder.encode(query, StandardCharsets.UTF_8) + "&default-graph-uri=graph")).build(),
+					BodyHandlers.ofString());
+			assertEquals(400, badGraph.statusCode());
+
+			LoadTest.Report report = LoadTest.run(uri, query, "text/tab-separated-values", 200, 50);
+			assertEquals(0, report.failures(), report.toString());
+		} finally {
+			sail.shutDown();
+		}
+	}
+
+	private static List<String> solutions(RepositoryConnection conn, String query) {
+		try (TupleQueryResult result = conn.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+			// Neither the order of the solutions nor of the bindings in them is fixed
+			return result.stream().map(SparqlOnLoadedTest::solution).sorted().toList();
+		}
+	}
+
+	private static String solution(BindingSet b) {
+		return b.getBindingNames().stream().filter(b::hasBinding).sorted().map(n -> n + "=" + b.getValue(n))
+				.collect(Collectors.joining(";"));
+	}
+
 	private void testTypePresence(List<Statement> statements, String jdbcUrlPrefix,String jdbcDriver, int types, String dbName)
 			throws IOException, FileNotFoundException, SQLException, Exception {
+		testTypePresence(statements, jdbcUrlPrefix, jdbcDriver, types, dbName, false);
+	}
+
+	private void testTypePresence(List<Statement> statements, String jdbcUrlPrefix, String jdbcDriver, int types,
+			String dbName, boolean iriDictionary) throws IOException, FileNotFoundException, SQLException, Exception {
 		File newFolder = new File(temp, "f");
 		File input = new File(temp, "input.rdf");
 		File propertyFile = new File(temp, "test.properties");
@@ -98,6 +230,7 @@ public class SparqlOnLoadedTest {
 		final List<String> lines = List.of(input.getAbsolutePath() + "\thttp://example.org/graph");
 		final String jdbc = jdbcUrlPrefix + newFolder.getAbsolutePath();
 		Loader loader = new Loader(newFolder, 0, lines, jdbc);
+		loader.setIriDictionary(iriDictionary);
 		loader.parse();
 //		LoadingTest.writeR2RML(loader.tables());
 		
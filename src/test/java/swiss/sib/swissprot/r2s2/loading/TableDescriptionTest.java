@@ -3,6 +3,7 @@ package swiss.sib.swissprot.r2s2.loading;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
 import java.util.Map;
@@ -11,13 +12,20 @@ import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.junit.jupiter.api.Test;
 
 import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.r2rml.R2RMLFromTables;
 import swiss.sib.swissprot.r2s2.r2rml.TableDescriptionAsRdf;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.Column.Storage;
 import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.IriShapeColumn;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
 import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.Table.RowGroup;
 import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
 
 public class TableDescriptionTest {
@@ -63,6 +71,84 @@ public class TableDescriptionTest {
 		assertTableEquals(one, tables.get(1));
 	}
 
+	@Test
+	void dictionaryEnumColumn() {
+		final GroupOfColumns subjectColumns = GroupOfColumns.from(Kind.IRI, null, null, "subject_", Map.of(), zeroIri);
+		final GroupOfColumns objectColumns = GroupOfColumns.from(Kind.IRI, null, null, "object_", Map.of(), zeroIri);
+		final Column path = objectColumns.columns().get(6);
+		path.setDatatype(SqlDatatype.ENUM);
+		path.setEnumType("t_path_enum");
+		var zero = new Table(zeroIri, subjectColumns, Kind.IRI, objectColumns, Kind.IRI, null, null);
+		List<Table> tables = TableDescriptionAsRdf.tables(TableDescriptionAsRdf.model(List.of(zero)));
+		assertTableEquals(zero, tables.get(0));
+		final Column read = tables.get(0).objects().get(0).groupOfColumns().columns().get(6);
+		assertEquals(SqlDatatype.ENUM, read.sqlDatatype());
+		assertEquals("t_path_enum", read.enumType());
+		assertEquals(path.name() + " t_path_enum", read.definition());
+	}
+
+	@Test
+	void rowGroups() {
+		final GroupOfColumns subjectColumns = GroupOfColumns.from(Kind.IRI, null, null, "subject_", Map.of(), zeroIri);
+		final GroupOfColumns objectColumns = GroupOfColumns.from(Kind.IRI, null, null, "object_", Map.of(), zeroIri);
+		var zero = new Table(zeroIri, subjectColumns, Kind.IRI, objectColumns, Kind.IRI, null, null);
+		zero.setRowGroups(List.of(new RowGroup(0, NS + "a", NS + "m"), new RowGroup(1, NS + "n", NS + "z")));
+		List<Table> tables = TableDescriptionAsRdf.tables(TableDescriptionAsRdf.model(List.of(zero)));
+		assertTableEquals(zero, tables.get(0));
+		assertEquals(zero.rowGroups(), tables.get(0).rowGroups());
+	}
+
+	@Test
+	void languageColumn() {
+		final GroupOfColumns subjectColumns = GroupOfColumns.from(Kind.IRI, null, null, "subject_", Map.of(), zeroIri);
+		final GroupOfColumns objectColumns = GroupOfColumns.from(Kind.LITERAL, "en", RDF.LANGSTRING, "object_",
+				Map.of(), zeroIri);
+		objectColumns.columns().get(0).setDatatype(SqlDatatype.LANG_TAGS);
+		var labels = new Table("labels", subjectColumns, Kind.IRI, List.of(new PredicateMap(zeroIri, objectColumns,
+				Kind.LITERAL, null, RDF.LANGSTRING, List.of("en", "fr"))));
+		List<Table> tables = TableDescriptionAsRdf.tables(TableDescriptionAsRdf.model(List.of(labels)));
+		assertTableEquals(labels, tables.get(0));
+		assertEquals(List.of("en", "fr"), tables.get(0).objects().get(0).languages());
+		final String r2rml = R2RMLFromTables.generateR2RML(labels, null).toString();
+		assertTrue(r2rml.contains("WHERE t." + objectColumns.columns().get(0).name() + " = 'fr'"));
+	}
+
+	@Test
+	void columnStorage() {
+		final GroupOfColumns subjectColumns = GroupOfColumns.from(Kind.IRI, null, null, "subject_", Map.of(), zeroIri);
+		final GroupOfColumns objectColumns = GroupOfColumns.from(Kind.IRI, null, null, "object_", Map.of(), zeroIri);
+		var zero = new Table(zeroIri, subjectColumns, Kind.IRI, objectColumns, Kind.IRI, null, null);
+		Column physical = subjectColumns.columns().stream().filter(Column::isPhysical).findFirst().get();
+		physical.setStorage(new Storage("Dictionary", 4096));
+		List<Table> tables = TableDescriptionAsRdf.tables(TableDescriptionAsRdf.model(List.of(zero)));
+		assertTableEquals(zero, tables.get(0));
+		Column read = tables.get(0).subject().columns().stream().filter(c -> c.name().equals(physical.name()))
+				.findFirst().get();
+		assertEquals(new Storage("Dictionary", 4096), read.storage());
+	}
+
+	@Test
+	void iriShapes() {
+		final GroupOfColumns subjectColumns = GroupOfColumns.from(Kind.IRI, null, null, "subject_", Map.of(), zeroIri);
+		final GroupOfColumns objectColumns = GroupOfColumns.from(Kind.IRI, null, null, "object_", Map.of(), zeroIri);
+		List<Column> columns = subjectColumns.columns();
+		Column path = columns.stream().filter(c -> c.name().endsWith(GroupOfColumns.PATH)).findFirst().get();
+		IriShapeColumn shape = new IriShapeColumn(path.name() + IriShapeColumn.SHAPE, "t_shapes",
+				List.of("isoforms/{}-{}", "uniprot/{}"));
+		int at = columns.indexOf(path);
+		columns.set(at, shape);
+		columns.add(at + 1, new Column(shape.slotName(1), SqlDatatype.TEXT));
+		columns.add(at + 2, new Column(shape.slotName(2), SqlDatatype.BIGINT));
+		var zero = new Table(zeroIri, subjectColumns, Kind.IRI, objectColumns, Kind.IRI, null, null);
+		List<Table> tables = TableDescriptionAsRdf.tables(TableDescriptionAsRdf.model(List.of(zero)));
+		assertTableEquals(zero, tables.get(0));
+		IriShapeColumn read = (IriShapeColumn) tables.get(0).subject().columns().get(at);
+		assertEquals(shape.shapes(), read.shapes());
+		final String r2rml = R2RMLFromTables.generateR2RML(tables.get(0), null).toString();
+		assertTrue(r2rml.contains("isoforms/{" + shape.slotName(1) + "}-{" + shape.slotName(2) + "}"));
+		assertTrue(r2rml.contains("WHERE t." + shape.name() + " = 'uniprot/{}'"));
+	}
+
 	private void assertTableEquals(Table expected, Table generated) {
 		assertEquals(expected.name(), generated.name());
 		assertEquals(expected.subject(), generated.subject());
@@ -8,6 +8,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
 
+import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.model.vocabulary.XSD;
 import org.junit.jupiter.api.Test;
@@ -17,6 +18,8 @@ import swiss.sib.swissprot.r2s2.sql.Column;
 import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
 import swiss.sib.swissprot.r2s2.sql.PredicateMap;
 import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
 
 public class OptimizeForDatatypeTest {
 
@@ -69,6 +72,50 @@ public class OptimizeForDatatypeTest {
 		}
 	}
 	
+	@Test
+	public void narrowestLosslessType() throws SQLException {
+		assertEquals(SqlDatatype.TINYINT, optimizeLiteral(XSD.INTEGER, "-5", "0", "127"));
+		assertEquals(SqlDatatype.UTINYINT, optimizeLiteral(XSD.INTEGER, "0", "255"));
+		assertEquals(SqlDatatype.UINTEGER, optimizeLiteral(XSD.UNSIGNED_INT, "1", "4294967295"));
+		assertEquals(SqlDatatype.HUGEINT, optimizeLiteral(XSD.INTEGER, "-1", "18446744073709551616"));
+		assertEquals(SqlDatatype.TEXT, optimizeLiteral(XSD.INTEGER, "1", "+2"));
+		assertEquals(SqlDatatype.TEXT, optimizeLiteral(XSD.SHORT, "1", "02"));
+		assertEquals(SqlDatatype.NUMERIC, optimizeLiteral(XSD.DECIMAL, "1.5", "2.0", "-0.125"));
+		assertEquals(SqlDatatype.TEXT, optimizeLiteral(XSD.DECIMAL, "1.50"));
+		assertEquals(SqlDatatype.TIMESTAMP, optimizeLiteral(XSD.DATETIME, "2020-01-01T10:00:00", "2021-12-31T23:59:59.5"));
+		assertEquals(SqlDatatype.TIMESTAMPTZ, optimizeLiteral(XSD.DATETIME, "2020-01-01T10:00:00Z"));
+		assertEquals(SqlDatatype.TEXT, optimizeLiteral(XSD.DATETIME, "2020-01-01T10:00:00+02:00"));
+		assertEquals(SqlDatatype.DATE, optimizeLiteral(XSD.GYEARMONTH, "2020-01", "1999-12"));
+		assertEquals(SqlDatatype.INTERVAL, optimizeLiteral(XSD.DURATION, "P1Y2M3DT4H5M6.5S", "PT25H", "P3D", "PT0S"));
+		assertEquals(SqlDatatype.TEXT, optimizeLiteral(XSD.DURATION, "PT90M"));
+	}
+
+	private SqlDatatype optimizeLiteral(IRI datatype, String... values) throws SQLException {
+		String cn = "object_" + GroupOfColumns.LIT_VALUE;
+		Column c = new Column(cn, SqlDatatype.TEXT);
+		try (Connection conn = DriverManager.getConnection("jdbc:duckdb:")) {
+			try (var ct = conn.createStatement()) {
+				ct.execute("CREATE TABLE t(" + c.definition() + ")");
+			}
+			for (String value : values) {
+				addToTestTable(conn, value);
+			}
+			PredicateMap pm = new PredicateMap(RDFS.LABEL, new GroupOfColumns(List.of(c)), Kind.LITERAL, null, datatype);
+			OptimizeForDatatype.optimizeLiteral(conn, "t", pm, c);
+			if (c.sqlDatatype() != SqlDatatype.TEXT) {
+				String lexical = OptimizeForDatatype.lexicalForm(cn, c, datatype).orElse("CAST(" + cn + " AS VARCHAR)");
+				try (var ct = conn.createStatement();
+						var rs = ct.executeQuery("SELECT " + lexical + " FROM t ORDER BY rowid")) {
+					for (String value : values) {
+						rs.next();
+						assertEquals(value, rs.getString(1).replace(' ', 'T'));
+					}
+				}
+			}
+		}
+		return c.sqlDatatype();
+	}
+
 	@Test
 	public void allSomeNumberQuery() throws SQLException {
 		String cn = "object_iri" + GroupOfColumns.PATH;
@@ -86,6 +133,49 @@ public class OptimizeForDatatypeTest {
 		}
 	}
 
+	@Test
+	public void someNumbersWithLeadingZeros() throws SQLException {
+		String cn = "object_iri" + GroupOfColumns.PATH;
+		Column c = new Column(cn, SqlDatatype.TEXT);
+		try (Connection conn = DriverManager.getConnection("jdbc:duckdb:")) {
+			try (var ct = conn.createStatement()) {
+				ct.execute("CREATE TABLE t(" + c.definition() + ")");
+			}
+			for (int i = 1; i < 100; i++) {
+				addToTestTable(conn, Integer.toString(i));
+			}
+			addToTestTable(conn, "01");
+			OptimizeForDatatype.optimizeIRI(conn, "t", List.of(c));
+			assertEquals(SqlDatatype.TEXT, c.sqlDatatype());
+		}
+	}
+
+	@Test
+	public void numericSuffix() throws SQLException {
+		String cn = "subject" + GroupOfColumns.PATH;
+		Column c = new Column(cn, SqlDatatype.TEXT);
+		// The common prefix of citations/100 to citations/199 ends in a digit
+		GroupOfColumns subject = new GroupOfColumns(
+				List.of(new VirtualSingleValueColumn(cn + "_lcs", SqlDatatype.TEXT, "/citations/1"), c));
+		Table table = new Table("t", subject, Kind.IRI, List.of());
+		try (Connection conn = DriverManager.getConnection("jdbc:duckdb:")) {
+			try (var ct = conn.createStatement()) {
+				ct.execute("CREATE TABLE t(" + c.definition() + ")");
+			}
+			for (int i = 100; i < 200; i++) {
+				addToTestTable(conn, Integer.toString(i).substring(1));
+			}
+			OptimizeForNumericSuffix.optimize(conn, table);
+			assertEquals(SqlDatatype.BIGINT, c.sqlDatatype());
+			assertEquals("/citations/", ((VirtualSingleValueColumn) table.subject().columns().get(0)).value());
+			try (var ct = conn.createStatement(); var rs = ct.executeQuery("SELECT MIN(" + cn + "), MAX(" + cn + ") FROM t")) {
+				rs.next();
+				assertEquals(100, rs.getLong(1));
+				assertEquals(199, rs.getLong(2));
+			}
+		}
+	}
+
 	private void addToTestTable(Connection conn, String zero) throws SQLException {
 		try (PreparedStatement prepareStatement = conn.prepareStatement("INSERT INTO t VALUES (?)")) {
 			prepareStatement.setString(1, zero);
@@ -1,6 +1,7 @@
 package swiss.sib.swissprot.r2s2.optimization;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
@@ -41,6 +42,27 @@ public class ReintroduceRdfSetSemanticsTest {
 
 			Table t = load(ns, conn, test, test2, p, pt);
 			assertEquals(2, countAllRows(t.name(), conn));
+			assertFalse(t.mayContainDuplicates());
+			ReintroduceRdfSetSemantics.optimize(conn, t);
+			assertEquals(2, countAllRows(t.name(), conn));
+		}
+	}
+
+	@Test
+	void sameStatementTwice() throws SQLException, IOException {
+		Map<String, String> ns = Map.of(RDF.PREFIX, RDF.NAMESPACE, "ex", NS);
+		TemporaryIriIdMap p = new TemporaryIriIdMap();
+		TempIriId pt = p.temporaryIriId(RDF.TYPE);
+		try (Connection conn = DriverManager.getConnection("jdbc:duckdb:")) {
+
+			Statement test = vf.createStatement(oneIri, pt, zeroIri, zeroGraph);
+
+			Table t = load(ns, conn, test, test, p, pt);
+			assertEquals(2, countAllRows(t.name(), conn));
+			assertTrue(t.mayContainDuplicates());
+			ReintroduceRdfSetSemantics.optimize(conn, t);
+			assertEquals(1, countAllRows(t.name(), conn));
+			assertFalse(t.mayContainDuplicates());
 		}
 	}
 
@@ -0,0 +1,208 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.sail.FilterPushdown.Condition;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Term;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+
+public class FilterPushdownTest {
+	private static final ValueFactory vf = SimpleValueFactory.getInstance();
+	private static final String NS = "http://example.org/";
+	private static final List<CompareOp> OPS = List.of(CompareOp.LT, CompareOp.LE, CompareOp.EQ, CompareOp.GT);
+	private static final List<String> INTEGERS = List.of("-3", "0", "2", "7", "10");
+	private static final List<String> DECIMALS = List.of("-1.5", "0.25", "2.5", "7.0", "10.125");
+	private static final List<String> DOUBLES = List.of("-1.5E0", "2.5E0", "7.0E0", "1.0E1", "1.0E2");
+	private static final List<String> DATES = List.of("1999-12-31", "2020-01-01", "2023-06-22", "2023-06-23",
+			"2024-02-29");
+
+	private Connection conn;
+	private Table table;
+
+	@BeforeEach
+	void createTable() throws SQLException {
+		table = new Table("data", new GroupOfColumns(List.of(new Column("subject_id", SqlDatatype.INTEGER))),
+				Kind.BNODE, List.of(typed("integer", XSD.INTEGER, SqlDatatype.INTEGER),
+						typed("decimal", XSD.DECIMAL, SqlDatatype.NUMERIC),
+						typed("double", XSD.DOUBLE, SqlDatatype.DOUBLE), typed("date", XSD.DATE, SqlDatatype.DATE)));
+		conn = DriverManager.getConnection("jdbc:duckdb:");
+		try (Statement stat = conn.createStatement()) {
+			stat.execute("CREATE TABLE data (subject_id INTEGER, " + table.objects().stream()
+					.map(p -> p.groupOfColumns().columns().get(0).definition()).collect(Collectors.joining(", "))
+					+ ")");
+			for (int i = 0; i < INTEGERS.size(); i++) {
+				stat.execute("INSERT INTO data VALUES (" + i + ", " + INTEGERS.get(i) + ", " + DECIMALS.get(i) + ", "
+						+ DOUBLES.get(i) + ", DATE '" + DATES.get(i) + "')");
+			}
+		}
+	}
+
+	@AfterEach
+	void close() throws SQLException {
+		conn.close();
+	}
+
+	private static PredicateMap typed(String name, IRI datatype, SqlDatatype sqlDatatype) {
+		Column value = new Column("object_" + name + GroupOfColumns.LIT_VALUE, sqlDatatype);
+		return new PredicateMap(vf.createIRI(NS, name), new GroupOfColumns(List.of(value)), Kind.LITERAL, null,
+				datatype);
+	}
+
+	private Term object(String name) {
+		PredicateMap pm = table.objects().stream().filter(p -> p.predicate().getLocalName().equals(name)).findFirst()
+				.get();
+		return new PredicateTable(table, pm).object();
+	}
+
+	@Test
+	void integerColumn() throws SQLException {
+		Term term = object("integer");
+		for (Literal value : List.of(vf.createLiteral("2", XSD.INTEGER), vf.createLiteral("-3", XSD.INT),
+				vf.createLiteral("11", XSD.INTEGER))) {
+			assertSameAsRdf4j(term, INTEGERS, XSD.INTEGER, value);
+		}
+	}
+
+	@Test
+	void decimalColumn() throws SQLException {
+		Term term = object("decimal");
+		for (Literal value : List.of(vf.createLiteral("2.5", XSD.DECIMAL), vf.createLiteral("0.250", XSD.DECIMAL),
+				vf.createLiteral("-2", XSD.DECIMAL))) {
+			assertSameAsRdf4j(term, DECIMALS, XSD.DECIMAL, value);
+		}
+	}
+
+	@Test
+	void mixedNumericTypes() throws SQLException {
+		assertSameAsRdf4j(object("integer"), INTEGERS, XSD.INTEGER, vf.createLiteral("2.0", XSD.DECIMAL));
+		assertSameAsRdf4j(object("integer"), INTEGERS, XSD.INTEGER, vf.createLiteral("2.5", XSD.DECIMAL));
+		assertSameAsRdf4j(object("integer"), INTEGERS, XSD.INTEGER, vf.createLiteral("7.0E0", XSD.DOUBLE));
+		assertSameAsRdf4j(object("decimal"), DECIMALS, XSD.DECIMAL, vf.createLiteral("7", XSD.INTEGER));
+		assertSameAsRdf4j(object("decimal"), DECIMALS, XSD.DECIMAL, vf.createLiteral("2.5E0", XSD.DOUBLE));
+	}
+
+	@Test
+	void dateColumn() throws SQLException {
+		Term term = object("date");
+		for (Literal value : List.of(vf.createLiteral("2023-06-22", XSD.DATE),
+				vf.createLiteral("2000-01-01", XSD.DATE))) {
+			assertSameAsRdf4j(term, DATES, XSD.DATE, value);
+		}
+	}
+
+	@Test
+	void otherTypeClassesNeverMatch() {
+		for (CompareOp op : OPS) {
+			assertEquals(FilterPushdown.Sql.FALSE, sql(object("date"), op, vf.createLiteral("7", XSD.INTEGER)));
+			assertEquals(FilterPushdown.Sql.FALSE,
+					sql(object("integer"), op, vf.createLiteral("2023-06-22", XSD.DATE)));
+		}
+	}
+
+	@Test
+	void doublesAreLeftToRdf4j() {
+		// NaN is ordered in DuckDB but never compares true in SPARQL
+		for (CompareOp op : OPS) {
+			assertNull(sql(object("double"), op, vf.createLiteral("2.5E0", XSD.DOUBLE)));
+			assertNull(sql(object("double"), op, vf.createLiteral("2", XSD.INTEGER)));
+		}
+	}
+
+	@Test
+	void constantsThatDoNotParseAreNotPushedDown() {
+		for (CompareOp op : OPS) {
+			assertTrue(FilterPushdown.of(compare(op, vf.createLiteral("two", XSD.INTEGER)),
+					EmptyBindingSet.getInstance()).isEmpty());
+			assertTrue(FilterPushdown.of(compare(op, vf.createLiteral("2023-13-45", XSD.DATE)),
+					EmptyBindingSet.getInstance()).isEmpty());
+			// Valid, but not a number or date DuckDB can compare with
+			assertNull(sql(object("integer"), op, vf.createLiteral("INF", XSD.DOUBLE)));
+			assertNull(sql(object("decimal"), op, vf.createLiteral("NaN", XSD.DOUBLE)));
+			assertNull(sql(object("date"), op, vf.createLiteral("2023-06-22Z", XSD.DATE)));
+		}
+	}
+
+	@Test
+	void comparisonsAreRecognized() {
+		Literal two = vf.createLiteral("2", XSD.INTEGER);
+		for (CompareOp op : OPS) {
+			Condition c = FilterPushdown.of(compare(op, two), EmptyBindingSet.getInstance()).get();
+			assertEquals(new Condition("o", op, two), c);
+		}
+		// The constant on the left is the same comparison the other way around
+		Compare flipped = new Compare(new ValueConstant(two), new Var("o"), CompareOp.LT);
+		assertEquals(new Condition("o", CompareOp.GT, two),
+				FilterPushdown.of(flipped, EmptyBindingSet.getInstance()).get());
+	}
+
+	private static Compare compare(CompareOp op, Literal value) {
+		return new Compare(new Var("o"), new ValueConstant(value), op);
+	}
+
+	private static FilterPushdown.Sql sql(Term term, CompareOp op, Literal value) {
+		return FilterPushdown.sql(List.of(new Condition("o", op, value)), term);
+	}
+
+	/**
+	 * The rows the SQL selects are those where RDF4J finds the comparison true.
+	 */
+	private void assertSameAsRdf4j(Term term, List<String> labels, IRI datatype, Literal value)
+			throws SQLException {
+		for (CompareOp op : OPS) {
+			List<Integer> expected = new ArrayList<>();
+			for (int i = 0; i < labels.size(); i++) {
+				try {
+					if (QueryEvaluationUtil.compareLiterals(vf.createLiteral(labels.get(i), datatype), value, op)) {
+						expected.add(i);
+					}
+				} catch (ValueExprEvaluationException e) {
+					// An error is not true
+				}
+			}
+			FilterPushdown.Sql sql = sql(term, op, value);
+			assertNotNull(sql, op + " " + value);
+			List<Integer> selected = new ArrayList<>();
+			try (Statement stat = conn.createStatement();
+					ResultSet rs = stat.executeQuery(
+							"SELECT subject_id FROM data AS t WHERE " + sql.sql() + " ORDER BY subject_id")) {
+				while (rs.next()) {
+					selected.add(rs.getInt(1));
+				}
+			}
+			assertEquals(expected, selected, sql.sql());
+		}
+	}
+}
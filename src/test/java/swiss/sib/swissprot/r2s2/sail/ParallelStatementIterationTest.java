@@ -0,0 +1,67 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.sail.SailException;
+import org.junit.jupiter.api.Test;
+
+public class ParallelStatementIterationTest {
+	private static final ValueFactory vf = SimpleValueFactory.getInstance();
+	private static final String NS = "http://example.org/";
+
+	private static ParallelStatementIteration.Branch statements(int count) {
+		return into -> {
+			for (int i = 0; i < count; i++) {
+				into.add(vf.createStatement(vf.createIRI(NS, "i" + i), RDF.TYPE, vf.createIRI(NS, "T")));
+			}
+		};
+	}
+
+	@Test
+	void allBranchesAreRead() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (ParallelStatementIteration statements = new ParallelStatementIteration(executor,
+				List.of(statements(3), statements(2000)))) {
+			int read = 0;
+			while (statements.hasNext()) {
+				statements.next();
+				read++;
+			}
+			assertEquals(2003, read);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void aFailingBranchFailsTheIteration() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		ParallelStatementIteration.Branch failing = into -> {
+			statements(5).run(into);
+			throw new IllegalArgumentException("Not an IRI");
+		};
+		try (ParallelStatementIteration statements = new ParallelStatementIteration(executor,
+				List.of(statements(3), failing))) {
+			List<Statement> read = new ArrayList<>();
+			SailException e = assertThrows(SailException.class, () -> {
+				while (statements.hasNext()) {
+					read.add(statements.next());
+				}
+			});
+			assertInstanceOf(IllegalArgumentException.class, e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import swiss.sib.swissprot.r2s2.loading.Loader.Kind;
+import swiss.sib.swissprot.r2s2.sail.PredicateTable.Query;
+import swiss.sib.swissprot.r2s2.sql.Column;
+import swiss.sib.swissprot.r2s2.sql.GroupOfColumns;
+import swiss.sib.swissprot.r2s2.sql.PredicateMap;
+import swiss.sib.swissprot.r2s2.sql.SqlDatatype;
+import swiss.sib.swissprot.r2s2.sql.Table;
+import swiss.sib.swissprot.r2s2.sql.VirtualSingleValueColumn;
+
+public class PredicateTableTest {
+	private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+	private Connection conn;
+	private PredicateTable table;
+
+	@BeforeEach
+	void createTable() throws SQLException {
+		GroupOfColumns subject = new GroupOfColumns(
+				List.of(new VirtualSingleValueColumn("subject" + GroupOfColumns.SCHEME, SqlDatatype.TEXT, "https"),
+						new Column("subject" + GroupOfColumns.HOST, SqlDatatype.TEXT),
+						new Column("subject" + GroupOfColumns.PATH, SqlDatatype.TEXT)));
+		PredicateMap label = new PredicateMap(RDFS.LABEL,
+				new GroupOfColumns(List.of(new Column("object" + GroupOfColumns.LIT_VALUE, SqlDatatype.TEXT))),
+				Kind.LITERAL, null, XSD.STRING);
+		Table data = new Table("data", subject, Kind.IRI, List.of(label));
+		table = new PredicateTable(data, label);
+		conn = DriverManager.getConnection("jdbc:duckdb:");
+		try (Statement stat = conn.createStatement()) {
+			stat.execute("CREATE TABLE data (subject_host VARCHAR, subject_path VARCHAR, object_litvalue VARCHAR)");
+			// Merged tables have rows where a term is missing
+			stat.execute("INSERT INTO data VALUES ('example.org', '/a', 'a'), ('example.org', NULL, 'b'),"
+					+ " (NULL, '/c', 'c'), ('example.org', '/d', NULL)");
+		}
+	}
+
+	@AfterEach
+	void close() throws SQLException {
+		conn.close();
+	}
+
+	@Test
+	void presenceIsCheckedOnTheColumns() throws SQLException {
+		Query query = table.query(null, null).get();
+		// The IRI is not put together just to see that it is there
+		assertFalse(query.sql().substring(query.sql().indexOf(" WHERE ")).contains("||"), query.sql());
+		assertEquals(List.of("example.org /a a"), rows(query));
+	}
+
+	@Test
+	void boundSubjectsAreLookedUpByTheirColumns() throws SQLException {
+		Resource a = vf.createIRI("https://example.org/a");
+		Query query = table.query(a, null).get();
+		assertFalse(query.sql().contains("||"), query.sql());
+		assertEquals(List.of("example.org /a a"), rows(query));
+		assertEquals(List.of(), rows(table.query(vf.createIRI("https://example.org/d"), null).get()));
+	}
+
+	private List<String> rows(Query query) throws SQLException {
+		List<String> rows = new ArrayList<>();
+		try (PreparedStatement stat = conn.prepareStatement(query.sql())) {
+			for (int i = 0; i < query.parameters().size(); i++) {
+				stat.setString(i + 1, query.parameters().get(i));
+			}
+			try (ResultSet rs = stat.executeQuery()) {
+				while (rs.next()) {
+					List<String> row = new ArrayList<>();
+					for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
+						row.add(rs.getString(i));
+					}
+					rows.add(String.join(" ", row));
+				}
+			}
+		}
+		return rows;
+	}
+}
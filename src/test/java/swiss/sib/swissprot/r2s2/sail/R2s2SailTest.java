@@ -0,0 +1,374 @@
+package swiss.sib.swissprot.r2s2.sail;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static swiss.sib.swissprot.r2s2.JdbcUtil.openByJdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Model;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.LinkedHashModel;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.DefaultEvaluationStrategy;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import swiss.sib.swissprot.r2s2.JdbcUtil;
+import swiss.sib.swissprot.r2s2.loading.Loader;
+import swiss.sib.swissprot.r2s2.loading.LoadingTest;
+
+/**
+ * Loads a small data set and checks the sail answers as RDF4J does on the same
+ * statements.
+ */
+public class R2s2SailTest {
+
+    static Stream<Arguments> driverStrings(){
+        return Stream.of(
+        		Arguments.of("jdbc:duckdb:", "org.duckdb.DuckDBDriver", "f.main"),
+                Arguments.of("jdbc:h2:file:","org.h2.Driver",""));
+    }
+
+	@TempDir
+	public File temp;
+	private static final ValueFactory VF = SimpleValueFactory.getInstance();
+	private static final String NS = "https://example.org/";
+
+	public String jdbc;
+
+	private static final IRI GRAPH = VF.createIRI("http://example.org/graph");
+	private static final String EVEN = "SELECT ?s ?o ?label WHERE {?s a <" + NS + "even> OPTIONAL {?s <" + RDFS.SEEALSO
+			+ "> ?o FILTER(?o != <" + NS + "o1>)} ?s <" + RDFS.LABEL + "> ?label FILTER(lang(?label) = 'en')}";
+	private static final List<String> PATTERNS = List.of("SELECT DISTINCT ?type WHERE {[] a ?type}",
+			"SELECT ?s ?label WHERE {?s <" + RDFS.SEEALSO + "> <" + NS + "o3> ; <" + RDFS.LABEL + "> ?label}", EVEN,
+			"SELECT ?g (COUNT(*) AS ?c) WHERE {GRAPH ?g {?s <" + RDFS.LABEL + "> ?label}} GROUP BY ?g",
+			"SELECT * FROM <" + GRAPH + "> WHERE {?s ?p <" + NS + "o2>}",
+			"SELECT ?s ?type WHERE {?s <" + RDFS.LABEL + "> 'label 3'@en ; a ?type}");
+	private static final List<String> FILTERS = List.of(EVEN,
+			"SELECT ?s ?o WHERE {?s <" + RDFS.SEEALSO + "> ?o FILTER(STRSTARTS(STR(?s), '" + NS
+					+ "i1') && STRSTARTS(STR(?o), '" + NS + "o1'))}",
+			"SELECT ?s ?label WHERE {?s <" + RDFS.LABEL
+					+ "> ?label FILTER(STRSTARTS(STR(?label), 'label 9') && ?label < 5)}");
+	private static final List<String> AGGREGATES = List.of(
+			"SELECT ?type (COUNT(?s) AS ?n) WHERE {?s a ?type} GROUP BY ?type",
+			"SELECT (COUNT(DISTINCT ?o) AS ?n) (COUNT(*) AS ?c) WHERE {?s <" + RDFS.SEEALSO + "> ?o}",
+			"SELECT ?o WHERE {?s <" + RDFS.SEEALSO + "> ?o} GROUP BY ?o HAVING (COUNT(?s) > 14)",
+			"SELECT (MIN(?s) AS ?min) (MAX(?s) AS ?max) WHERE {?s a <" + NS + "odd>}",
+			"SELECT DISTINCT ?o WHERE {?s <" + RDFS.SEEALSO + "> ?o}");
+	private static final List<String> QUERIES = Stream.of(PATTERNS, FILTERS, AGGREGATES).flatMap(List::stream)
+			.distinct().toList();
+
+	/**
+	 * Every subject has a type, a see also and a label.
+	 */
+	private static List<Statement> sailTestData() {
+		List<Statement> statements = IntStream.range(1, 100).mapToObj(i -> VF.createStatement(VF.createIRI(NS, "i" + i),
+				RDF.TYPE, VF.createIRI(NS, i % 2 == 0 ? "odd" : "even"))).collect(Collectors.toList());
+		IntStream.range(1, 100).mapToObj(
+				i -> VF.createStatement(VF.createIRI(NS, "i" + i), RDFS.SEEALSO, VF.createIRI(NS, "o" + (i % 7))))
+				.forEach(statements::add);
+		IntStream.range(1, 100).mapToObj(
+				i -> VF.createStatement(VF.createIRI(NS, "i" + i), RDFS.LABEL, VF.createLiteral("label " + i, "en")))
+				.forEach(statements::add);
+		return statements;
+	}
+
+	/**
+	 * The test data as loaded, in its graph.
+	 */
+	private static Model loaded() {
+		Model model = new LinkedHashModel();
+		sailTestData().forEach(st -> model.add(st.getSubject(), st.getPredicate(), st.getObject(), GRAPH));
+		return model;
+	}
+
+	private SailRepository loadIntoSail(String jdbcUrlPrefix) throws IOException, SQLException {
+		File newFolder = new File(temp, "f");
+		File input = new File(temp, "input.rdf");
+		LoadingTest.writeTestData(input, sailTestData());
+		jdbc = jdbcUrlPrefix + newFolder.getAbsolutePath();
+		Loader loader = new Loader(newFolder, 0, List.of(input.getAbsolutePath() + "\t" + GRAPH), jdbc);
+		loader.parse();
+		R2s2Sail sail = new R2s2Sail(jdbc, loader.descriptionPath());
+		// Compare evaluations, not the cache
+		sail.setQueryCacheBytes(0);
+		SailRepository repo = new SailRepository(sail);
+		repo.init();
+		return repo;
+	}
+
+	/**
+	 * What RDF4J answers on the same statements held in memory.
+	 */
+	private static List<String> reference(String query) {
+		Model model = loaded();
+		TripleSource source = new TripleSource() {
+			@Override
+			public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj,
+					IRI pred, Value obj, Resource... contexts) {
+				return new CloseableIteratorIteration<>(model.getStatements(subj, pred, obj, contexts).iterator());
+			}
+
+			@Override
+			public ValueFactory getValueFactory() {
+				return VF;
+			}
+		};
+		ParsedQuery parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null);
+		EvaluationStrategy strategy = new DefaultEvaluationStrategy(source, parsed.getDataset(), null);
+		try (var result = strategy.evaluate(new QueryRoot(parsed.getTupleExpr()), EmptyBindingSet.getInstance())) {
+			List<String> solutions = new ArrayList<>();
+			while (result.hasNext()) {
+				solutions.add(solution(result.next()));
+			}
+			return solutions.stream().sorted().toList();
+		}
+	}
+
+	private static void assertAsReference(RepositoryConnection conn, String query) {
+		assertEquals(reference(query), solutions(conn, query), query);
+	}
+
+	private static Set<Statement> statements(RepositoryConnection conn, Resource subj, IRI pred, Value obj) {
+		return conn.getStatements(subj, pred, obj).stream().collect(Collectors.toSet());
+	}
+
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void sailAnswersAsRdf4j(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			for (String query : QUERIES) {
+				assertAsReference(conn, query);
+			}
+			assertEquals(loaded(), statements(conn, null, null, null));
+			assertEquals(5, solutions(conn, "SELECT * WHERE {?s ?p ?o} LIMIT 5").size());
+			assertEquals(297, conn.size());
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void basicGraphPatternsCompileToSql(String jdbcUrlPrefix, String jdbcDriver, String dbName)
+			throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		((R2s2Sail) repo.getSail()).setCompileToSql(true);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			List<Integer> sizes = List.of(2, 14, 50, 1, 14, 1);
+			for (int i = 0; i < PATTERNS.size(); i++) {
+				assertAsReference(conn, PATTERNS.get(i));
+				assertEquals(sizes.get(i), solutions(conn, PATTERNS.get(i)).size(), PATTERNS.get(i));
+			}
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void patternsAreRoutedToTheirTables(String jdbcUrlPrefix, String jdbcDriver, String dbName)
+			throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		Model model = loaded();
+		try (RepositoryConnection conn = repo.getConnection()) {
+			for (Value object : List.of(VF.createIRI(NS, "o3"), VF.createIRI(NS, "even"),
+					VF.createLiteral("label 3", "en"))) {
+				assertEquals(model.filter(null, null, object), statements(conn, null, null, object), object.toString());
+			}
+			assertEquals(model.filter(null, RDFS.SEEALSO, VF.createIRI(NS, "o3")),
+					statements(conn, null, RDFS.SEEALSO, VF.createIRI(NS, "o3")));
+			// No table can hold these
+			assertTrue(statements(conn, null, RDFS.SEEALSO, VF.createIRI(NS, "o7")).isEmpty());
+			assertTrue(statements(conn, null, RDFS.LABEL, VF.createIRI(NS, "o3")).isEmpty());
+			assertTrue(statements(conn, null, RDFS.COMMENT, null).isEmpty());
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void decomposedIrisAreReadLazily(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			List<Statement> i3 = conn.getStatements(VF.createIRI(NS, "i3"), null, null).stream().toList();
+			assertEquals(loaded().filter(VF.createIRI(NS, "i3"), null, null), Set.copyOf(i3));
+			// Subjects are read from their columns, they must still hash like any IRI
+			for (Statement st : i3) {
+				assertEquals(VF.createIRI(NS, "i3").hashCode(), st.getSubject().hashCode());
+				assertEquals(VF.createIRI(NS, "i3"), st.getSubject());
+			}
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void resultsAreCachedPerQuery(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		R2s2Sail sail = (R2s2Sail) repo.getSail();
+		sail.setQueryCacheBytes(1024 * 1024);
+		try (RepositoryConnection cached = repo.getConnection()) {
+			for (String query : QUERIES) {
+				assertAsReference(cached, query);
+				assertAsReference(cached, query);
+			}
+			assertEquals(QUERIES.size(), sail.getQueryCacheMisses());
+			assertEquals(QUERIES.size(), sail.getQueryCacheHits());
+		} finally {
+			repo.shutDown();
+		}
+		// Loaded again, which is seen when the sail is initialized again
+		try (Connection db = openByJdbc(jdbc); java.sql.Statement stat = db.createStatement()) {
+			stat.execute("UPDATE " + JdbcUtil.LOAD_GENERATION + " SET generation = 'again'");
+			JdbcUtil.commitIfNeeded(db);
+		}
+		repo.init();
+		try (RepositoryConnection cached = repo.getConnection()) {
+			assertAsReference(cached, QUERIES.get(0));
+			assertEquals(QUERIES.size() + 1, sail.getQueryCacheMisses());
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void repeatedValuesAreDecodedOnce(String jdbcUrlPrefix, String jdbcDriver, String dbName)
+			throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		((R2s2Sail) repo.getSail()).setCompileToSql(true);
+		String query = "SELECT ?g ?s WHERE {GRAPH ?g {?s a <" + NS + "even> ; <" + RDFS.LABEL + "> ?label}}";
+		try (RepositoryConnection conn = repo.getConnection()) {
+			assertAsReference(conn, query);
+			try (TupleQueryResult result = conn.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+				Set<Value> graphs = Collections.newSetFromMap(new IdentityHashMap<>());
+				result.forEach(b -> graphs.add(b.getValue("g")));
+				assertEquals(1, graphs.size());
+			}
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void parallelBranchesAnswerAsRdf4j(String jdbcUrlPrefix, String jdbcDriver, String dbName)
+			throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		// Without compiling to SQL every pattern is answered by all of its tables at once
+		((R2s2Sail) repo.getSail()).setParallelBranches(true);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			for (String query : QUERIES) {
+				assertAsReference(conn, query);
+			}
+			assertEquals(loaded(), statements(conn, null, null, null));
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void filtersArePushedDown(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		R2s2Sail sail = (R2s2Sail) repo.getSail();
+		try (RepositoryConnection conn = repo.getConnection()) {
+			List<Integer> sizes = List.of(50, 2, 0);
+			for (boolean compile : List.of(true, false)) {
+				sail.setCompileToSql(compile);
+				for (int i = 0; i < FILTERS.size(); i++) {
+					assertAsReference(conn, FILTERS.get(i));
+					assertEquals(sizes.get(i), solutions(conn, FILTERS.get(i)).size(), FILTERS.get(i));
+				}
+			}
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void boundIrisUseTheirPartColumns(String jdbcUrlPrefix, String jdbcDriver, String dbName)
+			throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			assertTrue(conn.hasStatement(VF.createIRI(NS, "i3"), RDFS.SEEALSO, VF.createIRI(NS, "o3"), false));
+			assertEquals(3, statements(conn, VF.createIRI(NS, "i3"), null, null).size());
+			// Other hosts and non numbers can not be in the decomposed subject columns
+			assertFalse(conn.hasStatement(VF.createIRI("http://example.org/i3"), null, null, false));
+			assertFalse(conn.hasStatement(VF.createIRI(NS, "i3x"), null, null, false));
+			assertFalse(conn.hasStatement(VF.createIRI(NS, "i03"), null, null, false));
+			assertFalse(conn.hasStatement(null, RDFS.SEEALSO, VF.createIRI(NS, "ox"), false));
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("driverStrings")
+	public void aggregatesAreComputedInSql(String jdbcUrlPrefix, String jdbcDriver, String dbName) throws Exception {
+		SailRepository repo = loadIntoSail(jdbcUrlPrefix);
+		((R2s2Sail) repo.getSail()).setCompileToSql(true);
+		try (RepositoryConnection conn = repo.getConnection()) {
+			List<Integer> sizes = List.of(2, 1, 1, 1, 7);
+			for (int i = 0; i < AGGREGATES.size(); i++) {
+				assertAsReference(conn, AGGREGATES.get(i));
+				assertEquals(sizes.get(i), solutions(conn, AGGREGATES.get(i)).size(), AGGREGATES.get(i));
+			}
+		} finally {
+			repo.shutDown();
+		}
+	}
+
+	private static List<String> solutions(RepositoryConnection conn, String query) {
+		try (TupleQueryResult result = conn.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+			// Neither the order of the solutions nor of the bindings in them is fixed
+			return result.stream().map(R2s2SailTest::solution).sorted().toList();
+		}
+	}
+
+	private static String solution(BindingSet b) {
+		return b.getBindingNames().stream().filter(b::hasBinding).sorted().map(n -> n + "=" + b.getValue(n))
+				.collect(Collectors.joining(";"));
+	}
+}